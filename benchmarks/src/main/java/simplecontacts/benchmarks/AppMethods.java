@@ -0,0 +1,40 @@
+package simplecontacts.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Handles on the application's methods. The application is in the
+ * default package, which no named package (and so no JMH benchmark) can
+ * refer to, so its classes and methods are looked up by name once. A call
+ * through a handle held in a static final field is inlined by the JIT
+ * like a direct call.
+ */
+final class AppMethods {
+	private AppMethods() {
+	}
+
+	/********************************************************************
+	* Get a handle on a method (of any visibility), adapted to the given
+	* type, eg. with application types replaced by Object
+	*********************************************************************/
+	static MethodHandle find(String className, String methodName, MethodType type, Class<?>... parameterTypes) {
+		try {
+			Method method = type(className).getDeclaredMethod(methodName, parameterTypes);
+			method.setAccessible(true);
+			return MethodHandles.lookup().unreflect(method).asType(type);
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException("Could not find " + className + "." + methodName, ex);
+		}
+	}
+
+	static Class<?> type(String className) {
+		try {
+			return Class.forName(className);
+		} catch (ClassNotFoundException ex) {
+			throw new IllegalStateException("Could not find " + className, ex);
+		}
+	}
+}
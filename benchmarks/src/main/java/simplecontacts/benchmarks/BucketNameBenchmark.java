@@ -0,0 +1,40 @@
+package simplecontacts.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Validating a bucket name (S3ContactManager.validateBucketNameFormat).
+ * Only valid names are measured, since an invalid one is reported on the
+ * console
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class BucketNameBenchmark {
+	private static final MethodHandle VALIDATE = AppMethods.find("S3ContactManager", "validateBucketNameFormat",
+			MethodType.methodType(boolean.class, String.class), String.class);
+
+	@Param({ "abc", "cspp51083.samuelh.simplecontacts", "contact-pages.archive-2024.us-east-1.example-company.backups" })
+	public String bucketName;
+
+	@Benchmark
+	public boolean validate() throws Throwable {
+		return (boolean) VALIDATE.invokeExact(bucketName);
+	}
+}
@@ -0,0 +1,49 @@
+package simplecontacts.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * Decoding a SimpleDB item into a contact, as listing, displaying and
+ * editing contacts do, by contact size
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ContactDecodeBenchmark {
+	private static final MethodHandle DECODE = AppMethods.find("ContactCodec", "decode",
+			MethodType.methodType(Object.class, Item.class), Item.class);
+
+	@Param({ "minimal", "typical", "large" })
+	public String size;
+
+	private Item item;
+
+	@Setup
+	public void setUp() {
+		item = SampleContacts.item(size);
+	}
+
+	@Benchmark
+	public Object decode() throws Throwable {
+		return (Object) DECODE.invokeExact(item);
+	}
+}
@@ -0,0 +1,62 @@
+package simplecontacts.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.util.json.Jackson;
+
+/**
+ * Reading the contact out of an update notification
+ * (SQSPollingFormatter.getContactInfoFromMessage), with the notification
+ * as the message body or wrapped in SNS's envelope
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ContactMessageBenchmark {
+	private static final MethodHandle CONTACT_INFO = AppMethods.find("SQSPollingFormatter", "getContactInfoFromMessage",
+			MethodType.methodType(Map.class, Message.class), Message.class);
+
+	//as SimpleContacts publishes it
+	private static final String NOTIFICATION = "{  \"updateType\" : \"edit\", \"itemName\" : \"000000000003514\", \"first\" : \"Samuel\", "
+			+ "\"last\" : \"Henry\", \"url\" : \"https://s3.amazonaws.com/cspp51083.samuelh.simplecontacts/SamuelHenry000000000003514.html\" }";
+
+	@Param({ "body", "envelope" })
+	public String format;
+
+	private Message message;
+
+	@Setup
+	public void setUp() {
+		String body = NOTIFICATION;
+		if (format.equals("envelope")) {
+			body = "{\"Type\":\"Notification\",\"MessageId\":\"8b7e2f2c-4d7a-5c2e-9f0e-1f7c2a6d3b11\","
+					+ "\"TopicArn\":\"arn:aws:sns:us-east-1:875425895862:51083-updated\",\"Message\":" + Jackson.toJsonString(NOTIFICATION)
+					+ ",\"Timestamp\":\"2024-03-01T12:00:00.000Z\",\"SignatureVersion\":\"1\"}";
+		}
+		message = new Message().withMessageId("1").withBody(body);
+	}
+
+	@Benchmark
+	public Map<?, ?> contactInfo() throws Throwable {
+		return (Map<?, ?>) CONTACT_INFO.invokeExact(message);
+	}
+}
@@ -0,0 +1,54 @@
+package simplecontacts.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * Rendering a contact's S3 page (what the page leg of a create or edit
+ * uploads), by contact size
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ContactPageBenchmark {
+	private static final MethodHandle DECODE = AppMethods.find("ContactCodec", "decode",
+			MethodType.methodType(Object.class, Item.class), Item.class);
+	private static final MethodHandle RENDER = AppMethods.find("ContactCodec", "render",
+			MethodType.methodType(Object.class, Object.class), AppMethods.type("Contact"));
+	private static final MethodHandle PAGE_LENGTH = AppMethods.find("ContactPageRenderer", "getLength",
+			MethodType.methodType(int.class, Object.class));
+
+	@Param({ "minimal", "typical", "large" })
+	public String size;
+
+	private Object contact;
+
+	@Setup
+	public void setUp() throws Throwable {
+		contact = (Object) DECODE.invokeExact(SampleContacts.item(size));
+	}
+
+	@Benchmark
+	public int render() throws Throwable {
+		Object page = (Object) RENDER.invokeExact(contact);
+		return (int) PAGE_LENGTH.invokeExact(page);
+	}
+}
@@ -0,0 +1,64 @@
+package simplecontacts.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a search and its SimpleDB select expression, for the kinds of
+ * search that build the most different expressions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ContactQueryBenchmark {
+	private static final String DOMAIN = "cspp51083.samuelh.simplecontacts";
+
+	private static final MethodHandle FIRST_STARTS_WITH = AppMethods.find("ContactQuery", "firstStartsWith",
+			MethodType.methodType(Object.class, String.class), String.class);
+	private static final MethodHandle HAS_TAGS = AppMethods.find("ContactQuery", "hasTags",
+			MethodType.methodType(Object.class, List.class), List.class);
+	private static final MethodHandle TAG_EXPRESSION = AppMethods.find("ContactQuery", "tagExpression",
+			MethodType.methodType(Object.class, String.class), String.class);
+	private static final MethodHandle BIRTHDAY_BETWEEN = AppMethods.find("ContactQuery", "birthdayBetween",
+			MethodType.methodType(Object.class, String.class, String.class), String.class, String.class);
+	private static final MethodHandle SELECT_EXPRESSION = AppMethods.find("ContactQuery", "toSelectExpression",
+			MethodType.methodType(String.class, Object.class, String.class), String.class);
+
+	public List<String> tags = Arrays.asList("friend", "co-worker", "chicago");
+
+	@Benchmark
+	public String firstStartsWith() throws Throwable {
+		return (String) SELECT_EXPRESSION.invokeExact((Object) FIRST_STARTS_WITH.invokeExact("Sam"), DOMAIN);
+	}
+
+	@Benchmark
+	public String hasTags() throws Throwable {
+		return (String) SELECT_EXPRESSION.invokeExact((Object) HAS_TAGS.invokeExact(tags), DOMAIN);
+	}
+
+	@Benchmark
+	public String tagExpression() throws Throwable {
+		return (String) SELECT_EXPRESSION.invokeExact((Object) TAG_EXPRESSION.invokeExact("friend work|school !vendor"), DOMAIN);
+	}
+
+	@Benchmark
+	public String birthdayBetween() throws Throwable {
+		return (String) SELECT_EXPRESSION.invokeExact((Object) BIRTHDAY_BETWEEN.invokeExact("1980-01-01", "4/1/1995"), DOMAIN);
+	}
+}
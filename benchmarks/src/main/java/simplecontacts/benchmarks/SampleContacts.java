@@ -0,0 +1,51 @@
+package simplecontacts.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * Contact items of different sizes, as SimpleDB returns them:
+ * 		minimal		a first name only
+ * 		typical		every field, two phones, an email and a few tags
+ * 		large		every field, 20 phones, 20 emails, 30 tags and text that
+ * 					needs escaping on the page
+ */
+final class SampleContacts {
+	private SampleContacts() {
+	}
+
+	static Item item(String size) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("First", "Samuel"));
+		if (size.equals("minimal")) {
+			return new Item("000000000003514", attributes);
+		}
+
+		int phones = size.equals("large") ? 20 : 2;
+		int emails = size.equals("large") ? 20 : 1;
+		int tags = size.equals("large") ? 30 : 3;
+
+		attributes.add(new Attribute("Last", "Henry"));
+		for (int i = 0; i < phones; i++) {
+			attributes.add(new Attribute("Phone", "773-555-" + (1000 + i) + "," + (i == 0 ? "cell" : "office " + i)));
+		}
+		for (int i = 0; i < emails; i++) {
+			attributes.add(new Attribute("Email", "samuel.henry" + i + "@example.com," + (i == 0 ? "personal" : "work")));
+		}
+		attributes.add(new Attribute("Street", size.equals("large") ? "1100 E 57th St <Apt \"B\"> & Co's Office" : "1100 E 57th St"));
+		attributes.add(new Attribute("City", "Chicago"));
+		attributes.add(new Attribute("State", "IL"));
+		attributes.add(new Attribute("Zip", "60637"));
+
+		StringBuilder tagValue = new StringBuilder();
+		for (int i = 0; i < tags; i++) {
+			tagValue.append('[').append(i == 0 ? "friend" : "tag" + i).append(']');
+		}
+		attributes.add(new Attribute("Tag", tagValue.toString()));
+		attributes.add(new Attribute("Birthday", "1990-04-01"));
+		return new Item("000000000003514", attributes);
+	}
+}
@@ -0,0 +1,54 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds how many messages a consumer holds at once (being worked on or
+ * waiting for a worker). A receive loop admits up to a batch of messages
+ * before it receives and returns what it did not use. Once the bound is
+ * reached the loop blocks instead of receiving, so messages stay on the
+ * queue, where other nodes can take them, rather than waiting in local
+ * memory while their visibility runs out.
+ */
+public class AdmissionController {
+	private final int capacity;
+	private final Semaphore permits;
+
+	public AdmissionController(int capacity) {
+		this.capacity = capacity;
+		this.permits = new Semaphore(capacity);
+	}
+
+	/********************************************************************
+	* Wait up to timeout for room for at least one message, then take room
+	* for as many as are free, up to max. Returns the number admitted (0
+	* if the wait timed out)
+	*********************************************************************/
+	public int admit(int max, long timeout, TimeUnit unit) throws InterruptedException {
+		if (!permits.tryAcquire(timeout, unit)) {
+			return 0;
+		}
+
+		int admitted = 1;
+		while (admitted < max && permits.tryAcquire()) {
+			admitted++;
+		}
+		return admitted;
+	}
+
+	/********************************************************************
+	* Give back room for messages that finished or were never received
+	*********************************************************************/
+	public void release(int count) {
+		if (count > 0) {
+			permits.release(count);
+		}
+	}
+
+	public int getInFlight() {
+		return capacity - permits.availablePermits();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+}
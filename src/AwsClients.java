@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.AmazonSimpleDBClientBuilder;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+
+/**
+ * Shared AWS clients. Each client is built once, on first use, from one
+ * credentials provider and one HTTP configuration, and then reused by
+ * every caller so connections (and their TLS sessions) are pooled
+ * instead of being set up per operation:
+ * 		S3
+ * 		SimpleDB
+ * 		SNS
+ * 		SQS
+ *
+ * The clients use the region given by -Daws.region, or us-east-1 (where
+ * the contact bucket, domain, topic and queue live) by default. The
+ * connection pool can be tuned with -Daws.maxConnections and
+ * -Daws.connectionTTLSeconds. All clients are shut down when the JVM
+ * exits, after any tasks registered with beforeShutdown() have run (so
+ * those tasks can still use the clients).
+ */
+public class AwsClients {
+	private static final String MAX_CONNECTIONS_PROPERTY = "aws.maxConnections";
+	private static final String CONNECTION_TTL_PROPERTY = "aws.connectionTTLSeconds";
+	private static final String REGION_PROPERTY = "aws.region";
+
+	private static AWSCredentialsProvider credentialsProvider;
+	private static ClientConfiguration clientConfiguration;
+	private static AmazonS3 s3Client;
+	private static AmazonSimpleDB simpleDBClient;
+	private static AmazonSNS snsClient;
+	private static AmazonSQS sqsClient;
+	private static boolean shutdownHookRegistered;
+	private static final List<Runnable> shutdownTasks = new ArrayList<Runnable>();
+
+	private AwsClients() {
+	}
+
+	public static synchronized AmazonS3 s3() {
+		if (s3Client == null) {
+			s3Client = AmazonS3ClientBuilder.standard()
+					.withCredentials(credentials())
+					.withClientConfiguration(configuration())
+					.withRegion(region())
+					.build();
+		}
+		return s3Client;
+	}
+
+	public static synchronized AmazonSimpleDB simpleDB() {
+		if (simpleDBClient == null) {
+			simpleDBClient = AmazonSimpleDBClientBuilder.standard()
+					.withCredentials(credentials())
+					.withClientConfiguration(configuration())
+					.withRegion(region())
+					.build();
+		}
+		return simpleDBClient;
+	}
+
+	public static synchronized AmazonSNS sns() {
+		if (snsClient == null) {
+			snsClient = AmazonSNSClientBuilder.standard()
+					.withCredentials(credentials())
+					.withClientConfiguration(configuration())
+					.withRegion(region())
+					.build();
+		}
+		return snsClient;
+	}
+
+	public static synchronized AmazonSQS sqs() {
+		if (sqsClient == null) {
+			sqsClient = AmazonSQSClientBuilder.standard()
+					.withCredentials(credentials())
+					.withClientConfiguration(configuration())
+					.withRegion(region())
+					.build();
+		}
+		return sqsClient;
+	}
+
+	/********************************************************************
+	* Run a task when the JVM exits, before the clients are shut down
+	*********************************************************************/
+	public static synchronized void beforeShutdown(Runnable task) {
+		shutdownTasks.add(task);
+		registerShutdownHook();
+	}
+
+	/********************************************************************
+	* Shut down every client that was built, releasing pooled connections
+	*********************************************************************/
+	public static synchronized void shutdown() {
+		if (s3Client != null) s3Client.shutdown();
+		//the SimpleDB interface has no shutdown(), but the client the builder makes does
+		if (simpleDBClient instanceof AmazonWebServiceClient) ((AmazonWebServiceClient) simpleDBClient).shutdown();
+		if (snsClient != null) snsClient.shutdown();
+		if (sqsClient != null) sqsClient.shutdown();
+		s3Client = null;
+		simpleDBClient = null;
+		snsClient = null;
+		sqsClient = null;
+	}
+
+	/********************************************************************
+	* Get the shared credentials provider, checking once that credentials
+	* can actually be read
+	*********************************************************************/
+	private static AWSCredentialsProvider credentials() {
+		if (credentialsProvider == null) {
+			try {
+				//the chain remembers which provider worked and caches what it returns
+				DefaultAWSCredentialsProviderChain chain = new DefaultAWSCredentialsProviderChain();
+				chain.getCredentials();
+				credentialsProvider = chain;
+			} catch (Exception ex) {
+				System.out.println("There was a problem reading your credentials.");
+				System.out.println("Please make sure you have updated your environment variables with your AWS credentials and restart.");
+				System.exit(0);
+			}
+		}
+
+		registerShutdownHook();
+		return credentialsProvider;
+	}
+
+	private static void registerShutdownHook() {
+		if (!shutdownHookRegistered) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					runShutdownTasks();
+					shutdown();
+				}
+			}, "aws-clients-shutdown"));
+			shutdownHookRegistered = true;
+		}
+	}
+
+	//not synchronized: a task may need to build a client
+	private static void runShutdownTasks() {
+		List<Runnable> tasks;
+		synchronized (AwsClients.class) {
+			tasks = new ArrayList<Runnable>(shutdownTasks);
+		}
+		for (Runnable task : tasks) {
+			try {
+				task.run();
+			} catch (Exception ex) {
+				System.out.println("There was a problem shutting down: " + ex.getMessage());
+			}
+		}
+	}
+
+	private static String region() {
+		return System.getProperty(REGION_PROPERTY, Regions.US_EAST_1.getName());
+	}
+
+	private static ClientConfiguration configuration() {
+		if (clientConfiguration == null) {
+			clientConfiguration = new ClientConfiguration()
+					.withMaxConnections(Integer.getInteger(MAX_CONNECTIONS_PROPERTY, ClientConfiguration.DEFAULT_MAX_CONNECTIONS))
+					.withConnectionTTL(Integer.getInteger(CONNECTION_TTL_PROPERTY, 300) * 1000L)
+					.withTcpKeepAlive(true)
+					.withReaper(true);
+		}
+		return clientConfiguration;
+	}
+}
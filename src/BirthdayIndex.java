@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+/**
+ * Sorted index of birthdays for range searches. Birthdays are kept as
+ * epoch days in a sorted int array with a parallel array of contact
+ * ordinals, so "before", "after" and "between" are two binary searches
+ * and a slice of the ordinal array.
+ *
+ * Not thread-safe; IndexedContactStore guards it with its lock.
+ */
+public class BirthdayIndex {
+	private int[] epochDays = new int[64];
+	private int[] ordinals = new int[64];
+	private int size;
+	private boolean sorted = true;
+
+	/********************************************************************
+	* Add a contact's birthday
+	*********************************************************************/
+	public void add(int epochDay, int ordinal) {
+		ensureCapacity(size + 1);
+
+		if (!sorted) {
+			//bulk load in progress, sort once at the end
+			epochDays[size] = epochDay;
+			ordinals[size++] = ordinal;
+			return;
+		}
+
+		int position = find(epochDay, ordinal);
+		if (position >= 0) {
+			return;
+		}
+
+		//shift the tail over and insert in order
+		position = -position - 1;
+		System.arraycopy(epochDays, position, epochDays, position + 1, size - position);
+		System.arraycopy(ordinals, position, ordinals, position + 1, size - position);
+		epochDays[position] = epochDay;
+		ordinals[position] = ordinal;
+		size++;
+	}
+
+	/********************************************************************
+	* Remove a contact's birthday
+	*********************************************************************/
+	public void remove(int epochDay, int ordinal) {
+		finishBulkLoad();
+
+		int position = find(epochDay, ordinal);
+		if (position < 0) {
+			return;
+		}
+
+		System.arraycopy(epochDays, position + 1, epochDays, position, size - position - 1);
+		System.arraycopy(ordinals, position + 1, ordinals, position, size - position - 1);
+		size--;
+	}
+
+	/********************************************************************
+	* Start a bulk load: adds are appended unsorted until the bulk load
+	* is finished and sorted all at once
+	*********************************************************************/
+	public void startBulkLoad() {
+		sorted = false;
+	}
+
+	/********************************************************************
+	* Sort the entries added since the bulk load started
+	*********************************************************************/
+	public void finishBulkLoad() {
+		if (sorted) {
+			return;
+		}
+
+		//pack each (day, ordinal) pair into one long so a single primitive sort orders both arrays
+		long[] entries = new long[size];
+		for (int i = 0; i < size; i++) {
+			entries[i] = ((long) epochDays[i] << 32) | (ordinals[i] & 0xFFFFFFFFL);
+		}
+		Arrays.sort(entries);
+
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			if (unique > 0 && entries[i] == entries[i - 1]) continue;
+			epochDays[unique] = (int) (entries[i] >> 32);
+			ordinals[unique++] = (int) entries[i];
+		}
+		size = unique;
+		sorted = true;
+	}
+
+	/********************************************************************
+	* First position whose birthday is on or after epochDay
+	*********************************************************************/
+	public int lowerBound(int epochDay) {
+		int low = 0, high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (epochDays[middle] < epochDay) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/********************************************************************
+	* First position whose birthday is after epochDay
+	*********************************************************************/
+	public int upperBound(int epochDay) {
+		int low = 0, high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (epochDays[middle] <= epochDay) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/********************************************************************
+	* The ordinals in positions [start, end), skipping the first offset
+	* and returning at most limit, in birthday order
+	*********************************************************************/
+	public int[] slice(int start, int end, int offset, int limit) {
+		int from = Math.min(end, start + offset);
+		int to = Math.min(end, from + limit);
+		return Arrays.copyOfRange(ordinals, from, Math.max(from, to));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	//binary search on (day, ordinal)
+	private int find(int epochDay, int ordinal) {
+		int low = 0, high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = epochDays[middle] != epochDay ? Integer.compare(epochDays[middle], epochDay)
+					: Integer.compare(ordinals[middle], ordinal);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > epochDays.length) {
+			int newCapacity = Math.max(capacity, epochDays.length * 2);
+			epochDays = Arrays.copyOf(epochDays, newCapacity);
+			ordinals = Arrays.copyOf(ordinals, newCapacity);
+		}
+	}
+}
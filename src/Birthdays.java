@@ -0,0 +1,55 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+/**
+ * Parses the free-form birthdays users type in. The app asks for
+ * YYYY-MM-DD, but stored values and search input also come as
+ * YYYY/MM/DD, MM/DD/YYYY, MM-DD-YYYY or YYYYMMDD. Dates are encoded as
+ * epoch days so they compare as plain ints.
+ */
+public class Birthdays {
+	//returned for values that are not a recognizable date
+	public static final int UNPARSEABLE = Integer.MIN_VALUE;
+
+	private static final DateTimeFormatter[] FORMATS = {
+		DateTimeFormatter.ofPattern("uuuu-M-d").withResolverStyle(ResolverStyle.STRICT),
+		DateTimeFormatter.ofPattern("uuuu/M/d").withResolverStyle(ResolverStyle.STRICT),
+		DateTimeFormatter.ofPattern("M/d/uuuu").withResolverStyle(ResolverStyle.STRICT),
+		DateTimeFormatter.ofPattern("M-d-uuuu").withResolverStyle(ResolverStyle.STRICT),
+		DateTimeFormatter.ofPattern("uuuuMMdd").withResolverStyle(ResolverStyle.STRICT)
+	};
+
+	private Birthdays() {
+	}
+
+	/********************************************************************
+	* Parse a date into epoch days, or UNPARSEABLE
+	*********************************************************************/
+	public static int toEpochDay(String date) {
+		if (date == null) {
+			return UNPARSEABLE;
+		}
+
+		String trimmedDate = date.trim();
+		for (DateTimeFormatter format : FORMATS) {
+			try {
+				return (int) LocalDate.parse(trimmedDate, format).toEpochDay();
+			} catch (DateTimeParseException ex) {
+				//try the next format
+			}
+		}
+
+		return UNPARSEABLE;
+	}
+
+	/********************************************************************
+	* Rewrite a date in YYYY-MM-DD form (so it sorts correctly as a
+	* string), or return it unchanged if it cannot be parsed
+	*********************************************************************/
+	public static String normalize(String date) {
+		int epochDay = toEpochDay(date);
+		return epochDay == UNPARSEABLE ? date : LocalDate.ofEpochDay(epochDay).toString();
+	}
+}
@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+/**
+ * Read-through cache in front of another contact store. Contacts looked
+ * up by item name are kept in a bounded LRU map and expire after a fixed
+ * time. Puts and deletes made through this store are applied to the
+ * cached copy (deleting a whole contact evicts it), so a
+ * select-edit-render cycle only reads the contact from the underlying
+ * store once. A contact read is only cached if no write to it started
+ * meanwhile (see ExpiringLruCache), so a read racing a write can not
+ * leave the old contact cached.
+ */
+public class CachingContactStore implements ContactStore {
+	private final ContactStore delegate;
+	private final ExpiringLruCache<List<Attribute>> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public CachingContactStore(ContactStore delegate, int maxEntries, long ttl, TimeUnit ttlUnit) {
+		this.delegate = delegate;
+		this.entries = new ExpiringLruCache<List<Attribute>>(maxEntries, ttl, ttlUnit);
+	}
+
+	public void ensureDomainExists() {
+		delegate.ensureDomainExists();
+	}
+
+	public Item getContact(String itemName) {
+		Item item = getCachedContact(itemName);
+		if (item != null) {
+			return item;
+		}
+
+		//read through to the underlying store
+		long generation = entries.generation(itemName);
+		item = delegate.getContact(itemName);
+		if (item != null) cacheContact(item, generation);
+
+		return item;
+	}
+
+	public Item getLatestContact(String itemName) {
+		return delegate.getLatestContact(itemName);
+	}
+
+	public List<Item> getContacts(List<String> itemNames) {
+		Map<String, Item> itemsByName = new HashMap<String, Item>();
+		List<String> missingItemNames = new ArrayList<String>();
+		Map<String, Long> generations = new HashMap<String, Long>();
+
+		//serve what we can from the cache
+		for (String itemName : itemNames) {
+			Item item = getCachedContact(itemName);
+			if (item != null) {
+				itemsByName.put(itemName, item);
+			} else {
+				missingItemNames.add(itemName);
+				generations.put(itemName, entries.generation(itemName));
+			}
+		}
+
+		//read the rest through in one call
+		if (missingItemNames.size() > 0) {
+			for (Item item : delegate.getContacts(missingItemNames)) {
+				cacheContact(item, generations.get(item.getName()));
+				itemsByName.put(item.getName(), item);
+			}
+		}
+
+		List<Item> items = new ArrayList<Item>(itemsByName.size());
+		for (String itemName : itemNames) {
+			Item item = itemsByName.get(itemName);
+			if (item != null) items.add(item);
+		}
+		return items;
+	}
+
+	public ContactPage select(ContactQuery query, String nextToken) {
+		return delegate.select(query, nextToken);
+	}
+
+	public void putAttributes(String itemName, Collection<ReplaceableAttribute> attributes) {
+		try {
+			delegate.putAttributes(itemName, attributes);
+		} catch (RuntimeException ex) {
+			//the put may or may not have been applied
+			invalidate(itemName);
+			throw ex;
+		}
+
+		//apply the put to the cached copy (if there is one)
+		entries.update(itemName, put(attributes));
+	}
+
+	public boolean conditionalPut(String itemName, Collection<ReplaceableAttribute> attributes, String expectedName, String expectedValue) {
+		boolean applied;
+		try {
+			applied = delegate.conditionalPut(itemName, attributes, expectedName, expectedValue);
+		} catch (RuntimeException ex) {
+			invalidate(itemName);
+			throw ex;
+		}
+
+		if (!applied) {
+			//the condition failed, so the cached copy is probably out of date
+			invalidate(itemName);
+			return false;
+		}
+
+		entries.update(itemName, put(attributes));
+		return true;
+	}
+
+	public void batchPutAttributes(List<ReplaceableItem> items) {
+		try {
+			delegate.batchPutAttributes(items);
+		} catch (RuntimeException ex) {
+			//some of the puts may have been applied
+			for (ReplaceableItem item : items) invalidate(item.getName());
+			throw ex;
+		}
+
+		for (ReplaceableItem item : items) {
+			entries.update(item.getName(), put(item.getAttributes()));
+		}
+	}
+
+	public void deleteAttributes(String itemName, final Collection<Attribute> attributes) {
+		//deleting the whole contact just evicts it (once it is deleted, so a read in between is not cached)
+		if (attributes == null || attributes.size() == 0) {
+			try {
+				delegate.deleteAttributes(itemName, attributes);
+			} finally {
+				invalidate(itemName);
+			}
+			return;
+		}
+
+		try {
+			delegate.deleteAttributes(itemName, attributes);
+		} catch (RuntimeException ex) {
+			invalidate(itemName);
+			throw ex;
+		}
+
+		//apply the delete to the cached copy (if there is one)
+		entries.update(itemName, new ExpiringLruCache.Update<List<Attribute>>() {
+			public List<Attribute> apply(List<Attribute> cached) {
+				List<Attribute> updated = new ArrayList<Attribute>(cached);
+				ContactAttributes.applyDelete(updated, attributes);
+				return updated.size() == 0 ? null : Collections.unmodifiableList(updated);
+			}
+		});
+	}
+
+	//get a copy of a cached contact, counting the hit or miss
+	private Item getCachedContact(String itemName) {
+		List<Attribute> attributes = entries.get(itemName);
+		if (attributes != null) {
+			hits.incrementAndGet();
+			return ContactAttributes.copy(itemName, attributes);
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	private void cacheContact(Item item, long generation) {
+		List<Attribute> attributes = ContactAttributes.copy(item.getName(), item.getAttributes()).getAttributes();
+		entries.putIfUnchanged(item.getName(), Collections.unmodifiableList(attributes), generation);
+	}
+
+	//cached values are shared, so a put makes an updated copy
+	private static ExpiringLruCache.Update<List<Attribute>> put(final Collection<ReplaceableAttribute> attributes) {
+		return new ExpiringLruCache.Update<List<Attribute>>() {
+			public List<Attribute> apply(List<Attribute> cached) {
+				List<Attribute> updated = new ArrayList<Attribute>(cached);
+				ContactAttributes.applyPut(updated, attributes);
+				return Collections.unmodifiableList(updated);
+			}
+		};
+	}
+
+	/********************************************************************
+	* Drop a contact from the cache
+	*********************************************************************/
+	public void invalidate(String itemName) {
+		entries.invalidate(itemName);
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return "Contact cache: " + size() + " entries, " + getHitCount() + " hits, " + getMissCount() + " misses";
+	}
+}
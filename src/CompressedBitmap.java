@@ -0,0 +1,204 @@
+import java.util.Arrays;
+
+/**
+ * Compressed bitmap of contact ordinals. Only the non-zero 64-bit words
+ * are stored, as a sorted array of word positions and a parallel array
+ * of words, so a bitmap costs space in proportion to the ordinals it
+ * holds rather than to the size of the domain. AND/OR/AND NOT walk the
+ * two word lists together and combine them a word (64 ordinals) at a
+ * time.
+ *
+ * Not thread-safe; IndexedContactStore guards it with its lock.
+ */
+public class CompressedBitmap {
+	private static final int[] NO_POSITIONS = new int[0];
+	private static final long[] NO_WORDS = new long[0];
+
+	private int[] positions;
+	private long[] words;
+	private int wordCount;
+
+	public CompressedBitmap() {
+		this(NO_POSITIONS, NO_WORDS, 0);
+	}
+
+	private CompressedBitmap(int[] positions, long[] words, int wordCount) {
+		this.positions = positions;
+		this.words = words;
+		this.wordCount = wordCount;
+	}
+
+	/********************************************************************
+	* Set the bit for an ordinal
+	*********************************************************************/
+	public void set(int ordinal) {
+		int position = ordinal >>> 6;
+		int index = Arrays.binarySearch(positions, 0, wordCount, position);
+
+		if (index >= 0) {
+			words[index] |= 1L << ordinal;
+			return;
+		}
+
+		//insert a new word in order
+		index = -index - 1;
+		if (wordCount == positions.length) {
+			int capacity = Math.max(4, wordCount * 2);
+			positions = Arrays.copyOf(positions, capacity);
+			words = Arrays.copyOf(words, capacity);
+		}
+		System.arraycopy(positions, index, positions, index + 1, wordCount - index);
+		System.arraycopy(words, index, words, index + 1, wordCount - index);
+		positions[index] = position;
+		words[index] = 1L << ordinal;
+		wordCount++;
+	}
+
+	/********************************************************************
+	* Clear the bit for an ordinal
+	*********************************************************************/
+	public void clear(int ordinal) {
+		int index = Arrays.binarySearch(positions, 0, wordCount, ordinal >>> 6);
+		if (index < 0) {
+			return;
+		}
+
+		words[index] &= ~(1L << ordinal);
+
+		//drop words that become empty so the bitmap stays compressed
+		if (words[index] == 0) {
+			System.arraycopy(positions, index + 1, positions, index, wordCount - index - 1);
+			System.arraycopy(words, index + 1, words, index, wordCount - index - 1);
+			wordCount--;
+		}
+	}
+
+	public boolean get(int ordinal) {
+		int index = Arrays.binarySearch(positions, 0, wordCount, ordinal >>> 6);
+		return index >= 0 && (words[index] & (1L << ordinal)) != 0;
+	}
+
+	public boolean isEmpty() {
+		return wordCount == 0;
+	}
+
+	public int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < wordCount; i++) {
+			cardinality += Long.bitCount(words[i]);
+		}
+		return cardinality;
+	}
+
+	/********************************************************************
+	* Ordinals in both bitmaps
+	*********************************************************************/
+	public CompressedBitmap and(CompressedBitmap other) {
+		int capacity = Math.min(wordCount, other.wordCount);
+		int[] resultPositions = new int[capacity];
+		long[] resultWords = new long[capacity];
+		int resultCount = 0;
+
+		int i = 0, j = 0;
+		while (i < wordCount && j < other.wordCount) {
+			if (positions[i] < other.positions[j]) {
+				i++;
+			} else if (positions[i] > other.positions[j]) {
+				j++;
+			} else {
+				long word = words[i] & other.words[j];
+				if (word != 0) {
+					resultPositions[resultCount] = positions[i];
+					resultWords[resultCount++] = word;
+				}
+				i++;
+				j++;
+			}
+		}
+
+		return new CompressedBitmap(resultPositions, resultWords, resultCount);
+	}
+
+	/********************************************************************
+	* Ordinals in either bitmap
+	*********************************************************************/
+	public CompressedBitmap or(CompressedBitmap other) {
+		int capacity = wordCount + other.wordCount;
+		int[] resultPositions = new int[capacity];
+		long[] resultWords = new long[capacity];
+		int resultCount = 0;
+
+		int i = 0, j = 0;
+		while (i < wordCount || j < other.wordCount) {
+			if (j == other.wordCount || (i < wordCount && positions[i] < other.positions[j])) {
+				resultPositions[resultCount] = positions[i];
+				resultWords[resultCount++] = words[i++];
+			} else if (i == wordCount || positions[i] > other.positions[j]) {
+				resultPositions[resultCount] = other.positions[j];
+				resultWords[resultCount++] = other.words[j++];
+			} else {
+				resultPositions[resultCount] = positions[i];
+				resultWords[resultCount++] = words[i++] | other.words[j++];
+			}
+		}
+
+		return new CompressedBitmap(resultPositions, resultWords, resultCount);
+	}
+
+	/********************************************************************
+	* Ordinals in this bitmap but not the other
+	*********************************************************************/
+	public CompressedBitmap andNot(CompressedBitmap other) {
+		int[] resultPositions = new int[wordCount];
+		long[] resultWords = new long[wordCount];
+		int resultCount = 0;
+
+		int j = 0;
+		for (int i = 0; i < wordCount; i++) {
+			//skip the other bitmap's words that come before this one
+			while (j < other.wordCount && other.positions[j] < positions[i]) j++;
+
+			long word = words[i];
+			if (j < other.wordCount && other.positions[j] == positions[i]) word &= ~other.words[j];
+			if (word != 0) {
+				resultPositions[resultCount] = positions[i];
+				resultWords[resultCount++] = word;
+			}
+		}
+
+		return new CompressedBitmap(resultPositions, resultWords, resultCount);
+	}
+
+	/********************************************************************
+	* Get up to limit set ordinals in ascending order, skipping the first
+	* offset of them
+	*********************************************************************/
+	public int[] toArray(int offset, int limit) {
+		int[] ordinals = new int[Math.max(0, Math.min(limit, cardinality() - offset))];
+		int skipped = 0;
+		int found = 0;
+
+		for (int i = 0; i < wordCount && found < ordinals.length; i++) {
+			long word = words[i];
+
+			//skip whole words while still inside the offset
+			int bitsInWord = Long.bitCount(word);
+			if (skipped + bitsInWord <= offset) {
+				skipped += bitsInWord;
+				continue;
+			}
+
+			while (word != 0 && found < ordinals.length) {
+				int bit = Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				if (skipped < offset) {
+					skipped++;
+				} else {
+					ordinals[found++] = (positions[i] << 6) + bit;
+				}
+			}
+		}
+
+		return ordinals;
+	}
+}
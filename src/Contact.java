@@ -0,0 +1,154 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A contact decoded from its SimpleDB item (see ContactCodec). Fields
+ * that were not entered are empty strings or empty lists, never null.
+ * The item id is null until the contact has been stored.
+ */
+public class Contact {
+	/**
+	 * A phone number or email address with an optional label, stored as
+	 * one attribute value, eg. "773-202-5862, Work". The value and label
+	 * are split out only when asked for.
+	 */
+	public static class Labeled {
+		private final String record;
+
+		public Labeled(String record) {
+			this.record = record;
+		}
+
+		public Labeled(String value, String label) {
+			this(label.length() > 0 ? value + ", " + label : value);
+		}
+
+		public String getValue() {
+			int separator = record.lastIndexOf(',');
+			return separator < 0 ? record : record.substring(0, separator).trim();
+		}
+
+		public String getLabel() {
+			int separator = record.lastIndexOf(',');
+			return separator < 0 ? "" : record.substring(separator + 1).trim();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Labeled && record.equals(((Labeled) other).record);
+		}
+
+		@Override
+		public int hashCode() {
+			return record.hashCode();
+		}
+
+		/********************************************************************
+		* The stored attribute value
+		*********************************************************************/
+		@Override
+		public String toString() {
+			return record;
+		}
+	}
+
+	private final String itemId;
+	private final String first;
+	private final String last;
+	private final List<Labeled> phones;
+	private final List<Labeled> emails;
+	private final String street;
+	private final String city;
+	private final String state;
+	private final String zip;
+	private final String tags;
+	private final String birthday;
+
+	public Contact(String itemId, String first, String last, List<Labeled> phones, List<Labeled> emails,
+			String street, String city, String state, String zip, String tags, String birthday) {
+		this.itemId = itemId;
+		this.first = first;
+		this.last = last;
+		this.phones = Collections.unmodifiableList(phones);
+		this.emails = Collections.unmodifiableList(emails);
+		this.street = street;
+		this.city = city;
+		this.state = state;
+		this.zip = zip;
+		this.tags = tags;
+		this.birthday = birthday;
+	}
+
+	/********************************************************************
+	* This contact stored under an item id
+	*********************************************************************/
+	public Contact withItemId(String itemId) {
+		return new Contact(itemId, first, last, phones, emails, street, city, state, zip, tags, birthday);
+	}
+
+	public String getItemId() {
+		return itemId;
+	}
+
+	public String getFirst() {
+		return first;
+	}
+
+	public String getLast() {
+		return last;
+	}
+
+	public List<Labeled> getPhones() {
+		return phones;
+	}
+
+	public List<Labeled> getEmails() {
+		return emails;
+	}
+
+	public String getStreet() {
+		return street;
+	}
+
+	public String getCity() {
+		return city;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public String getZip() {
+		return zip;
+	}
+
+	/********************************************************************
+	* The stored tag value, eg. [cool][smart][awesome]
+	*********************************************************************/
+	public String getTagValue() {
+		return tags;
+	}
+
+	public List<String> getTags() {
+		return ContactAttributes.parseTags(tags);
+	}
+
+	/********************************************************************
+	* The birthday as YYYY-MM-DD (see Birthdays)
+	*********************************************************************/
+	public String getBirthday() {
+		return birthday;
+	}
+
+	/********************************************************************
+	* The name used in page file names and notifications
+	*********************************************************************/
+	public String getPageName() {
+		return first + last + itemId + ".html";
+	}
+
+	@Override
+	public String toString() {
+		return "Contact " + itemId + ": " + first + " " + last;
+	}
+}
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+/**
+ * Helpers for applying SimpleDB put/delete semantics to attributes held
+ * in memory
+ */
+public class ContactAttributes {
+	private ContactAttributes() {
+	}
+
+	/********************************************************************
+	* Apply a put to a list of attributes. replace=true removes the values
+	* that existed before this put; name/value pairs are never duplicated
+	*********************************************************************/
+	public static void applyPut(List<Attribute> attributes, Collection<ReplaceableAttribute> puts) {
+		//remove the existing values of every attribute being replaced
+		Set<String> replacedNames = new HashSet<String>();
+		for (ReplaceableAttribute put : puts) {
+			if (Boolean.TRUE.equals(put.getReplace())) replacedNames.add(put.getName());
+		}
+		if (replacedNames.size() > 0) {
+			Iterator<Attribute> iterator = attributes.iterator();
+			while (iterator.hasNext()) {
+				if (replacedNames.contains(iterator.next().getName())) iterator.remove();
+			}
+		}
+
+		//add the new values
+		for (ReplaceableAttribute put : puts) {
+			if (!contains(attributes, put.getName(), put.getValue())) {
+				attributes.add(new Attribute(put.getName(), put.getValue()));
+			}
+		}
+	}
+
+	/********************************************************************
+	* Apply a delete to a list of attributes. An attribute without a value
+	* removes every value of that name
+	*********************************************************************/
+	public static void applyDelete(List<Attribute> attributes, Collection<Attribute> deletes) {
+		for (Attribute delete : deletes) {
+			Iterator<Attribute> iterator = attributes.iterator();
+			while (iterator.hasNext()) {
+				Attribute attribute = iterator.next();
+				if (attribute.getName().equals(delete.getName())
+						&& (delete.getValue() == null || attribute.getValue().equals(delete.getValue()))) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The writes that turn one set of attributes into another: at most one
+	 * put and one delete
+	 */
+	public static class Delta {
+		private final List<ReplaceableAttribute> puts = new ArrayList<ReplaceableAttribute>();
+		private final List<Attribute> deletes = new ArrayList<Attribute>();
+
+		public List<ReplaceableAttribute> getPuts() {
+			return puts;
+		}
+
+		public List<Attribute> getDeletes() {
+			return deletes;
+		}
+
+		public boolean isEmpty() {
+			return puts.isEmpty() && deletes.isEmpty();
+		}
+	}
+
+	/********************************************************************
+	* Work out the fewest writes that turn the old attributes into the new
+	* ones. Per attribute name:
+	* 		values unchanged	nothing
+	* 		values added only	put the added values (replace=false)
+	* 		every value removed	delete the name
+	* 		otherwise			put the new values (replace=true), which
+	* 							also drops removed values of a multi-valued
+	* 							attribute without a delete
+	* Removed values of a multi-valued attribute are only deleted one by
+	* one when there is nothing to put, so one request covers them
+	*********************************************************************/
+	public static Delta diff(List<Attribute> oldAttributes, List<Attribute> newAttributes) {
+		Map<String,Set<String>> oldValues = valuesByName(oldAttributes);
+		Map<String,Set<String>> newValues = valuesByName(newAttributes);
+		Delta delta = new Delta();
+		Map<String,Set<String>> removedOnly = new LinkedHashMap<String,Set<String>>();
+
+		for (Map.Entry<String,Set<String>> entry : newValues.entrySet()) {
+			String name = entry.getKey();
+			Set<String> values = entry.getValue();
+			Set<String> previous = oldValues.containsKey(name) ? oldValues.get(name) : Collections.<String>emptySet();
+			if (values.equals(previous)) {
+				continue;
+			}
+
+			if (values.containsAll(previous)) {
+				for (String value : values) {
+					if (!previous.contains(value)) delta.puts.add(new ReplaceableAttribute(name, value, false));
+				}
+			} else if (previous.containsAll(values)) {
+				removedOnly.put(name, values);
+			} else {
+				for (String value : values) delta.puts.add(new ReplaceableAttribute(name, value, true));
+			}
+		}
+
+		for (String name : oldValues.keySet()) {
+			if (!newValues.containsKey(name)) delta.deletes.add(new Attribute().withName(name));
+		}
+
+		for (Map.Entry<String,Set<String>> entry : removedOnly.entrySet()) {
+			String name = entry.getKey();
+			if (delta.puts.isEmpty() || !delta.deletes.isEmpty()) {
+				//there is a delete to send anyway, or nothing to put: delete just the removed values
+				for (String value : oldValues.get(name)) {
+					if (!entry.getValue().contains(value)) delta.deletes.add(new Attribute(name, value));
+				}
+			} else {
+				for (String value : entry.getValue()) delta.puts.add(new ReplaceableAttribute(name, value, true));
+			}
+		}
+		return delta;
+	}
+
+	/********************************************************************
+	* Copy an item so the copy can be handed out without exposing the
+	* original's attribute list
+	*********************************************************************/
+	public static Item copy(String itemName, List<Attribute> attributes) {
+		List<Attribute> copiedAttributes = new ArrayList<Attribute>(attributes.size());
+		for (Attribute attribute : attributes) {
+			copiedAttributes.add(new Attribute(attribute.getName(), attribute.getValue()));
+		}
+		return new Item(itemName, copiedAttributes);
+	}
+
+	/********************************************************************
+	* Split a Tag value such as "[friend][work]" into its tags
+	*********************************************************************/
+	public static List<String> parseTags(String tagValue) {
+		List<String> tags = new ArrayList<String>();
+		int start = tagValue.indexOf('[');
+		while (start >= 0) {
+			int end = tagValue.indexOf(']', start + 1);
+			if (end < 0) break;
+			tags.add(tagValue.substring(start + 1, end));
+			start = tagValue.indexOf('[', end + 1);
+		}
+		return tags;
+	}
+
+	private static Map<String,Set<String>> valuesByName(List<Attribute> attributes) {
+		Map<String,Set<String>> valuesByName = new LinkedHashMap<String,Set<String>>();
+		for (Attribute attribute : attributes) {
+			Set<String> values = valuesByName.get(attribute.getName());
+			if (values == null) {
+				values = new LinkedHashSet<String>();
+				valuesByName.put(attribute.getName(), values);
+			}
+			values.add(attribute.getValue());
+		}
+		return valuesByName;
+	}
+
+	private static boolean contains(List<Attribute> attributes, String name, String value) {
+		for (Attribute attribute : attributes) {
+			if (attribute.getName().equals(name) && attribute.getValue().equals(value)) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,248 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.util.json.Jackson;
+
+/**
+ * Runs a stream of contact commands without the menu. Each command is
+ * either a JSON object on its own line:
+ *
+ *   {"op":"create","First":"Ann","Last":"Lee","Phone":["555-1234,home"]}
+ *   {"op":"edit","id":"000000000000042","Zip":"60637","Email":[]}
+ *   {"op":"delete","id":"000000000000042"}
+ *   {"op":"search","by":"state","value":"IL"}
+ *
+ * or, when the input does not start with '{', a CSV row under a header
+ * naming the columns: op, id, by, value, to and any contact attributes
+ * (named as for import), with several phones or emails separated by ';'.
+ * An empty CSV cell is not given, so CSV edits cannot remove attributes.
+ * See ContactCommands for what each command does.
+ *
+ * Commands run on a fixed pool of threads while the input is still being
+ * read, with up to four times as many queued as there are threads. Edits
+ * and deletes of the same contact run one at a time, but otherwise
+ * commands may run in any order (use a concurrency of 1 when a command
+ * depends on an earlier one, eg. searching for contacts the batch
+ * creates). One JSON result line is written per command, in input order,
+ * then a summary line with the throughput and latency percentiles.
+ */
+public class ContactBatchRunner {
+	private final ContactStore contactStore;
+	private final ContactCommands commands;
+	private final int concurrency;
+
+	public ContactBatchRunner(ContactStore contactStore, int concurrency) {
+		this.contactStore = contactStore;
+		this.commands = new ContactCommands(contactStore);
+		this.concurrency = Math.max(1, concurrency);
+	}
+
+	/********************************************************************
+	* Run every command read from input, writing the results to output
+	*********************************************************************/
+	public void run(InputStream input, PrintStream output) throws IOException, InterruptedException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		boolean json = startsWithJson(in);
+		List<String> header = json ? null : ContactImporter.readCsvFields(in);
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("batch"));
+		Deque<Future<Map<String, Object>>> inFlight = new ArrayDeque<Future<Map<String, Object>>>();
+		List<Long> latencies = new ArrayList<Long>();
+		int failed = 0;
+		long startedAt = System.nanoTime();
+		try {
+			int number = 0;
+			while (true) {
+				Map<String, Object> command;
+				if (json) {
+					String line = in.readLine();
+					if (line == null) break;
+					if (line.trim().length() == 0) continue;
+					command = parseJson(line);
+				} else {
+					List<String> fields = ContactImporter.readCsvFields(in);
+					if (fields == null) break;
+					if (fields.size() == 1 && fields.get(0).trim().length() == 0) continue;
+					command = parseCsv(header, fields);
+				}
+
+				inFlight.add(executor.submit(task(++number, command)));
+
+				//write results in order as they finish, keeping a bounded number of commands queued
+				while (inFlight.size() >= concurrency * 4 || (inFlight.size() > 0 && inFlight.peek().isDone())) {
+					if (!write(inFlight.remove(), output, latencies)) failed++;
+				}
+			}
+			while (inFlight.size() > 0) {
+				if (!write(inFlight.remove(), output, latencies)) failed++;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		output.println(Jackson.toJsonString(summary(latencies, failed, System.nanoTime() - startedAt)));
+		output.flush();
+	}
+
+	private Callable<Map<String, Object>> task(final int number, final Map<String, Object> command) {
+		return new Callable<Map<String, Object>>() {
+			public Map<String, Object> call() {
+				Map<String, Object> result = new LinkedHashMap<String, Object>();
+				result.put("n", number);
+				result.put("op", command.get("op"));
+				long startedAt = System.nanoTime();
+				try {
+					execute(command, result);
+					result.put("ok", true);
+				} catch (Exception ex) {
+					result.put("ok", false);
+					result.put("error", ex.getMessage() != null ? ex.getMessage() : ex.toString());
+				}
+				long nanos = System.nanoTime() - startedAt;
+				result.put("ms", millis(nanos));
+				result.put("nanos", nanos);
+				return result;
+			}
+		};
+	}
+
+	private void execute(Map<String, Object> command, Map<String, Object> result) {
+		if (command.containsKey("error")) {
+			throw new IllegalArgumentException((String) command.get("error"));
+		}
+
+		String op = ContactCommands.text(command, "op");
+		if (op.equals("create")) {
+			result.put("id", commands.create(command).getItemId());
+		} else if (op.equals("edit")) {
+			String id = ContactCommands.required(command, "id");
+			result.put("id", id);
+			result.put("changed", commands.edit(id, command));
+		} else if (op.equals("delete")) {
+			String id = ContactCommands.required(command, "id");
+			result.put("id", id);
+			result.put("found", commands.delete(id));
+		} else if (op.equals("search")) {
+			List<String> ids = new ArrayList<String>();
+			Iterator<Item> contacts = new ContactIterator(contactStore, ContactCommands.toQuery(command));
+			while (contacts.hasNext()) {
+				ids.add(contacts.next().getName());
+			}
+			result.put("count", ids.size());
+			result.put("ids", ids);
+		} else {
+			throw new IllegalArgumentException("Unknown op \"" + op + "\", expected create, edit, delete or search");
+		}
+	}
+
+	//a command, or one that only carries the reason it could not be read
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> parseJson(String line) {
+		try {
+			Map<String, Object> command = Jackson.fromJsonString(line, Map.class);
+			ContactCommands.checkKeys(command);
+			return command;
+		} catch (Exception ex) {
+			return unreadable(ex.getMessage());
+		}
+	}
+
+	private static Map<String, Object> parseCsv(List<String> header, List<String> fields) {
+		Map<String, Object> command = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < fields.size() && i < header.size(); i++) {
+			String column = header.get(i).trim().toLowerCase(Locale.ROOT);
+			String field = fields.get(i).trim();
+			if (field.length() == 0) continue;
+
+			if (ContactCommands.COMMAND_KEYS.contains(column)) {
+				command.put(column, field);
+				continue;
+			}
+			String name = ContactImporter.attributeFor(column);
+			if (name == null) {
+				return unreadable("Unknown column \"" + header.get(i) + "\"");
+			}
+			command.put(name, name.equals(SimpleContacts.PHONE_KEY) || name.equals(SimpleContacts.EMAIL_KEY)
+					? Arrays.asList(field.split(";")) : field);
+		}
+		return command;
+	}
+
+	private static Map<String, Object> unreadable(String reason) {
+		Map<String, Object> command = new LinkedHashMap<String, Object>();
+		command.put("error", "Could not read the command: " + reason);
+		return command;
+	}
+
+	//true if the first non-blank character is '{'
+	private static boolean startsWithJson(BufferedReader in) throws IOException {
+		in.mark(8192);
+		int c;
+		do {
+			c = in.read();
+		} while (c != -1 && Character.isWhitespace(c));
+		in.reset();
+		return c == '{';
+	}
+
+	//write a command's result, returning whether it succeeded
+	private static boolean write(Future<Map<String, Object>> future, PrintStream output, List<Long> latencies) throws InterruptedException {
+		Map<String, Object> result;
+		try {
+			result = future.get();
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+		latencies.add((Long) result.remove("nanos"));
+		output.println(Jackson.toJsonString(result));
+		return Boolean.TRUE.equals(result.get("ok"));
+	}
+
+	private static Map<String, Object> summary(List<Long> latencies, int failed, long elapsedNanos) {
+		Collections.sort(latencies);
+		double seconds = Math.max(0.001, elapsedNanos / 1e9);
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("summary", true);
+		summary.put("commands", latencies.size());
+		summary.put("ok", latencies.size() - failed);
+		summary.put("failed", failed);
+		summary.put("seconds", Math.round(seconds * 1000) / 1000.0);
+		summary.put("perSecond", Math.round(latencies.size() / seconds * 10) / 10.0);
+		summary.put("p50ms", millis(percentile(latencies, 50)));
+		summary.put("p95ms", millis(percentile(latencies, 95)));
+		summary.put("p99ms", millis(percentile(latencies, 99)));
+		summary.put("maxms", millis(latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1)));
+		return summary;
+	}
+
+	//nearest rank
+	private static long percentile(List<Long> sorted, int percent) {
+		if (sorted.isEmpty()) return 0;
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+		return sorted.get(Math.max(0, rank - 1));
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 10000.0) / 100.0;
+	}
+}
@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+/**
+ * Converts between SimpleDB items and Contacts. Every contact attribute
+ * name has a slot number; slotOf() finds it from the name's length and
+ * first character (which are unique among the contact attributes) and
+ * confirms it with a single comparison, so decoding an item is one pass
+ * over its attributes that allocates nothing but the Contact and its
+ * phone/email lists.
+ */
+public class ContactCodec {
+	public static final int UNKNOWN = -1;
+	public static final int FIRST = 0;
+	public static final int LAST = 1;
+	public static final int PHONE = 2;
+	public static final int EMAIL = 3;
+	public static final int STREET = 4;
+	public static final int CITY = 5;
+	public static final int STATE = 6;
+	public static final int ZIP = 7;
+	public static final int TAG = 8;
+	public static final int BIRTHDAY = 9;
+
+	//attribute names by slot
+	private static final String[] NAMES = { SimpleContacts.FIRST_KEY, SimpleContacts.LAST_KEY, SimpleContacts.PHONE_KEY,
+			SimpleContacts.EMAIL_KEY, SimpleContacts.STREET_KEY, SimpleContacts.CITY_KEY, SimpleContacts.STATE_KEY,
+			SimpleContacts.ZIP_KEY, SimpleContacts.TAG_KEY, SimpleContacts.BIRTHDAY_KEY };
+
+	private ContactCodec() {
+	}
+
+	/********************************************************************
+	* Get the slot of an attribute name, or UNKNOWN if it is not a contact
+	* attribute
+	*********************************************************************/
+	public static int slotOf(String name) {
+		int slot;
+		switch (name.length()) {
+		case 3:
+			slot = name.charAt(0) == 'Z' ? ZIP : TAG;
+			break;
+		case 4:
+			slot = name.charAt(0) == 'L' ? LAST : CITY;
+			break;
+		case 5:
+			switch (name.charAt(0)) {
+			case 'F': slot = FIRST; break;
+			case 'P': slot = PHONE; break;
+			case 'E': slot = EMAIL; break;
+			default: slot = STATE;
+			}
+			break;
+		case 6:
+			slot = STREET;
+			break;
+		case 8:
+			slot = BIRTHDAY;
+			break;
+		default:
+			return UNKNOWN;
+		}
+		return NAMES[slot].equals(name) ? slot : UNKNOWN;
+	}
+
+	public static String nameOf(int slot) {
+		return NAMES[slot];
+	}
+
+	/********************************************************************
+	* Decode an item. Attributes that are not contact attributes are ignored
+	*********************************************************************/
+	public static Contact decode(Item item) {
+		String first = "", last = "", street = "", city = "", state = "", zip = "", tags = "", birthday = "";
+		List<Contact.Labeled> phones = null, emails = null;
+
+		for (Attribute attribute : item.getAttributes()) {
+			String value = attribute.getValue();
+			switch (slotOf(attribute.getName())) {
+			case FIRST: first = value; break;
+			case LAST: last = value; break;
+			case PHONE:
+				if (phones == null) phones = new ArrayList<Contact.Labeled>(2);
+				phones.add(new Contact.Labeled(value));
+				break;
+			case EMAIL:
+				if (emails == null) emails = new ArrayList<Contact.Labeled>(2);
+				emails.add(new Contact.Labeled(value));
+				break;
+			case STREET: street = value; break;
+			case CITY: city = value; break;
+			case STATE: state = value; break;
+			case ZIP: zip = value; break;
+			case TAG: tags = value; break;
+			case BIRTHDAY: birthday = value; break;
+			default:
+				//not a contact attribute
+			}
+		}
+
+		return new Contact(item.getName(), first, last,
+				phones == null ? Collections.<Contact.Labeled>emptyList() : phones,
+				emails == null ? Collections.<Contact.Labeled>emptyList() : emails,
+				street, city, state, zip, tags, birthday);
+	}
+
+	/********************************************************************
+	* Encode a contact as the attributes to put, all replacing existing
+	* values. Empty fields are left out
+	*********************************************************************/
+	public static List<ReplaceableAttribute> encode(Contact contact) {
+		List<ReplaceableAttribute> attributes = new ArrayList<ReplaceableAttribute>(8 + contact.getPhones().size() + contact.getEmails().size());
+		add(attributes, FIRST, contact.getFirst());
+		add(attributes, LAST, contact.getLast());
+		for (Contact.Labeled phone : contact.getPhones()) add(attributes, PHONE, phone.toString());
+		for (Contact.Labeled email : contact.getEmails()) add(attributes, EMAIL, email.toString());
+		add(attributes, STREET, contact.getStreet());
+		add(attributes, CITY, contact.getCity());
+		add(attributes, STATE, contact.getState());
+		add(attributes, ZIP, contact.getZip());
+		add(attributes, TAG, contact.getTagValue());
+		add(attributes, BIRTHDAY, contact.getBirthday());
+		return attributes;
+	}
+
+	/********************************************************************
+	* Render a contact's page, one column per entered field
+	*********************************************************************/
+	public static ContactPageRenderer render(Contact contact) {
+		ContactPageRenderer page = ContactPageRenderer.start();
+		for (ReplaceableAttribute attribute : encode(contact)) {
+			page.column(attribute.getName(), attribute.getValue());
+		}
+		return page.render();
+	}
+
+	private static void add(List<ReplaceableAttribute> attributes, int slot, String value) {
+		if (value.length() > 0) attributes.add(new ReplaceableAttribute(NAMES[slot], value, true));
+	}
+}
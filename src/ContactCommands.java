@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * Runs contact commands given as maps of JSON-like values, for batch mode
+ * and the HTTP API. A command holds contact attributes by name (a string,
+ * or a list for several values) and any of the keys op, id, by, value
+ * and to. Creates, edits and deletes go through the same code as the
+ * menu, so they get the same S3 pages and SNS notifications; edits and
+ * deletes of the same contact run one at a time. They hold their lock
+ * across store and outbox I/O, so it is a ReentrantLock rather than a
+ * monitor, which would pin a virtual thread to its carrier.
+ *
+ * An edit replaces every value of each attribute it names, and an empty
+ * value (or list) removes the attribute. Searches are by first, last,
+ * state, zip, tag, tags (all of several), before, after, between (value
+ * and to) or expression (a tag expression), like the menu's searches.
+ */
+public class ContactCommands {
+	static final List<String> COMMAND_KEYS = Arrays.asList("op", "id", "by", "value", "to");
+
+	private static final int LOCK_STRIPES = 64;
+
+	private final ContactStore contactStore;
+	private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+	public ContactCommands(ContactStore contactStore) {
+		this.contactStore = contactStore;
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/********************************************************************
+	* Create a contact from the command's attributes, returning it
+	*********************************************************************/
+	public Contact create(Map<String, Object> command) {
+		checkPageName(command);
+		List<Contact.Labeled> phones = new ArrayList<Contact.Labeled>();
+		for (String phone : values(command, SimpleContacts.PHONE_KEY)) phones.add(new Contact.Labeled(phone));
+		List<Contact.Labeled> emails = new ArrayList<Contact.Labeled>();
+		for (String email : values(command, SimpleContacts.EMAIL_KEY)) emails.add(new Contact.Labeled(email));
+
+		return SimpleContacts.storeNewContact(new Contact(null, value(command, SimpleContacts.FIRST_KEY),
+				value(command, SimpleContacts.LAST_KEY), phones, emails, value(command, SimpleContacts.STREET_KEY),
+				value(command, SimpleContacts.CITY_KEY), value(command, SimpleContacts.STATE_KEY), value(command, SimpleContacts.ZIP_KEY),
+				value(command, SimpleContacts.TAG_KEY), value(command, SimpleContacts.BIRTHDAY_KEY)));
+	}
+
+	/********************************************************************
+	* Replace the attributes the command names. Returns false if nothing
+	* changed; throws NoSuchElementException if there is no such contact
+	*********************************************************************/
+	public boolean edit(String itemId, Map<String, Object> command) {
+		checkPageNamePart("id", itemId);
+		checkPageName(command);
+		ReentrantLock lock = lockFor(itemId);
+		lock.lock();
+		try {
+			Item item = contactStore.getContact(itemId);
+			if (item == null) {
+				throw new NoSuchElementException("There is no contact " + itemId);
+			}
+
+			List<Attribute> editedAttributes = new ArrayList<Attribute>();
+			for (Attribute attribute : item.getAttributes()) {
+				if (!command.containsKey(attribute.getName())) editedAttributes.add(attribute);
+			}
+			for (String name : command.keySet()) {
+				if (COMMAND_KEYS.contains(name)) continue;
+				for (String value : values(command, name)) {
+					editedAttributes.add(new Attribute(name, value));
+				}
+			}
+			if (value(editedAttributes, SimpleContacts.FIRST_KEY) == null) {
+				throw new IllegalArgumentException("First name is required");
+			}
+
+			return SimpleContacts.applyEdit(itemId, item.getAttributes(), editedAttributes);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/********************************************************************
+	* Delete a contact. Returns false if there was no such contact
+	*********************************************************************/
+	public boolean delete(String itemId) {
+		ReentrantLock lock = lockFor(itemId);
+		lock.lock();
+		try {
+			return SimpleContacts.removeContact(itemId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/********************************************************************
+	* Build the query for a search command
+	*********************************************************************/
+	public static ContactQuery toQuery(Map<String, Object> command) {
+		String by = required(command, "by");
+		String value = required(command, "value");
+		if (by.equals("first")) return ContactQuery.firstStartsWith(value);
+		if (by.equals("last")) return ContactQuery.lastStartsWith(value);
+		if (by.equals("state")) return ContactQuery.stateEquals(value);
+		if (by.equals("zip")) return ContactQuery.zipEquals(value);
+		if (by.equals("tag")) return ContactQuery.hasTags(Collections.singletonList(value));
+		if (by.equals("tags")) return ContactQuery.hasTags(Arrays.asList(value.split("[\\s,;]+")));
+		if (by.equals("before")) return ContactQuery.birthdayBefore(date(value));
+		if (by.equals("after")) return ContactQuery.birthdayAfter(date(value));
+		if (by.equals("between")) return ContactQuery.birthdayBetween(date(value), date(required(command, "to")));
+		if (by.equals("expression")) return ContactQuery.tagExpression(value);
+		throw new IllegalArgumentException("Unknown search \"" + by
+				+ "\", expected first, last, state, zip, tag, tags, before, after, between or expression");
+	}
+
+	/********************************************************************
+	* Check that every key of a command is a command key or a contact
+	* attribute
+	*********************************************************************/
+	public static void checkKeys(Map<String, Object> command) {
+		for (String key : command.keySet()) {
+			if (!COMMAND_KEYS.contains(key) && ContactCodec.slotOf(key) == ContactCodec.UNKNOWN) {
+				throw new IllegalArgumentException("Unknown field \"" + key + "\"");
+			}
+		}
+	}
+
+	/********************************************************************
+	* A contact as a map of JSON values: its id, then each attribute (a
+	* list for phones and emails)
+	*********************************************************************/
+	public static Map<String, Object> toJson(Item item) {
+		Map<String, Object> contact = new LinkedHashMap<String, Object>();
+		contact.put("id", item.getName());
+		for (Attribute attribute : item.getAttributes()) {
+			int slot = ContactCodec.slotOf(attribute.getName());
+			if (slot == ContactCodec.PHONE || slot == ContactCodec.EMAIL) {
+				@SuppressWarnings("unchecked")
+				List<String> values = (List<String>) contact.get(attribute.getName());
+				if (values == null) {
+					values = new ArrayList<String>(2);
+					contact.put(attribute.getName(), values);
+				}
+				values.add(attribute.getValue());
+			} else if (slot != ContactCodec.UNKNOWN) {
+				contact.put(attribute.getName(), attribute.getValue());
+			}
+		}
+		return contact;
+	}
+
+	//the names and id make up the contact's page key in S3 (see Contact.getPageName)
+	private static void checkPageName(Map<String, Object> command) {
+		checkPageNamePart(SimpleContacts.FIRST_KEY, value(command, SimpleContacts.FIRST_KEY));
+		checkPageNamePart(SimpleContacts.LAST_KEY, value(command, SimpleContacts.LAST_KEY));
+	}
+
+	private static void checkPageNamePart(String name, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '/' || Character.isISOControl(c)) {
+				throw new IllegalArgumentException(name + " may not contain '/' or control characters");
+			}
+		}
+	}
+
+	static String text(Map<String, Object> command, String key) {
+		Object value = command.get(key);
+		return value == null ? "" : String.valueOf(value).trim();
+	}
+
+	static String required(Map<String, Object> command, String key) {
+		String value = text(command, key);
+		if (value.length() == 0) {
+			throw new IllegalArgumentException("\"" + key + "\" is required");
+		}
+		return value;
+	}
+
+	private static String date(String date) {
+		if (Birthdays.toEpochDay(date) == Birthdays.UNPARSEABLE) {
+			throw new IllegalArgumentException(date + " is not a valid date. Please use YYYY-MM-DD format");
+		}
+		return date;
+	}
+
+	//the non-empty values given for an attribute, stored the way the menu stores them
+	private static List<String> values(Map<String, Object> command, String name) {
+		Object given = command.get(name);
+		if (given == null) {
+			return Collections.emptyList();
+		}
+
+		List<String> values = new ArrayList<String>();
+		for (Object value : given instanceof List ? (List<?>) given : Collections.singletonList(given)) {
+			String text = String.valueOf(value).trim();
+			if (name.equals(SimpleContacts.TAG_KEY)) text = ContactImporter.toTags(text);
+			if (name.equals(SimpleContacts.BIRTHDAY_KEY)) text = Birthdays.normalize(text);
+			if (text.length() > 0) values.add(text);
+		}
+		return values;
+	}
+
+	private static String value(Map<String, Object> command, String name) {
+		List<String> values = values(command, name);
+		return values.isEmpty() ? "" : values.get(0);
+	}
+
+	private static String value(List<Attribute> attributes, String name) {
+		for (Attribute attribute : attributes) {
+			if (attribute.getName().equals(name)) return attribute.getValue();
+		}
+		return null;
+	}
+
+	private ReentrantLock lockFor(String itemId) {
+		return locks[(itemId.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+	}
+}
@@ -0,0 +1,271 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.util.json.Jackson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the contact operations as a JSON API on the JDK's built-in HTTP
+ * server (SimpleContacts serve [port]):
+ * 		GET		/contacts?next=<token>					a page of contacts, and the next page's token
+ * 		GET		/contacts?by=<search>&value=..&to=..	a page of a search's matches (see ContactCommands)
+ * 		GET		/contacts/<id>							one contact
+ * 		POST	/contacts								create a contact from a JSON object of attributes
+ * 		PUT		/contacts/<id>							edit a contact (PATCH works too)
+ * 		DELETE	/contacts/<id>							delete a contact
+ * 		GET		/names?by=first|last&prefix=..&limit=..	type-ahead: up to limit (default 10) distinct names
+ * 														starting with prefix, from the local name index
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java
+ * 21 and later; looked up by reflection so this still builds for Java 8),
+ * otherwise on a fixed pool of threads. Requests share the process's
+ * contact store (with its cache and indexes), AWS clients and outbox, so
+ * writes get the same S3 pages and SNS notifications as the menu.
+ */
+public class ContactHttpServer {
+	private static final String CONTACTS_PATH = "/contacts";
+	private static final String NAMES_PATH = "/names";
+	private static final int DEFAULT_NAME_LIMIT = 10;
+	private static final int MAX_NAME_LIMIT = 100;
+	private static final int MAX_BODY_BYTES = 64 * 1024;
+
+	private final ContactStore contactStore;
+	private final ContactCommands commands;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+
+	public ContactHttpServer(ContactStore contactStore, InetSocketAddress address, int backlog, int fallbackThreads) throws IOException {
+		this.contactStore = contactStore;
+		this.commands = new ContactCommands(contactStore);
+
+		ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+		this.virtualThreads = virtualThreadExecutor != null;
+		this.executor = virtualThreads ? virtualThreadExecutor : Executors.newFixedThreadPool(fallbackThreads, new DaemonThreadFactory("http"));
+
+		this.server = HttpServer.create(address, backlog);
+		HttpHandler handler = new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				ContactHttpServer.this.handle(exchange);
+			}
+		};
+		server.createContext(CONTACTS_PATH, handler);
+		server.createContext(NAMES_PATH, handler);
+		server.setExecutor(executor);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/********************************************************************
+	* Stop taking requests, giving those in progress up to delay seconds
+	*********************************************************************/
+	public void stop(int delaySeconds) throws InterruptedException {
+		server.stop(delaySeconds);
+		executor.shutdown();
+		executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public boolean isUsingVirtualThreads() {
+		return virtualThreads;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		int status;
+		Object body;
+		try {
+			String path = exchange.getRequestURI().getPath();
+			String method = exchange.getRequestMethod();
+			String id = path.equals(NAMES_PATH) ? null : itemIdOf(path);
+			if (path.equals(NAMES_PATH) && method.equals("GET")) {
+				status = 200;
+				body = names(parseQuery(exchange.getRequestURI().getRawQuery()));
+			} else if (path.equals(NAMES_PATH)) {
+				status = 405;
+				body = result("error", method + " is not supported on " + path);
+			} else if (id == null && method.equals("GET")) {
+				status = 200;
+				body = list(parseQuery(exchange.getRequestURI().getRawQuery()));
+			} else if (id == null && method.equals("POST")) {
+				Contact created = commands.create(readCommand(exchange));
+				exchange.getResponseHeaders().set("Location", CONTACTS_PATH + "/" + created.getItemId());
+				status = 201;
+				body = result("id", created.getItemId());
+			} else if (id != null && method.equals("GET")) {
+				Item item = contactStore.getContact(id);
+				if (item == null) {
+					throw new NoSuchElementException("There is no contact " + id);
+				}
+				status = 200;
+				body = ContactCommands.toJson(item);
+			} else if (id != null && (method.equals("PUT") || method.equals("PATCH"))) {
+				Map<String, Object> edited = result("id", id);
+				edited.put("changed", commands.edit(id, readCommand(exchange)));
+				status = 200;
+				body = edited;
+			} else if (id != null && method.equals("DELETE")) {
+				if (!commands.delete(id)) {
+					throw new NoSuchElementException("There is no contact " + id);
+				}
+				status = 200;
+				body = result("id", id);
+			} else {
+				status = 405;
+				body = result("error", method + " is not supported on " + exchange.getRequestURI().getPath());
+			}
+		} catch (NoSuchElementException ex) {
+			status = 404;
+			body = result("error", ex.getMessage());
+		} catch (IllegalArgumentException ex) {
+			status = 400;
+			body = result("error", ex.getMessage());
+		} catch (Exception ex) {
+			System.out.println("There was a problem handling " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + ": " + ex);
+			status = 500;
+			body = result("error", "There was a problem handling this request");
+		}
+
+		byte[] response = Jackson.toJsonString(body).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, response.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(response);
+		} finally {
+			out.close();
+		}
+	}
+
+	//one page of every contact, or of a search's matches
+	private Map<String, Object> list(Map<String, Object> parameters) {
+		ContactQuery query = parameters.containsKey("by") ? ContactCommands.toQuery(parameters) : ContactQuery.all();
+		Object next = parameters.get("next");
+		ContactPage page = contactStore.select(query, next == null ? null : next.toString());
+
+		List<Map<String, Object>> contacts = new ArrayList<Map<String, Object>>(page.getItems().size());
+		for (Item item : page.getItems()) {
+			contacts.add(ContactCommands.toJson(item));
+		}
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("contacts", contacts);
+		body.put("next", page.getNextToken());
+		return body;
+	}
+
+	//the first or last names starting with a prefix
+	private Map<String, Object> names(Map<String, Object> parameters) {
+		if (!(contactStore instanceof IndexedContactStore)) {
+			throw new NoSuchElementException("Name lookups need the local search indexes");
+		}
+		String by = ContactCommands.required(parameters, "by");
+		if (!by.equals("first") && !by.equals("last")) {
+			throw new IllegalArgumentException("Unknown name \"" + by + "\", expected first or last");
+		}
+		String limit = ContactCommands.text(parameters, "limit");
+		int count;
+		try {
+			count = limit.length() == 0 ? DEFAULT_NAME_LIMIT : Integer.parseInt(limit);
+		} catch (NumberFormatException ex) {
+			count = 0;
+		}
+		if (count < 1 || count > MAX_NAME_LIMIT) {
+			throw new IllegalArgumentException("\"limit\" must be a number from 1 to " + MAX_NAME_LIMIT);
+		}
+
+		String attributeName = by.equals("first") ? SimpleContacts.FIRST_KEY : SimpleContacts.LAST_KEY;
+		return result("names", ((IndexedContactStore) contactStore).completeName(attributeName,
+				ContactCommands.text(parameters, "prefix"), count));
+	}
+
+	//the id in /contacts/<id>, or null for /contacts
+	private static String itemIdOf(String path) {
+		if (path.equals(CONTACTS_PATH) || path.equals(CONTACTS_PATH + "/")) {
+			return null;
+		}
+		String id = path.substring(CONTACTS_PATH.length() + 1);
+		if (!path.startsWith(CONTACTS_PATH + "/") || id.contains("/")) {
+			throw new NoSuchElementException("There is nothing at " + path);
+		}
+		return id;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> readCommand(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		InputStream in = exchange.getRequestBody();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			body.write(buffer, 0, read);
+			if (body.size() > MAX_BODY_BYTES) {
+				throw new IllegalArgumentException("The request body is larger than " + MAX_BODY_BYTES + " bytes");
+			}
+		}
+
+		Map<String, Object> command;
+		try {
+			command = Jackson.fromJsonString(new String(body.toByteArray(), StandardCharsets.UTF_8), Map.class);
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("The request body is not a JSON object");
+		}
+		if (command == null) {
+			throw new IllegalArgumentException("The request body is not a JSON object");
+		}
+		ContactCommands.checkKeys(command);
+		return command;
+	}
+
+	private static Map<String, Object> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+		if (rawQuery == null) {
+			return parameters;
+		}
+		for (String parameter : rawQuery.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals > 0) {
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+						URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+			}
+		}
+		return parameters;
+	}
+
+	private static Map<String, Object> result(String key, Object value) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put(key, value);
+		return result;
+	}
+
+	//Executors.newVirtualThreadPerTaskExecutor() on Java 21 and later, else null
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+import java.util.Collections;
+import java.util.Random;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+/**
+ * Hands out contact item names (hi/lo allocation). A counter item in
+ * the store holds the next free block number; a node leases a block by
+ * advancing the counter with a conditional put, then hands out the ids
+ * in that block locally with no further coordination. Two nodes can
+ * never lease the same block, so ids are unique across nodes.
+ *
+ * Ids are block * blockSize + offset, zero-padded to a fixed width so
+ * item names sort in numeric order. Blocks are leased in increasing
+ * order, and a block is abandoned once it is older than the maximum
+ * block age, so ids are roughly ordered by creation time: keyset
+ * pagination and range scans over itemName() follow creation order.
+ *
+ * A bulk import leases a whole range of ids at once instead, so it can
+ * give each record a fixed id (see ContactImporter).
+ *
+ * The counter item is not a contact; ContactQuery leaves it out.
+ */
+public class ContactIdAllocator {
+	public static final String COUNTER_ITEM_NAME = "contact-id-counter";
+	private static final String NEXT_BLOCK_KEY = "NextBlock";
+	private static final int ID_WIDTH = 15;
+	private static final int MAX_LEASE_ATTEMPTS = 20;
+
+	private final ContactStore contactStore;
+	private final int blockSize;
+	private final long maxBlockAgeMillis;
+	private final Random random = new Random();
+
+	private long nextId;
+	private long blockEnd;
+	private long blockLeasedAt;
+
+	public ContactIdAllocator(ContactStore contactStore, int blockSize, long maxBlockAgeMillis) {
+		this.contactStore = contactStore;
+		this.blockSize = blockSize;
+		this.maxBlockAgeMillis = maxBlockAgeMillis;
+	}
+
+	/********************************************************************
+	* Get a new, never used, contact item name
+	*********************************************************************/
+	public synchronized String nextId() {
+		if (nextId == blockEnd || System.currentTimeMillis() - blockLeasedAt > maxBlockAgeMillis) {
+			long block = leaseBlocks(1);
+			nextId = block * blockSize;
+			blockEnd = nextId + blockSize;
+			blockLeasedAt = System.currentTimeMillis();
+		}
+		return format(nextId++);
+	}
+
+	/********************************************************************
+	* Lease a range of at least count consecutive ids, for the caller to
+	* hand out itself. Returns the first id in the range
+	*********************************************************************/
+	public long leaseIds(int count) {
+		return leaseBlocks((count + blockSize - 1) / blockSize) * blockSize;
+	}
+
+	//advance the counter by some blocks, retrying when another node got there first
+	private long leaseBlocks(int blocks) {
+		for (int attempt = 1; attempt <= MAX_LEASE_ATTEMPTS; attempt++) {
+			String current = currentNextBlock();
+			long block = current == null ? 0 : Long.parseLong(current);
+			ReplaceableAttribute advanced = new ReplaceableAttribute(NEXT_BLOCK_KEY, format(block + blocks), true);
+
+			if (contactStore.conditionalPut(COUNTER_ITEM_NAME, Collections.singletonList(advanced), NEXT_BLOCK_KEY, current)) {
+				return block;
+			}
+
+			//lost the race (or read a stale counter); back off a little before reading it again
+			try {
+				Thread.sleep(random.nextInt(10 << Math.min(attempt, 6)));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		throw new IllegalStateException("Could not lease a block of contact ids");
+	}
+
+	private String currentNextBlock() {
+		//a stale counter would fail the conditional put on every attempt until SimpleDB caught up
+		Item counter = contactStore.getLatestContact(COUNTER_ITEM_NAME);
+		if (counter != null) {
+			for (Attribute attribute : counter.getAttributes()) {
+				if (attribute.getName().equals(NEXT_BLOCK_KEY)) return attribute.getValue();
+			}
+		}
+		return null;
+	}
+
+	//an id as an item name
+	static String format(long value) {
+		String digits = Long.toString(value);
+		StringBuilder padded = new StringBuilder(ID_WIDTH);
+		for (int i = digits.length(); i < ID_WIDTH; i++) padded.append('0');
+		return padded.append(digits).toString();
+	}
+}
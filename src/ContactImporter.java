@@ -0,0 +1,678 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+/**
+ * Bulk imports contacts from a CSV file (with a header row) or a vCard
+ * (.vcf) file:
+ * 		The file is read as a stream, one record at a time, and each record
+ * 			is mapped onto the contact attributes (First, Last, Phone, ...)
+ * 		Records that cannot be stored (no first name, a birthday that is not
+ * 			a date, a value too long for SimpleDB) are rejected and listed in
+ * 			<file>.rejected
+ * 		Contacts are written 25 at a time with batch puts, several batches
+ * 			in parallel, at no more than a configured number of batches per
+ * 			second; throttled batches are retried with backoff
+ * 		Progress is reported every few seconds
+ * 		The last record up to which everything is stored is saved to
+ * 			<file>.checkpoint, so an interrupted import picks up from there
+ *
+ * Item names come from ContactIdAllocator like any other contact's, in
+ * ranges of IDS_PER_LEASE: record n gets the (n - 1) % IDS_PER_LEASE'th
+ * id of range (n - 1) / IDS_PER_LEASE. Each range is saved to the
+ * checkpoint before any record in it is written, so a resumed import
+ * gives a record the same name again and overwrites it instead of
+ * duplicating it. A finished import deletes its checkpoint, so importing
+ * the same file again adds new contacts.
+ */
+public class ContactImporter {
+	//SimpleDB's limits
+	private static final int MAX_VALUE_BYTES = 1024;
+	private static final int MAX_ATTRIBUTES = 256;
+
+	private static final int MAX_ATTEMPTS = 5;
+	private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+	private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+	private static final int IDS_PER_LEASE = 10000;
+
+	private final ContactStore store;
+	private final ContactIdAllocator idAllocator;
+	private final int threads;
+	private final double batchesPerSecond;
+	private final Random random = new Random();
+	private long nextPermitAt;
+
+	private final AtomicLong recordsRead = new AtomicLong();
+	private final AtomicLong recordsSkipped = new AtomicLong();
+	private final AtomicLong contactsImported = new AtomicLong();
+	private final AtomicLong recordsRejected = new AtomicLong();
+	private final AtomicLong contactsFailed = new AtomicLong();
+
+	/**
+	 * One record of the input, mapped onto contact attributes, or rejected
+	 */
+	private static class ContactRecord {
+		final long number;
+		final List<ReplaceableAttribute> attributes = new ArrayList<ReplaceableAttribute>();
+		String rejection;
+
+		ContactRecord(long number) {
+			this.number = number;
+		}
+
+		void add(String name, String value) {
+			if (value == null) return;
+			value = value.trim();
+			if (value.length() == 0) return;
+			//replace only the first value of each name, so multi-valued attributes keep all their values
+			boolean first = true;
+			for (ReplaceableAttribute attribute : attributes) {
+				if (attribute.getName().equals(name)) first = false;
+			}
+			attributes.add(new ReplaceableAttribute(name, value, first));
+		}
+
+		boolean has(String name) {
+			for (ReplaceableAttribute attribute : attributes) {
+				if (attribute.getName().equals(name)) return true;
+			}
+			return false;
+		}
+	}
+
+	private interface RecordReader {
+		//the next record, or null at the end of the input
+		ContactRecord next() throws IOException;
+	}
+
+	/**
+	 * A batch of up to 25 contacts and the last record number it covers
+	 */
+	private static class Batch {
+		final List<ReplaceableItem> items = new ArrayList<ReplaceableItem>(ContactStore.MAX_BATCH_PUT_ITEMS);
+		long lastRecord;
+		boolean done;
+		boolean failed;
+	}
+
+	public ContactImporter(ContactStore store, ContactIdAllocator idAllocator, int threads, double batchesPerSecond) {
+		this.store = store;
+		this.idAllocator = idAllocator;
+		this.threads = threads;
+		this.batchesPerSecond = batchesPerSecond;
+	}
+
+	/********************************************************************
+	* Import a .csv or .vcf file, resuming from its checkpoint if there
+	* is one
+	*********************************************************************/
+	public void importFile(File file) throws IOException, InterruptedException {
+		final String importId = importId(file);
+		final File checkpointFile = new File(file.getPath() + ".checkpoint");
+		final File rejectedFile = new File(file.getPath() + ".rejected");
+		final List<Long> idRanges = new ArrayList<Long>();
+		long resumeAfter = readCheckpoint(checkpointFile, importId, idRanges);
+		if (resumeAfter > 0) {
+			System.out.println("Resuming the import after record " + resumeAfter);
+		}
+
+		ExecutorService writers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("contact-import"));
+		final Semaphore batchesInFlight = new Semaphore(threads * 2);
+		final Deque<Batch> unfinishedBatches = new ArrayDeque<Batch>();
+		final long[] checkpoint = { resumeAfter, 0 };
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		//a resumed import adds to the rejections of the run it resumes
+		Writer rejected = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejectedFile, resumeAfter > 0), StandardCharsets.UTF_8));
+		RecordReader reader = file.getName().toLowerCase(Locale.ROOT).endsWith(".vcf") ? new VCardReader(in) : new CsvReader(in);
+
+		long startedAt = System.nanoTime();
+		long nextProgressAt = startedAt + TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MILLIS);
+		long lastRecord = resumeAfter;
+		Batch batch = new Batch();
+
+		try {
+			ContactRecord record;
+			while ((record = reader.next()) != null) {
+				recordsRead.incrementAndGet();
+				lastRecord = record.number;
+				if (record.number <= resumeAfter) {
+					recordsSkipped.incrementAndGet();
+					continue;
+				}
+
+				if (record.rejection == null) validate(record);
+				if (record.rejection != null) {
+					recordsRejected.incrementAndGet();
+					rejected.write("record " + record.number + ": " + record.rejection + "\n");
+				} else {
+					batch.items.add(new ReplaceableItem(itemNameOf(record.number, idRanges, unfinishedBatches, checkpoint, checkpointFile, importId),
+							record.attributes));
+				}
+
+				if (batch.items.size() == ContactStore.MAX_BATCH_PUT_ITEMS) {
+					batch.lastRecord = record.number;
+					submit(writers, batchesInFlight, unfinishedBatches, batch, checkpoint, checkpointFile, importId, idRanges);
+					batch = new Batch();
+				}
+
+				if (System.nanoTime() >= nextProgressAt) {
+					reportProgress(startedAt, false);
+					nextProgressAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MILLIS);
+				}
+			}
+
+			batch.lastRecord = lastRecord;
+			submit(writers, batchesInFlight, unfinishedBatches, batch, checkpoint, checkpointFile, importId, idRanges);
+		} finally {
+			in.close();
+			rejected.close();
+			writers.shutdown();
+			writers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+
+		synchronized (unfinishedBatches) {
+			if (unfinishedBatches.isEmpty()) {
+				//everything is stored; the next import of this file starts over
+				checkpointFile.delete();
+			} else {
+				writeCheckpoint(checkpointFile, importId, checkpoint[0], idRanges);
+				System.out.println("Some contacts could not be stored. Run the import again to retry after record " + checkpoint[0]);
+			}
+		}
+		if (rejectedFile.length() == 0) {
+			rejectedFile.delete();
+		} else {
+			System.out.println("Rejected records are listed in " + rejectedFile);
+		}
+
+		reportProgress(startedAt, true);
+	}
+
+	//the item name for a record, leasing its range of ids (and saving it to the checkpoint) first if need be.
+	//only the reading thread adds ranges, under the checkpoint lock so writers never save a list being changed
+	private String itemNameOf(long recordNumber, List<Long> idRanges, Deque<Batch> unfinishedBatches, long[] checkpoint,
+			File checkpointFile, String importId) throws IOException {
+		int range = (int) ((recordNumber - 1) / IDS_PER_LEASE);
+		while (idRanges.size() <= range) {
+			synchronized (unfinishedBatches) {
+				idRanges.add(idAllocator.leaseIds(IDS_PER_LEASE));
+				writeCheckpoint(checkpointFile, importId, checkpoint[0], idRanges);
+			}
+		}
+		return ContactIdAllocator.format(idRanges.get(range) + (recordNumber - 1) % IDS_PER_LEASE);
+	}
+
+	//hand a batch to a writer thread; at most threads * 2 batches are buffered at a time
+	private void submit(ExecutorService writers, final Semaphore batchesInFlight, final Deque<Batch> unfinishedBatches,
+			final Batch batch, final long[] checkpoint, final File checkpointFile, final String importId,
+			final List<Long> idRanges) throws InterruptedException {
+		batchesInFlight.acquire();
+		synchronized (unfinishedBatches) {
+			unfinishedBatches.addLast(batch);
+		}
+
+		writers.execute(new Runnable() {
+			public void run() {
+				try {
+					if (!batch.items.isEmpty()) write(batch);
+				} finally {
+					batchesInFlight.release();
+				}
+
+				//advance the checkpoint past every finished batch at the front
+				synchronized (unfinishedBatches) {
+					batch.done = true;
+					while (!unfinishedBatches.isEmpty() && unfinishedBatches.peekFirst().done && !unfinishedBatches.peekFirst().failed) {
+						checkpoint[0] = unfinishedBatches.pollFirst().lastRecord;
+					}
+
+					long now = System.nanoTime();
+					if (now - checkpoint[1] >= TimeUnit.MILLISECONDS.toNanos(CHECKPOINT_INTERVAL_MILLIS)) {
+						checkpoint[1] = now;
+						try {
+							writeCheckpoint(checkpointFile, importId, checkpoint[0], idRanges);
+						} catch (IOException ex) {
+							System.out.println("Could not save the import checkpoint: " + ex.getMessage());
+						}
+					}
+				}
+			}
+		});
+	}
+
+	//write one batch, retrying throttling and server errors with jittered exponential backoff
+	private void write(Batch batch) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				acquireRate();
+				store.batchPutAttributes(batch.items);
+				contactsImported.addAndGet(batch.items.size());
+				return;
+			} catch (RuntimeException ex) {
+				boolean retryable = !(ex instanceof AmazonServiceException)
+						|| ((AmazonServiceException) ex).getErrorType() != AmazonServiceException.ErrorType.Client
+						|| ((AmazonServiceException) ex).getStatusCode() == 503;
+				if (!retryable || attempt == MAX_ATTEMPTS) {
+					batch.failed = true;
+					contactsFailed.addAndGet(batch.items.size());
+					System.out.println("Could not store " + batch.items.size() + " contacts up to record " + batch.lastRecord + ": " + ex.getMessage());
+					return;
+				}
+				sleep((long) ((100L << attempt) * (0.5 + random.nextDouble())));
+			}
+		}
+	}
+
+	//space batch puts evenly at batchesPerSecond (no limit if 0)
+	private void acquireRate() {
+		if (batchesPerSecond <= 0) {
+			return;
+		}
+
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long permitAt = Math.max(now, nextPermitAt);
+			nextPermitAt = permitAt + (long) (TimeUnit.SECONDS.toNanos(1) / batchesPerSecond);
+			waitNanos = permitAt - now;
+		}
+		if (waitNanos > 0) sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+	}
+
+	private void validate(ContactRecord record) {
+		if (!record.has(SimpleContacts.FIRST_KEY)) {
+			record.rejection = "no first name";
+			return;
+		}
+		if (record.attributes.size() > MAX_ATTRIBUTES) {
+			record.rejection = "more than " + MAX_ATTRIBUTES + " values";
+			return;
+		}
+
+		for (int i = 0; i < record.attributes.size(); i++) {
+			ReplaceableAttribute attribute = record.attributes.get(i);
+			if (attribute.getName().equals(SimpleContacts.BIRTHDAY_KEY)) {
+				if (Birthdays.toEpochDay(attribute.getValue()) == Birthdays.UNPARSEABLE) {
+					record.rejection = "birthday " + attribute.getValue() + " is not a date";
+					return;
+				}
+				attribute.setValue(Birthdays.normalize(attribute.getValue()));
+			}
+			if (attribute.getValue().getBytes(StandardCharsets.UTF_8).length > MAX_VALUE_BYTES) {
+				record.rejection = attribute.getName() + " is longer than " + MAX_VALUE_BYTES + " bytes";
+				return;
+			}
+		}
+	}
+
+	private void reportProgress(long startedAt, boolean finished) {
+		double seconds = Math.max(0.001, (System.nanoTime() - startedAt) / 1e9);
+		System.out.println((finished ? "Import finished: " : "Importing: ")
+				+ recordsRead + " records read" + (recordsSkipped.get() > 0 ? " (" + recordsSkipped + " already imported)" : "")
+				+ ", " + contactsImported + " contacts stored, " + recordsRejected + " rejected, " + contactsFailed + " failed, "
+				+ String.format("%.0f contacts/s", contactsImported.get() / seconds));
+	}
+
+	//identifies the input file, so a checkpoint is only used to resume the import that wrote it
+	private static String importId(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update((file.getCanonicalPath() + ":" + file.length()).getBytes(StandardCharsets.UTF_8));
+		return String.format("import%08x", crc.getValue());
+	}
+
+	//the record to resume after, adding the id ranges leased so far to idRanges
+	private static long readCheckpoint(File checkpointFile, String importId, List<Long> idRanges) throws IOException {
+		if (!checkpointFile.exists()) {
+			return 0;
+		}
+
+		Properties properties = new Properties();
+		FileInputStream in = new FileInputStream(checkpointFile);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+
+		if (!importId.equals(properties.getProperty("import"))) {
+			System.out.println("Ignoring " + checkpointFile + " because the file has changed since it was written");
+			return 0;
+		}
+		for (String first : properties.getProperty("idRanges", "").split(",")) {
+			if (first.length() > 0) idRanges.add(Long.parseLong(first));
+		}
+		return Long.parseLong(properties.getProperty("record", "0"));
+	}
+
+	//write to a temporary file and rename it, so a crash never leaves a partial checkpoint
+	private static void writeCheckpoint(File checkpointFile, String importId, long record, List<Long> idRanges) throws IOException {
+		StringBuilder ranges = new StringBuilder();
+		for (Long first : idRanges) {
+			if (ranges.length() > 0) ranges.append(',');
+			ranges.append(first);
+		}
+
+		Properties properties = new Properties();
+		properties.setProperty("import", importId);
+		properties.setProperty("record", String.valueOf(record));
+		properties.setProperty("idRanges", ranges.toString());
+
+		File tmpFile = new File(checkpointFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmpFile);
+		try {
+			properties.store(out, "contacts imported up to and including this record");
+		} finally {
+			out.close();
+		}
+		if (!tmpFile.renameTo(checkpointFile)) {
+			checkpointFile.delete();
+			if (!tmpFile.renameTo(checkpointFile)) throw new IOException("Could not replace " + checkpointFile);
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	//store tags the way the app does: "[a][b]"
+	static String toTags(String tags) {
+		String trimmedTags = tags.trim();
+		if (trimmedTags.startsWith("[") || trimmedTags.length() == 0) {
+			return trimmedTags;
+		}
+
+		StringBuilder bracketedTags = new StringBuilder();
+		for (String tag : trimmedTags.split("[;,|]")) {
+			if (tag.trim().length() > 0) bracketedTags.append('[').append(tag.trim()).append(']');
+		}
+		return bracketedTags.toString();
+	}
+
+	/********************************************************************
+	* Read the fields of the next CSV row (RFC 4180), or null at the end of
+	* the input
+	*********************************************************************/
+	static List<String> readCsvFields(BufferedReader in) throws IOException {
+		String line = in.readLine();
+		if (line == null) return null;
+
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		int i = 0;
+		while (true) {
+			if (i == line.length()) {
+				if (!quoted) break;
+				//a quoted field continues on the next line
+				line = in.readLine();
+				if (line == null) break;
+				field.append('\n');
+				i = 0;
+				continue;
+			}
+
+			char c = line.charAt(i++);
+			if (quoted) {
+				if (c == '"') {
+					if (i < line.length() && line.charAt(i) == '"') {
+						field.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	//map a column header onto a contact attribute, or null
+	static String attributeFor(String header) {
+		String name = header.toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "");
+		if (name.equals("first") || name.equals("firstname") || name.equals("givenname")) return SimpleContacts.FIRST_KEY;
+		if (name.equals("last") || name.equals("lastname") || name.equals("familyname") || name.equals("surname")) return SimpleContacts.LAST_KEY;
+		if (name.contains("phone") || name.equals("mobile") || name.equals("tel")) return SimpleContacts.PHONE_KEY;
+		if (name.contains("email")) return SimpleContacts.EMAIL_KEY;
+		if (name.equals("street") || name.equals("address") || name.equals("streetaddress")) return SimpleContacts.STREET_KEY;
+		if (name.equals("city")) return SimpleContacts.CITY_KEY;
+		if (name.equals("state") || name.equals("region")) return SimpleContacts.STATE_KEY;
+		if (name.equals("zip") || name.equals("zipcode") || name.equals("postalcode")) return SimpleContacts.ZIP_KEY;
+		if (name.equals("tag") || name.equals("tags")) return SimpleContacts.TAG_KEY;
+		if (name.equals("birthday") || name.equals("birthdate") || name.equals("dob")) return SimpleContacts.BIRTHDAY_KEY;
+		return null;
+	}
+
+	/**
+	 * Reads CSV records (RFC 4180: quoted fields may contain commas, quotes
+	 * written twice and line breaks). The header row names the columns;
+	 * columns that do not map to an attribute are ignored. Phone and email
+	 * cells may hold several values separated by ';'.
+	 */
+	private static class CsvReader implements RecordReader {
+		private final BufferedReader in;
+		private String[] columnKeys;
+		private long recordNumber;
+
+		CsvReader(BufferedReader in) {
+			this.in = in;
+		}
+
+		public ContactRecord next() throws IOException {
+			if (columnKeys == null) {
+				List<String> header = readFields();
+				if (header == null) return null;
+				columnKeys = new String[header.size()];
+				List<String> ignored = new ArrayList<String>();
+				for (int i = 0; i < header.size(); i++) {
+					columnKeys[i] = attributeFor(header.get(i));
+					if (columnKeys[i] == null) ignored.add(header.get(i));
+				}
+				if (!ignored.isEmpty()) System.out.println("Ignoring columns " + ignored);
+			}
+
+			List<String> fields;
+			do {
+				fields = readFields();
+				if (fields == null) return null;
+			} while (fields.size() == 1 && fields.get(0).length() == 0);
+
+			ContactRecord record = new ContactRecord(++recordNumber);
+			if (fields.size() > columnKeys.length) {
+				record.rejection = fields.size() + " fields but " + columnKeys.length + " columns";
+				return record;
+			}
+
+			for (int i = 0; i < fields.size(); i++) {
+				String key = columnKeys[i];
+				if (key == null) continue;
+				if (key.equals(SimpleContacts.PHONE_KEY) || key.equals(SimpleContacts.EMAIL_KEY)) {
+					for (String value : fields.get(i).split(";")) record.add(key, value);
+				} else if (key.equals(SimpleContacts.TAG_KEY)) {
+					record.add(key, toTags(fields.get(i)));
+				} else {
+					record.add(key, fields.get(i));
+				}
+			}
+			return record;
+		}
+
+		private List<String> readFields() throws IOException {
+			return readCsvFields(in);
+		}
+	}
+
+	/**
+	 * Reads vCard records (BEGIN:VCARD ... END:VCARD, with folded lines).
+	 * N (or FN), TEL, EMAIL, ADR, BDAY and CATEGORIES are mapped; phone
+	 * and email TYPEs become labels the way the app writes them
+	 * ("773-202-5862, Work").
+	 */
+	private static class VCardReader implements RecordReader {
+		private static final List<String> GENERIC_TYPES = Arrays.asList("INTERNET", "PREF", "VOICE", "X400");
+
+		private final BufferedReader in;
+		private String pendingLine;
+		private long recordNumber;
+
+		VCardReader(BufferedReader in) {
+			this.in = in;
+		}
+
+		public ContactRecord next() throws IOException {
+			String line;
+			while ((line = readUnfoldedLine()) != null && !line.equalsIgnoreCase("BEGIN:VCARD")) {
+				//skip anything between cards
+			}
+			if (line == null) return null;
+
+			ContactRecord record = new ContactRecord(++recordNumber);
+			String formattedName = null;
+			while ((line = readUnfoldedLine()) != null && !line.equalsIgnoreCase("END:VCARD")) {
+				int colon = line.indexOf(':');
+				if (colon < 0) continue;
+
+				String[] nameAndParameters = line.substring(0, colon).split(";");
+				String property = nameAndParameters[0].toUpperCase(Locale.ROOT);
+				//drop a group prefix ("item1.TEL")
+				property = property.substring(property.lastIndexOf('.') + 1);
+				String value = line.substring(colon + 1);
+
+				if (property.equals("N")) {
+					String[] parts = splitValue(value);
+					if (parts.length > 1) record.add(SimpleContacts.FIRST_KEY, parts[1]);
+					record.add(SimpleContacts.LAST_KEY, parts[0]);
+				} else if (property.equals("FN")) {
+					formattedName = unescape(value);
+				} else if (property.equals("TEL")) {
+					record.add(SimpleContacts.PHONE_KEY, labeled(unescape(value), nameAndParameters));
+				} else if (property.equals("EMAIL")) {
+					record.add(SimpleContacts.EMAIL_KEY, labeled(unescape(value), nameAndParameters));
+				} else if (property.equals("ADR")) {
+					//post office box;extended address;street;city;region;postal code;country
+					String[] parts = splitValue(value);
+					if (parts.length > 2) record.add(SimpleContacts.STREET_KEY, parts[2]);
+					if (parts.length > 3) record.add(SimpleContacts.CITY_KEY, parts[3]);
+					if (parts.length > 4) record.add(SimpleContacts.STATE_KEY, parts[4]);
+					if (parts.length > 5) record.add(SimpleContacts.ZIP_KEY, parts[5]);
+				} else if (property.equals("BDAY")) {
+					record.add(SimpleContacts.BIRTHDAY_KEY, unescape(value));
+				} else if (property.equals("CATEGORIES")) {
+					record.add(SimpleContacts.TAG_KEY, toTags(unescape(value)));
+				}
+			}
+
+			//fall back to the formatted name when there is no structured one
+			if (!record.has(SimpleContacts.FIRST_KEY) && formattedName != null) {
+				String[] names = formattedName.trim().split("\\s+", 2);
+				record.add(SimpleContacts.FIRST_KEY, names[0]);
+				if (names.length > 1 && !record.has(SimpleContacts.LAST_KEY)) record.add(SimpleContacts.LAST_KEY, names[1]);
+			}
+			return record;
+		}
+
+		//a line with its continuation lines (which start with a space or tab) joined on
+		private String readUnfoldedLine() throws IOException {
+			String line = pendingLine != null ? pendingLine : in.readLine();
+			pendingLine = null;
+			if (line == null) return null;
+
+			StringBuilder unfolded = new StringBuilder(line);
+			String next;
+			while ((next = in.readLine()) != null && next.length() > 0 && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+				unfolded.append(next, 1, next.length());
+			}
+			pendingLine = next;
+			return unfolded.toString().trim();
+		}
+
+		private static String labeled(String value, String[] nameAndParameters) {
+			for (int i = 1; i < nameAndParameters.length; i++) {
+				String parameter = nameAndParameters[i];
+				String types = parameter.toUpperCase(Locale.ROOT).startsWith("TYPE=") ? parameter.substring(5) : parameter;
+				if (types.contains("=")) continue;
+
+				//the first type that says where the number or address is used
+				for (String type : types.split(",")) {
+					type = type.trim().toUpperCase(Locale.ROOT);
+					if (type.length() > 0 && !GENERIC_TYPES.contains(type)) {
+						return value + ", " + type.charAt(0) + type.substring(1).toLowerCase(Locale.ROOT);
+					}
+				}
+			}
+			return value;
+		}
+
+		//split a structured value on unescaped ';'
+		private static String[] splitValue(String value) {
+			List<String> parts = new ArrayList<String>();
+			StringBuilder part = new StringBuilder();
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '\\' && i + 1 < value.length()) {
+					part.append(c).append(value.charAt(++i));
+				} else if (c == ';') {
+					parts.add(unescape(part.toString()));
+					part.setLength(0);
+				} else {
+					part.append(c);
+				}
+			}
+			parts.add(unescape(part.toString()));
+			return parts.toArray(new String[parts.size()]);
+		}
+
+		private static String unescape(String value) {
+			return value.replace("\\n", " ").replace("\\N", " ").replace("\\,", ",").replace("\\;", ";").replace("\\\\", "\\");
+		}
+	}
+
+	/********************************************************************
+	* Import into a store with the threads and rate from -Dcontacts.import.threads
+	* and -Dcontacts.import.batchesPerSecond
+	*********************************************************************/
+	public static void importInto(ContactStore store, ContactIdAllocator idAllocator, File file) throws IOException, InterruptedException {
+		int threads = Integer.getInteger("contacts.import.threads", 8);
+		double batchesPerSecond = Double.parseDouble(System.getProperty("contacts.import.batchesPerSecond", "20"));
+		new ContactImporter(store, idAllocator, threads, batchesPerSecond).importFile(file);
+	}
+}
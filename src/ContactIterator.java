@@ -0,0 +1,83 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * Lazily walks every contact matching a query, following the store's
+ * next tokens page by page. While one page is being consumed the next
+ * one is fetched in the background, so at most two pages are held in
+ * memory at once.
+ */
+public class ContactIterator implements Iterator<Item> {
+	//page fetches run on daemon threads so an abandoned iterator never keeps the program alive
+	private static final ExecutorService PAGE_FETCHER = Executors.newCachedThreadPool(new DaemonThreadFactory("contact-page-fetcher"));
+
+	private final ContactStore contactStore;
+	private final ContactQuery query;
+	private Iterator<Item> currentPage;
+	private Future<ContactPage> nextPage;
+
+	public ContactIterator(ContactStore contactStore, ContactQuery query) {
+		this.contactStore = contactStore;
+		this.query = query;
+		this.nextPage = fetchPage(null);
+	}
+
+	public boolean hasNext() {
+		//move on to the next page (skipping empty ones) until we find an item or run out of pages
+		while (currentPage == null || !currentPage.hasNext()) {
+			if (nextPage == null) {
+				return false;
+			}
+
+			ContactPage page = awaitPage(nextPage);
+
+			//start fetching the following page before handing this one out
+			nextPage = page.getNextToken() == null ? null : fetchPage(page.getNextToken());
+			currentPage = page.getItems().iterator();
+		}
+
+		return true;
+	}
+
+	public Item next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		return currentPage.next();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private Future<ContactPage> fetchPage(final String nextToken) {
+		return PAGE_FETCHER.submit(new Callable<ContactPage>() {
+			public ContactPage call() {
+				return contactStore.select(query, nextToken);
+			}
+		});
+	}
+
+	private static ContactPage awaitPage(Future<ContactPage> page) {
+		try {
+			return page.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while fetching contacts", ex);
+		} catch (ExecutionException ex) {
+			//rethrow the store's own exception (e.g. an AmazonServiceException) where possible
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException("Could not fetch contacts", ex.getCause());
+		}
+	}
+}
@@ -0,0 +1,443 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+
+/**
+ * Local write-ahead log of the work that follows a contact write: its S3
+ * page and its SNS notification. An intent is appended (and forced to
+ * disk) before the caller returns, and marked done once both have been
+ * completed (see ContactOutboxDrainer), so a failure or crash in between
+ * never loses them: intents that were not marked done are handed back
+ * by the next open().
+ *
+ * The log is a directory of segment files, each memory mapped and filled
+ * with records:
+ * 		record		payload length (int), CRC32 of the payload (int),
+ * 					the payload; a zero length marks the end of the data
+ * 		'I' payload	an intent: page action, bucket, page key, the
+ * 					contact's attributes and the notification message
+ * 		'D' payload	the id of an intent that is done
+ * Every open starts a new segment. A segment is deleted once it is the
+ * oldest one and all of its intents are done, so a done record is never
+ * deleted before the intent it refers to.
+ *
+ * Appends that arrive while the log is being forced are forced together
+ * by the next force (group commit), so concurrent writers share fsyncs.
+ * Done records are not forced; losing one only means the intent is
+ * completed again, and both legs are safe to repeat.
+ */
+public class ContactOutbox implements Closeable {
+	public static final byte PUT_PAGE = 'P';
+	public static final byte DELETE_PAGE = 'X';
+	public static final byte NO_PAGE = 'N';
+
+	private static final byte INTENT_RECORD = 'I';
+	private static final byte DONE_RECORD = 'D';
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final String SEGMENT_PREFIX = "outbox-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	/**
+	 * The work still to do after a contact write
+	 */
+	public static class Intent {
+		private final long id;
+		private final byte pageAction;
+		private final String bucketName;
+		private final String pageKey;
+		private final List<Attribute> attributes;
+		private final String message;
+
+		//set once the page has been written or deleted, and the notification sent, in this process
+		volatile boolean pageDone;
+		volatile boolean messageDone;
+		CompletableFuture<Void> pageLeg;
+		CompletableFuture<Void> messageLeg;
+		int attempts;
+
+		private Intent(long id, byte pageAction, String bucketName, String pageKey, List<Attribute> attributes, String message) {
+			this.id = id;
+			this.pageAction = pageAction;
+			this.bucketName = bucketName;
+			this.pageKey = pageKey;
+			this.attributes = attributes;
+			this.message = message;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		/********************************************************************
+		* PUT_PAGE, DELETE_PAGE or NO_PAGE
+		*********************************************************************/
+		public byte getPageAction() {
+			return pageAction;
+		}
+
+		public String getBucketName() {
+			return bucketName;
+		}
+
+		public String getPageKey() {
+			return pageKey;
+		}
+
+		/********************************************************************
+		* The contact's attributes, to render its page from
+		*********************************************************************/
+		public List<Attribute> getAttributes() {
+			return attributes;
+		}
+
+		/********************************************************************
+		* The notification to publish (empty for none)
+		*********************************************************************/
+		public String getMessage() {
+			return message;
+		}
+	}
+
+	private static class Segment {
+		final long number;
+		final File file;
+		final RandomAccessFile randomAccessFile;
+		MappedByteBuffer buffer;
+		int pendingIntents;
+
+		Segment(long number, File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer) {
+			this.number = number;
+			this.file = file;
+			this.randomAccessFile = randomAccessFile;
+			this.buffer = buffer;
+		}
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final CRC32 crc = new CRC32();
+
+	//segments by number, oldest first; the last one is appended to
+	private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+	private Segment current;
+	private byte[] payload = new byte[1024];
+	private int payloadLength;
+
+	//group commit: appends are numbered, and forced up to a number
+	private final Object forceLock = new Object();
+	private long appendedCount;
+	private long forcedCount;
+	private long forceCount;
+
+	public ContactOutbox(File directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/********************************************************************
+	* Open the log, returning the intents that are not done yet (oldest
+	* first), and start a new segment to append to
+	*********************************************************************/
+	public synchronized List<Intent> open() {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalStateException("Could not create outbox directory " + directory);
+		}
+
+		try {
+			Map<Long, Intent> pending = new LinkedHashMap<Long, Intent>();
+			for (File file : segmentFiles()) {
+				long number = segmentNumber(file);
+				RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+				Segment segment = new Segment(number, file, randomAccessFile,
+						randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length()));
+				segments.put(number, segment);
+				replay(segment, pending);
+			}
+
+			//count what each old segment still holds, and drop the ones that are fully done
+			for (Intent intent : pending.values()) {
+				segments.get(segmentOf(intent.id)).pendingIntents++;
+			}
+			long nextNumber = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+			current = createSegment(nextNumber, segmentSize);
+			deleteDoneSegments();
+
+			return new ArrayList<Intent>(pending.values());
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not open outbox " + directory, ex);
+		}
+	}
+
+	/********************************************************************
+	* Record an intent and force it to disk
+	*********************************************************************/
+	public Intent append(byte pageAction, String bucketName, String pageKey, List<Attribute> attributes, String message) {
+		Intent intent;
+		long sequence;
+		synchronized (this) {
+			if (current == null) {
+				throw new IllegalStateException("The outbox " + directory + " is not open");
+			}
+
+			payloadLength = 0;
+			writeByte(INTENT_RECORD);
+			writeByte(pageAction);
+			writeString(bucketName);
+			writeString(pageKey);
+			writeInt(attributes.size());
+			for (Attribute attribute : attributes) {
+				writeString(attribute.getName());
+				writeString(attribute.getValue());
+			}
+			writeString(message);
+
+			long id = writeRecord();
+			current.pendingIntents++;
+			sequence = ++appendedCount;
+			intent = new Intent(id, pageAction, bucketName, pageKey, new ArrayList<Attribute>(attributes), message);
+		}
+
+		force(sequence);
+		return intent;
+	}
+
+	/********************************************************************
+	* Record that an intent has been completed
+	*********************************************************************/
+	public synchronized void markDone(Intent intent) {
+		//closed: the intent is completed again on the next start
+		if (current == null) {
+			return;
+		}
+
+		payloadLength = 0;
+		writeByte(DONE_RECORD);
+		writeLong(intent.id);
+		writeRecord();
+
+		Segment segment = segments.get(segmentOf(intent.id));
+		if (segment != null) {
+			segment.pendingIntents--;
+			deleteDoneSegments();
+		}
+	}
+
+	/********************************************************************
+	* Number of fsyncs so far (appends forced together share one)
+	*********************************************************************/
+	public long getForceCount() {
+		synchronized (forceLock) {
+			return forceCount;
+		}
+	}
+
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	public synchronized void close() throws IOException {
+		for (Segment segment : segments.values()) {
+			segment.buffer.force();
+			segment.buffer = null;
+			segment.randomAccessFile.close();
+		}
+		segments.clear();
+		current = null;
+	}
+
+	//wait until every append up to sequence is on disk, forcing it if no other thread is
+	private void force(long sequence) {
+		synchronized (forceLock) {
+			if (forcedCount >= sequence) {
+				return;
+			}
+
+			//everything appended so far goes down with this force
+			MappedByteBuffer buffer;
+			long upTo;
+			synchronized (this) {
+				buffer = current.buffer;
+				upTo = appendedCount;
+			}
+			buffer.force();
+			forcedCount = upTo;
+			forceCount++;
+		}
+	}
+
+	//append the payload as a record, moving to a new segment if it does not fit. returns the record's id
+	private long writeRecord() {
+		int recordSize = RECORD_HEADER_SIZE + payloadLength;
+		//keep room for the zero length that ends the segment
+		if (current.buffer.remaining() < recordSize + 4) {
+			current.buffer.force();
+			try {
+				current = createSegment(current.number + 1, Math.max(segmentSize, recordSize + 4));
+			} catch (IOException ex) {
+				throw new IllegalStateException("Could not start a new outbox segment in " + directory, ex);
+			}
+		}
+
+		MappedByteBuffer buffer = current.buffer;
+		int position = buffer.position();
+		crc.reset();
+		crc.update(payload, 0, payloadLength);
+
+		//the length goes in last, so a record is not seen until it is complete
+		buffer.position(position + 4);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(payload, 0, payloadLength);
+		buffer.putInt(position, payloadLength);
+		return current.number << 32 | position;
+	}
+
+	private Segment createSegment(long number, int size) throws IOException {
+		File file = new File(directory, String.format("%s%016x%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(size);
+		Segment segment = new Segment(number, file, randomAccessFile,
+				randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+		segments.put(number, segment);
+		return segment;
+	}
+
+	//delete the oldest segments while they hold nothing pending. caller holds the lock
+	private void deleteDoneSegments() {
+		while (!segments.isEmpty()) {
+			Segment oldest = segments.firstEntry().getValue();
+			if (oldest == current || oldest.pendingIntents > 0) {
+				return;
+			}
+			segments.remove(oldest.number);
+			oldest.buffer = null;
+			try {
+				oldest.randomAccessFile.close();
+			} catch (IOException ex) {
+				//it is being deleted anyway
+			}
+			if (!oldest.file.delete()) {
+				System.out.println("There was a problem deleting outbox segment " + oldest.file);
+			}
+		}
+	}
+
+	//read a segment's records, stopping at the end of its data or at a torn record
+	private void replay(Segment segment, Map<Long, Intent> pending) {
+		ByteBuffer buffer = segment.buffer;
+		while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+			int position = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				break;
+			}
+
+			byte[] record = new byte[length];
+			buffer.get(record);
+			crc.reset();
+			crc.update(record, 0, length);
+			if ((int) crc.getValue() != checksum) {
+				System.out.println("There was a problem reading outbox segment " + segment.file + ": a torn record at offset " + position);
+				break;
+			}
+
+			try {
+				ByteBuffer in = ByteBuffer.wrap(record);
+				byte type = in.get();
+				if (type == INTENT_RECORD) {
+					long id = segment.number << 32 | position;
+					byte pageAction = in.get();
+					String bucketName = readString(in);
+					String pageKey = readString(in);
+					int attributeCount = in.getInt();
+					List<Attribute> attributes = new ArrayList<Attribute>(attributeCount);
+					for (int i = 0; i < attributeCount; i++) {
+						attributes.add(new Attribute(readString(in), readString(in)));
+					}
+					pending.put(id, new Intent(id, pageAction, bucketName, pageKey, attributes, readString(in)));
+				} else if (type == DONE_RECORD) {
+					pending.remove(in.getLong());
+				}
+			} catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+				System.out.println("There was a problem reading outbox segment " + segment.file + ": a malformed record at offset " + position);
+				break;
+			}
+		}
+	}
+
+	private File[] segmentFiles() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return new File[0];
+		}
+		//zero-padded hex numbers sort by name
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static long segmentNumber(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()), 16);
+	}
+
+	private static long segmentOf(long id) {
+		return id >>> 32;
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	private void writeByte(byte value) {
+		ensureCapacity(payloadLength + 1);
+		payload[payloadLength++] = value;
+	}
+
+	private void writeInt(int value) {
+		ensureCapacity(payloadLength + 4);
+		for (int shift = 24; shift >= 0; shift -= 8) payload[payloadLength++] = (byte) (value >>> shift);
+	}
+
+	private void writeLong(long value) {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	private void writeString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(bytes.length);
+		ensureCapacity(payloadLength + bytes.length);
+		System.arraycopy(bytes, 0, payload, payloadLength, bytes.length);
+		payloadLength += bytes.length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > payload.length) {
+			payload = Arrays.copyOf(payload, Math.max(capacity, payload.length * 2));
+		}
+	}
+}
@@ -0,0 +1,291 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * Completes the intents recorded in a ContactOutbox in the background.
+ * An intent has two independent legs, run at the same time: writing (or
+ * deleting) the contact's page in S3, on a small pool of page threads,
+ * and publishing its notification through the SNSPublisher. The intent
+ * is marked done once both have succeeded. The legs share one timeout;
+ * when either fails or the timeout passes, the failures of both are
+ * reported together and only the legs that did not succeed are retried,
+ * with jittered exponential backoff, for as long as the drainer runs.
+ * Whatever is not done when it shuts down stays in the outbox and is
+ * replayed on the next start. A notification SNS rejects as the sender's
+ * fault is not retried.
+ *
+ * When a page has a newer intent, older intents for the same page skip
+ * writing it, so a retried intent never overwrites a newer page. What is
+ * known about a page is kept until every intent submitted for it is
+ * done, and its writes run one at a time.
+ */
+public class ContactOutboxDrainer {
+	private static final long BASE_BACKOFF_MILLIS = 500;
+	private static final long MAX_BACKOFF_MILLIS = 60000;
+
+	private static final CompletableFuture<Void> NOTHING_TO_DO = CompletableFuture.completedFuture(null);
+
+	private final ContactOutbox outbox;
+	private final AmazonS3 s3client;
+	private final SNSPublisher publisher;
+	private final long timeoutMillis;
+	private final ScheduledExecutorService executor;
+	private final ExecutorService pageExecutor;
+	private final Random random = new Random();
+	private final Map<String, PageIntents> intentsByPage = new HashMap<String, PageIntents>();
+	private volatile boolean running = true;
+
+	private final AtomicLong pendingCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+	private final AtomicLong retriedCount = new AtomicLong();
+
+	public ContactOutboxDrainer(ContactOutbox outbox, AmazonS3 s3client, SNSPublisher publisher, int pageThreads, long timeoutMillis) {
+		this.outbox = outbox;
+		this.s3client = s3client;
+		this.publisher = publisher;
+		this.timeoutMillis = timeoutMillis;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("outbox-drainer"));
+		this.pageExecutor = Executors.newFixedThreadPool(pageThreads, new DaemonThreadFactory("outbox-pages"));
+	}
+
+	/********************************************************************
+	* Start working on an intent
+	*********************************************************************/
+	public void submit(final ContactOutbox.Intent intent) {
+		if (intent.getPageAction() != ContactOutbox.NO_PAGE) {
+			synchronized (intentsByPage) {
+				PageIntents page = intentsByPage.get(pageOf(intent));
+				if (page == null) {
+					page = new PageIntents();
+					intentsByPage.put(pageOf(intent), page);
+				}
+				page.pending++;
+				//intents can be submitted from several threads, so only ever move a page's latest id forward
+				page.latest = Math.max(page.latest, intent.getId());
+			}
+		}
+		pendingCount.incrementAndGet();
+		schedule(intent, 0);
+	}
+
+	/********************************************************************
+	* Wait up to timeout for the submitted intents to be done, then stop.
+	* Returns false if some are left for the next start
+	*********************************************************************/
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (this) {
+			while (pendingCount.get() > 0 && deadline - System.nanoTime() > 0) {
+				wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			}
+		}
+		running = false;
+		executor.shutdownNow();
+		pageExecutor.shutdownNow();
+		if (pendingCount.get() > 0) {
+			System.out.println(pendingCount.get() + " contact page updates or notifications will be completed on the next start");
+			return false;
+		}
+		return true;
+	}
+
+	/********************************************************************
+	* Intents submitted but not done yet
+	*********************************************************************/
+	public long getPendingCount() {
+		return pendingCount.get();
+	}
+
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	public long getRetriedCount() {
+		return retriedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "pending " + pendingCount + ", completed " + completedCount + ", retried " + retriedCount;
+	}
+
+	private void schedule(final ContactOutbox.Intent intent, long delayMillis) {
+		if (!running) {
+			return;
+		}
+		executor.schedule(new Runnable() {
+			public void run() {
+				drain(intent);
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	//start both legs, and retry the ones that did not succeed once both are over (or the time is up).
+	//a leg still running from a timed out attempt is waited on again rather than started twice
+	private void drain(final ContactOutbox.Intent intent) {
+		if (!intent.pageDone && (intent.pageLeg == null || intent.pageLeg.isDone())) {
+			intent.pageLeg = CompletableFuture.runAsync(new Runnable() {
+				public void run() {
+					writePage(intent);
+					intent.pageDone = true;
+				}
+			}, pageExecutor);
+		}
+		final CompletableFuture<Void> page = intent.pageDone ? NOTHING_TO_DO : intent.pageLeg;
+
+		boolean notify = intent.getMessage().length() > 0 && publisher != null;
+		if (notify && !intent.messageDone && (intent.messageLeg == null || intent.messageLeg.isDone())) {
+			intent.messageLeg = publisher.publishAsync(intent.getMessage()).thenRun(new Runnable() {
+				public void run() {
+					intent.messageDone = true;
+				}
+			});
+		}
+		final CompletableFuture<Void> notification = !notify || intent.messageDone ? NOTHING_TO_DO : intent.messageLeg;
+
+		final CompletableFuture<Void> legs = new CompletableFuture<Void>();
+		final ScheduledFuture<?> timeout = executor.schedule(new Runnable() {
+			public void run() {
+				legs.completeExceptionally(new TimeoutException("not finished within " + timeoutMillis + "ms"));
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+
+		CompletableFuture.allOf(page, notification).whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void result, Throwable failure) {
+				timeout.cancel(false);
+				legs.complete(null);
+			}
+		});
+
+		legs.whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void result, Throwable failure) {
+				String problems = problem("updating the page " + intent.getPageKey(), page, failure)
+						+ problem("sending the update notification", notification, failure);
+				if (problems.length() == 0) {
+					done(intent);
+				} else {
+					retryLater(intent, problems.substring(2));
+				}
+			}
+		});
+	}
+
+	//describe a leg's failure (or that it did not finish in time), or "" if it succeeded
+	private String problem(String leg, CompletableFuture<Void> future, Throwable timeout) {
+		if (!future.isDone()) {
+			return "; " + leg + ": " + timeout.getMessage();
+		}
+		if (!future.isCompletedExceptionally()) {
+			return "";
+		}
+
+		try {
+			future.join();
+			return "";
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+			if (cause instanceof IllegalArgumentException) {
+				//rejected for good, retrying would not help
+				System.out.println("There was a problem " + leg + ", giving up: " + cause.getMessage());
+				return "";
+			}
+			return "; " + leg + ": " + cause.getMessage();
+		}
+	}
+
+	private void writePage(ContactOutbox.Intent intent) {
+		if (s3client == null || intent.getPageAction() == ContactOutbox.NO_PAGE) {
+			return;
+		}
+
+		PageIntents page;
+		synchronized (intentsByPage) {
+			page = intentsByPage.get(pageOf(intent));
+		}
+
+		//one write to a page at a time, so an older write still in flight cannot land after a newer one
+		page.lock.lock();
+		try {
+			//a newer intent will write (or has written) this page
+			if (page.latest > intent.getId()) {
+				return;
+			}
+
+			if (intent.getPageAction() == ContactOutbox.DELETE_PAGE) {
+				s3client.deleteObject(intent.getBucketName(), intent.getPageKey());
+				ContactPageUploader.forget(intent.getBucketName(), intent.getPageKey());
+				return;
+			}
+
+			//the page always starts with the first name
+			Contact contact = ContactCodec.decode(new Item(intent.getPageKey(), intent.getAttributes()));
+			if (contact.getFirst().length() > 0) {
+				ContactPageUploader.upload(s3client, intent.getBucketName(), intent.getPageKey(), ContactCodec.render(contact),
+						CannedAccessControlList.PublicRead);
+			}
+		} finally {
+			page.lock.unlock();
+		}
+	}
+
+	private static String pageOf(ContactOutbox.Intent intent) {
+		return intent.getBucketName() + "/" + intent.getPageKey();
+	}
+
+	private void done(ContactOutbox.Intent intent) {
+		//forget the page once none of its intents are left, older ones included
+		if (intent.getPageAction() != ContactOutbox.NO_PAGE) {
+			synchronized (intentsByPage) {
+				PageIntents page = intentsByPage.get(pageOf(intent));
+				if (--page.pending == 0) {
+					intentsByPage.remove(pageOf(intent));
+				}
+			}
+		}
+		try {
+			outbox.markDone(intent);
+		} catch (Exception ex) {
+			//the intent is completed again on the next start
+			System.out.println("There was a problem recording a completed contact update: " + ex.getMessage());
+		}
+		completedCount.incrementAndGet();
+		pendingCount.decrementAndGet();
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	//full jitter: a random wait up to base * 2^(attempts - 1), capped
+	private void retryLater(ContactOutbox.Intent intent, String problems) {
+		intent.attempts++;
+		retriedCount.incrementAndGet();
+		if (intent.attempts == 1 || intent.attempts % 10 == 0) {
+			System.out.println("There was a problem completing a contact update (attempt " + intent.attempts + ", will retry): " + problems);
+		}
+		long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(intent.attempts - 1, 20));
+		schedule(intent, 1 + (long) (random.nextDouble() * ceiling));
+	}
+
+	//the newest intent submitted for a page, and how many of its intents are not done yet
+	private static class PageIntents {
+		private final ReentrantLock lock = new ReentrantLock();
+		private long latest = Long.MIN_VALUE;
+		private int pending;
+	}
+}
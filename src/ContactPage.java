@@ -0,0 +1,25 @@
+import java.util.List;
+
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * One page of contacts returned by a store, plus the token for the next
+ * page (null on the last page)
+ */
+public class ContactPage {
+	private final List<Item> items;
+	private final String nextToken;
+
+	public ContactPage(List<Item> items, String nextToken) {
+		this.items = items;
+		this.nextToken = nextToken;
+	}
+
+	public List<Item> getItems() {
+		return items;
+	}
+
+	public String getNextToken() {
+		return nextToken;
+	}
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+/**
+ * Remembers the content digest (hex MD5) of the contact pages in S3, so
+ * a page whose bytes have not changed is not uploaded again. A page's
+ * digest is taken from this process's own uploads, or else read once
+ * with a HEAD request: the page-md5 user metadata written by
+ * ContactPageUploader, falling back to the ETag (the MD5 of a single
+ * part upload). So a process that starts with an empty cache, like the
+ * SQS formatter, still skips pages that are already up to date.
+ *
+ * Digests are kept in a bounded LRU map and expire after a fixed time,
+ * which bounds how long another writer's change to a page can go
+ * unnoticed.
+ */
+public class ContactPageCache {
+	static final String DIGEST_METADATA_KEY = "page-md5";
+
+	private final ExpiringLruCache<String> entries;
+	private final AtomicLong checks = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong skips = new AtomicLong();
+
+	public ContactPageCache(int maxEntries, long ttl, TimeUnit ttlUnit) {
+		this.entries = new ExpiringLruCache<String>(maxEntries, ttl, ttlUnit);
+	}
+
+	/********************************************************************
+	* Check whether a page with this digest is already stored under the
+	* key, reading the stored digest from S3 if it is not cached
+	*********************************************************************/
+	public boolean isUnchanged(AmazonS3 s3client, String bucketName, String key, String digest) {
+		checks.incrementAndGet();
+		String cacheKey = bucketName + "/" + key;
+		String storedDigest = entries.get(cacheKey);
+		if (storedDigest != null) {
+			hits.incrementAndGet();
+		} else {
+			//an upload or delete that finishes during the HEAD wins over what the HEAD saw
+			long generation = entries.generation(cacheKey);
+			storedDigest = loadDigest(s3client, bucketName, key);
+			if (storedDigest != null) entries.putIfUnchanged(cacheKey, storedDigest, generation);
+		}
+
+		if (digest.equals(storedDigest)) {
+			skips.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/********************************************************************
+	* Record the digest of a page that was just uploaded
+	*********************************************************************/
+	public void remember(String bucketName, String key, String digest) {
+		entries.put(bucketName + "/" + key, digest);
+	}
+
+	/********************************************************************
+	* Forget a page (eg. because it was deleted)
+	*********************************************************************/
+	public void forget(String bucketName, String key) {
+		entries.invalidate(bucketName + "/" + key);
+	}
+
+	/********************************************************************
+	* Number of uploads checked against the cache
+	*********************************************************************/
+	public long getCheckCount() {
+		return checks.get();
+	}
+
+	/********************************************************************
+	* Checks answered without asking S3
+	*********************************************************************/
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/********************************************************************
+	* HEAD requests made to read a stored digest
+	*********************************************************************/
+	public long getLookupCount() {
+		return lookups.get();
+	}
+
+	/********************************************************************
+	* Uploads skipped because the page was unchanged
+	*********************************************************************/
+	public long getSkipCount() {
+		return skips.get();
+	}
+
+	@Override
+	public String toString() {
+		long checked = Math.max(1, getCheckCount());
+		return "Page cache: " + getCheckCount() + " uploads checked, " + getSkipCount() + " skipped ("
+				+ (100 * getSkipCount() / checked) + "%), " + getHitCount() + " hits (" + (100 * getHitCount() / checked) + "%), "
+				+ getLookupCount() + " lookups";
+	}
+
+	//digest of the stored page, or null if there is no page (or it can't be read)
+	private String loadDigest(AmazonS3 s3client, String bucketName, String key) {
+		lookups.incrementAndGet();
+		try {
+			ObjectMetadata metadata = s3client.getObjectMetadata(bucketName, key);
+			String digest = metadata.getUserMetaDataOf(DIGEST_METADATA_KEY);
+			return digest != null ? digest : metadata.getETag();
+		} catch (AmazonS3Exception ex) {
+			//not found, or not readable: upload the page
+			return null;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Renders contact pages: a table with one header row and one detail row.
+ * The fixed parts of the page are encoded to bytes once, and each page is
+ * written (HTML-escaped, UTF-8) straight into a byte buffer that belongs
+ * to the current thread and is reused for every page it renders, so
+ * rendering creates almost no garbage.
+ *
+ * Usage: start(), column() for each field to show, then render(). The
+ * rendered bytes stay valid until the same thread starts another page.
+ */
+public class ContactPageRenderer {
+	private static final byte[] PAGE_START = bytes("<!DOCTYPE html><html><body><table>");
+	private static final byte[] PAGE_END = bytes("</table></body></html>");
+	private static final byte[] ROW_START = bytes("<tr>");
+	private static final byte[] ROW_END = bytes("</tr>");
+	private static final byte[] HEADER_START = bytes("<th>");
+	private static final byte[] HEADER_END = bytes("</th>");
+	private static final byte[] CELL_START = bytes("<td>");
+	private static final byte[] CELL_END = bytes("</td>");
+	private static final byte[] AMPERSAND = bytes("&amp;");
+	private static final byte[] LESS_THAN = bytes("&lt;");
+	private static final byte[] GREATER_THAN = bytes("&gt;");
+	private static final byte[] QUOTE = bytes("&quot;");
+	private static final byte[] APOSTROPHE = bytes("&#39;");
+
+	private static final ThreadLocal<ContactPageRenderer> RENDERERS = new ThreadLocal<ContactPageRenderer>() {
+		@Override
+		protected ContactPageRenderer initialValue() {
+			return new ContactPageRenderer();
+		}
+	};
+
+	private String[] headers = new String[16];
+	private String[] values = new String[16];
+	private int columnCount;
+	private byte[] buffer = new byte[4096];
+	private int length;
+
+	private ContactPageRenderer() {
+	}
+
+	/********************************************************************
+	* Start a new page on the current thread's renderer
+	*********************************************************************/
+	public static ContactPageRenderer start() {
+		ContactPageRenderer renderer = RENDERERS.get();
+		Arrays.fill(renderer.headers, 0, renderer.columnCount, null);
+		Arrays.fill(renderer.values, 0, renderer.columnCount, null);
+		renderer.columnCount = 0;
+		renderer.length = 0;
+		return renderer;
+	}
+
+	/********************************************************************
+	* Add a column (a header and its value) to the page
+	*********************************************************************/
+	public ContactPageRenderer column(String header, String value) {
+		if (columnCount == headers.length) {
+			headers = Arrays.copyOf(headers, columnCount * 2);
+			values = Arrays.copyOf(values, columnCount * 2);
+		}
+		headers[columnCount] = header;
+		values[columnCount++] = value;
+		return this;
+	}
+
+	/********************************************************************
+	* Render the page into this thread's buffer
+	*********************************************************************/
+	public ContactPageRenderer render() {
+		length = 0;
+		append(PAGE_START);
+
+		append(ROW_START);
+		for (int i = 0; i < columnCount; i++) {
+			append(HEADER_START);
+			appendEscaped(headers[i]);
+			append(HEADER_END);
+		}
+		append(ROW_END);
+
+		append(ROW_START);
+		for (int i = 0; i < columnCount; i++) {
+			append(CELL_START);
+			appendEscaped(values[i]);
+			append(CELL_END);
+		}
+		append(ROW_END);
+
+		append(PAGE_END);
+		return this;
+	}
+
+	/********************************************************************
+	* The rendered page's bytes. Only the first getLength() are valid
+	*********************************************************************/
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, length);
+	}
+
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private void append(byte[] bytes) {
+		ensureCapacity(length + bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	//HTML-escape and UTF-8 encode a value straight into the buffer
+	private void appendEscaped(String value) {
+		if (value == null) {
+			return;
+		}
+
+		//a char needs at most 6 bytes once escaped (&quot;)
+		ensureCapacity(length + value.length() * 6);
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				append(AMPERSAND);
+				break;
+			case '<':
+				append(LESS_THAN);
+				break;
+			case '>':
+				append(GREATER_THAN);
+				break;
+			case '"':
+				append(QUOTE);
+				break;
+			case '\'':
+				append(APOSTROPHE);
+				break;
+			default:
+				if (c < 0x80) {
+					buffer[length++] = (byte) c;
+				} else if (c < 0x800) {
+					buffer[length++] = (byte) (0xC0 | (c >> 6));
+					buffer[length++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+					buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else if (Character.isSurrogate(c)) {
+					//unpaired surrogate
+					buffer[length++] = '?';
+				} else {
+					buffer[length++] = (byte) (0xE0 | (c >> 12));
+					buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buffer[length++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+		}
+	}
+
+	private static byte[] bytes(String html) {
+		return html.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,106 @@
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+
+/**
+ * Uploads a rendered contact page to S3 straight from the renderer's
+ * buffer. The request carries an explicit content length, so the SDK
+ * does not have to buffer the stream to measure it, and a Content-MD5,
+ * so S3 rejects a page that was corrupted on the way. Nothing is written
+ * to the local filesystem.
+ *
+ * A page whose bytes match what is already stored under its key is not
+ * uploaded at all (see ContactPageCache). The cache is sized by
+ * -Dcontacts.pageCache.size (default 10000 pages) and its digests expire
+ * after -Dcontacts.pageCache.ttlSeconds (default 300).
+ */
+public class ContactPageUploader {
+	private static final String CONTENT_TYPE = "text/html; charset=UTF-8";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final ContactPageCache PAGE_CACHE = new ContactPageCache(Integer.getInteger("contacts.pageCache.size", 10000),
+			Integer.getInteger("contacts.pageCache.ttlSeconds", 300), TimeUnit.SECONDS);
+
+	private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException ex) {
+				throw new IllegalStateException("MD5 is not available", ex);
+			}
+		}
+	};
+
+	private ContactPageUploader() {
+	}
+
+	/********************************************************************
+	* Upload a rendered page unless the same page is already stored under
+	* the key. acl may be null to keep the bucket's default. Returns false
+	* if the upload was skipped
+	*********************************************************************/
+	public static boolean upload(AmazonS3 s3client, String bucketName, String key,
+			ContactPageRenderer page, CannedAccessControlList acl) {
+		byte[] buffer = page.getBuffer();
+		int length = page.getLength();
+		byte[] md5 = md5(buffer, length);
+		String digest = toHex(md5);
+
+		if (PAGE_CACHE.isUnchanged(s3client, bucketName, key, digest)) {
+			return false;
+		}
+
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(length);
+		metadata.setContentType(CONTENT_TYPE);
+		metadata.setContentMD5(Base64.getEncoder().encodeToString(md5));
+		metadata.addUserMetadata(ContactPageCache.DIGEST_METADATA_KEY, digest);
+
+		PutObjectRequest request = new PutObjectRequest(bucketName, key, new ByteArrayInputStream(buffer, 0, length), metadata);
+		if (acl != null) {
+			request.setCannedAcl(acl);
+		}
+
+		//allow the SDK to rewind the whole page if it has to retry the request
+		request.getRequestClientOptions().setReadLimit(length + 1);
+
+		s3client.putObject(request);
+		PAGE_CACHE.remember(bucketName, key, digest);
+		return true;
+	}
+
+	/********************************************************************
+	* Forget what is known about a page that was deleted
+	*********************************************************************/
+	public static void forget(String bucketName, String key) {
+		PAGE_CACHE.forget(bucketName, key);
+	}
+
+	public static ContactPageCache getPageCache() {
+		return PAGE_CACHE;
+	}
+
+	private static byte[] md5(byte[] buffer, int length) {
+		MessageDigest md5 = MD5.get();
+		md5.reset();
+		md5.update(buffer, 0, length);
+		return md5.digest();
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
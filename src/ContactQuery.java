@@ -0,0 +1,295 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * A search over the contact domain. Each query can either be turned into
+ * a SimpleDB select expression or evaluated locally against an item:
+ * 		All contacts
+ * 		First name starts with
+ * 		Last name starts with
+ * 		State equals
+ * 		Zip equals
+ * 		Has all of a set of tags
+ * 		Tag expression: whitespace separated terms that must all hold, where
+ * 			a term is a tag, "a|b" for any of several tags, or "!a" for not a tag
+ * 		Birthday before, between or after (dates are normalized to YYYY-MM-DD)
+ * No query matches the id allocator's counter item. Name prefixes and
+ * tags are matched with SimpleDB's "like", so they may not contain its
+ * wildcards % and _; locally they would be plain characters.
+ */
+public class ContactQuery {
+	public enum Type {
+		ALL,
+		FIRST_STARTS_WITH,
+		LAST_STARTS_WITH,
+		STATE_EQUALS,
+		ZIP_EQUALS,
+		HAS_TAGS,
+		TAG_EXPRESSION,
+		BIRTHDAY_BEFORE,
+		BIRTHDAY_BETWEEN,
+		BIRTHDAY_AFTER
+	}
+
+	private final Type type;
+	private final List<String> values;
+
+	private ContactQuery(Type type, String... values) {
+		this.type = type;
+		this.values = Collections.unmodifiableList(Arrays.asList(values));
+	}
+
+	public static ContactQuery all() {
+		return new ContactQuery(Type.ALL);
+	}
+
+	public static ContactQuery firstStartsWith(String prefix) {
+		return new ContactQuery(Type.FIRST_STARTS_WITH, checkLikeOperand(prefix));
+	}
+
+	public static ContactQuery lastStartsWith(String prefix) {
+		return new ContactQuery(Type.LAST_STARTS_WITH, checkLikeOperand(prefix));
+	}
+
+	public static ContactQuery stateEquals(String state) {
+		return new ContactQuery(Type.STATE_EQUALS, state);
+	}
+
+	public static ContactQuery zipEquals(String zip) {
+		return new ContactQuery(Type.ZIP_EQUALS, zip);
+	}
+
+	public static ContactQuery hasTags(List<String> tags) {
+		for (String tag : tags) checkLikeOperand(tag);
+		return new ContactQuery(Type.HAS_TAGS, tags.toArray(new String[tags.size()]));
+	}
+
+	public static ContactQuery tagExpression(String expression) {
+		checkLikeOperand(expression);
+		return new ContactQuery(Type.TAG_EXPRESSION, expression.trim().split("\\s+"));
+	}
+
+	public static ContactQuery birthdayBefore(String date) {
+		return new ContactQuery(Type.BIRTHDAY_BEFORE, Birthdays.normalize(date));
+	}
+
+	public static ContactQuery birthdayBetween(String afterDate, String beforeDate) {
+		return new ContactQuery(Type.BIRTHDAY_BETWEEN, Birthdays.normalize(afterDate), Birthdays.normalize(beforeDate));
+	}
+
+	public static ContactQuery birthdayAfter(String date) {
+		return new ContactQuery(Type.BIRTHDAY_AFTER, Birthdays.normalize(date));
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public List<String> getValues() {
+		return values;
+	}
+
+	/********************************************************************
+	* Build the SimpleDB select expression for this query
+	*********************************************************************/
+	public String toSelectExpression(String domainName) {
+		String selectExpression = "select * from `" + domainName + "`";
+		String whereClause = "";
+
+		switch (type) {
+		case ALL:
+			break;
+		case FIRST_STARTS_WITH:
+			whereClause = SimpleContacts.FIRST_KEY + " like '" + escape(values.get(0)) + "%'";
+			break;
+		case LAST_STARTS_WITH:
+			whereClause = SimpleContacts.LAST_KEY + " like '" + escape(values.get(0)) + "%'";
+			break;
+		case STATE_EQUALS:
+			whereClause = SimpleContacts.STATE_KEY + " = '" + escape(values.get(0)) + "'";
+			break;
+		case ZIP_EQUALS:
+			whereClause = SimpleContacts.ZIP_KEY + " = '" + escape(values.get(0)) + "'";
+			break;
+		case HAS_TAGS:
+			//chain one "like" clause per tag
+			for (String tag : values) {
+				if (whereClause.length() > 0) whereClause = whereClause + " and ";
+				whereClause = whereClause + SimpleContacts.TAG_KEY + " like '%[" + escape(tag) + "]%'";
+			}
+			break;
+		case TAG_EXPRESSION:
+			for (String term : values) {
+				if (whereClause.length() > 0) whereClause = whereClause + " and ";
+				whereClause = whereClause + tagTermWhereClause(term);
+			}
+			break;
+		case BIRTHDAY_BEFORE:
+			whereClause = SimpleContacts.BIRTHDAY_KEY + " < '" + escape(values.get(0)) + "'";
+			break;
+		case BIRTHDAY_BETWEEN:
+			whereClause = SimpleContacts.BIRTHDAY_KEY + " > '" + escape(values.get(0)) + "' and "
+					+ SimpleContacts.BIRTHDAY_KEY + " < '" + escape(values.get(1)) + "'";
+			break;
+		case BIRTHDAY_AFTER:
+			whereClause = SimpleContacts.BIRTHDAY_KEY + " > '" + escape(values.get(0)) + "'";
+			break;
+		}
+
+		//the id allocator's counter item is not a contact
+		if (whereClause.length() > 0) whereClause = whereClause + " and ";
+		whereClause = whereClause + "itemName() != '" + escape(ContactIdAllocator.COUNTER_ITEM_NAME) + "'";
+
+		selectExpression = selectExpression + " where " + whereClause;
+
+		return selectExpression;
+	}
+
+	/********************************************************************
+	* Evaluate this query against an item the same way SimpleDB would:
+	* a comparison on a multi-valued attribute matches if any value does
+	*********************************************************************/
+	public boolean matches(Item item) {
+		if (item.getName().equals(ContactIdAllocator.COUNTER_ITEM_NAME)) {
+			return false;
+		}
+
+		switch (type) {
+		case ALL:
+			return true;
+		case FIRST_STARTS_WITH:
+			return anyValueStartsWith(item, SimpleContacts.FIRST_KEY, values.get(0));
+		case LAST_STARTS_WITH:
+			return anyValueStartsWith(item, SimpleContacts.LAST_KEY, values.get(0));
+		case STATE_EQUALS:
+			return anyValueCompares(item, SimpleContacts.STATE_KEY, values.get(0), 0);
+		case ZIP_EQUALS:
+			return anyValueCompares(item, SimpleContacts.ZIP_KEY, values.get(0), 0);
+		case HAS_TAGS:
+			for (String tag : values) {
+				if (!anyValueContains(item, SimpleContacts.TAG_KEY, "[" + tag + "]")) return false;
+			}
+			return true;
+		case TAG_EXPRESSION:
+			for (String term : values) {
+				if (!tagTermMatches(item, term)) return false;
+			}
+			return true;
+		case BIRTHDAY_BEFORE:
+			return anyBirthdayCompares(item, values.get(0), -1);
+		case BIRTHDAY_BETWEEN:
+			return anyBirthdayCompares(item, values.get(0), 1) && anyBirthdayCompares(item, values.get(1), -1);
+		case BIRTHDAY_AFTER:
+			return anyBirthdayCompares(item, values.get(0), 1);
+		default:
+			return false;
+		}
+	}
+
+	/********************************************************************
+	* Whether a tag expression term is negated ("!a")
+	*********************************************************************/
+	public static boolean isNegatedTerm(String term) {
+		return term.startsWith("!");
+	}
+
+	/********************************************************************
+	* The alternative tags of a tag expression term ("a|b" or "!a|b")
+	*********************************************************************/
+	public static String[] termTags(String term) {
+		return (isNegatedTerm(term) ? term.substring(1) : term).split("\\|");
+	}
+
+	private static String tagTermWhereClause(String term) {
+		String[] tags = termTags(term);
+		String clause = "";
+
+		if (isNegatedTerm(term)) {
+			//a contact without tags has none of them, but "not like" is false for a missing attribute
+			for (String tag : tags) {
+				if (clause.length() > 0) clause = clause + " and ";
+				clause = clause + SimpleContacts.TAG_KEY + " not like '%[" + escape(tag) + "]%'";
+			}
+			return "(" + SimpleContacts.TAG_KEY + " is null or (" + clause + "))";
+		}
+
+		for (String tag : tags) {
+			if (clause.length() > 0) clause = clause + " or ";
+			clause = clause + SimpleContacts.TAG_KEY + " like '%[" + escape(tag) + "]%'";
+		}
+		return "(" + clause + ")";
+	}
+
+	private static boolean tagTermMatches(Item item, String term) {
+		boolean anyTagPresent = false;
+		for (String tag : termTags(term)) {
+			if (anyValueContains(item, SimpleContacts.TAG_KEY, "[" + tag + "]")) anyTagPresent = true;
+		}
+		return isNegatedTerm(term) ? !anyTagPresent : anyTagPresent;
+	}
+
+	private static boolean anyValueStartsWith(Item item, String name, String prefix) {
+		for (String value : valuesOf(item, name)) {
+			if (value.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+
+	private static boolean anyValueContains(Item item, String name, String part) {
+		for (String value : valuesOf(item, name)) {
+			if (value.contains(part)) return true;
+		}
+		return false;
+	}
+
+	//sign is -1 for "value < operand", 0 for "value = operand" and 1 for "value > operand"
+	private static boolean anyValueCompares(Item item, String name, String operand, int sign) {
+		for (String value : valuesOf(item, name)) {
+			if (Integer.signum(value.compareTo(operand)) == sign) return true;
+		}
+		return false;
+	}
+
+	//compare birthdays as dates when both sides parse, falling back to SimpleDB's string comparison
+	private static boolean anyBirthdayCompares(Item item, String operand, int sign) {
+		int operandDay = Birthdays.toEpochDay(operand);
+		for (String value : valuesOf(item, SimpleContacts.BIRTHDAY_KEY)) {
+			int valueDay = Birthdays.toEpochDay(value);
+			int comparison = valueDay != Birthdays.UNPARSEABLE && operandDay != Birthdays.UNPARSEABLE
+					? Integer.compare(valueDay, operandDay) : value.compareTo(operand);
+			if (Integer.signum(comparison) == sign) return true;
+		}
+		return false;
+	}
+
+	private static List<String> valuesOf(Item item, String name) {
+		List<String> values = new ArrayList<String>();
+		for (Attribute attribute : item.getAttributes()) {
+			if (attribute.getName().equals(name)) values.add(attribute.getValue());
+		}
+		return values;
+	}
+
+	//% and _ are wildcards in a SimpleDB "like" but plain characters in matches(), so refuse them
+	private static String checkLikeOperand(String value) {
+		if (value.indexOf('%') >= 0 || value.indexOf('_') >= 0) {
+			throw new IllegalArgumentException("Name prefixes and tags to search for may not contain % or _");
+		}
+		return value;
+	}
+
+	//quotes inside SimpleDB string literals are escaped by doubling them
+	private static String escape(String value) {
+		return value.replace("'", "''");
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + values;
+	}
+}
@@ -0,0 +1,203 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * Reads a snapshot written by ContactSnapshotWriter. The file is memory
+ * mapped, a window at a time, and decoded straight from the mapping, so
+ * reading runs at disk (or page cache) speed. Attribute names come from
+ * the snapshot's dictionary and are shared by every item that uses them.
+ *
+ * A truncated or corrupt snapshot (one without its end record, or whose
+ * end record does not match the items read) fails with an IOException
+ * wrapped in an IllegalStateException.
+ */
+public class ContactSnapshotReader implements Iterator<Item>, Closeable {
+	//mapped at a time; moved forward (at a record boundary) as the file is read
+	private static final long WINDOW_SIZE = 256L << 20;
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+	private final long fileSize;
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	private String[] attributeNames = new String[32];
+	private byte[] stringBuffer = new byte[256];
+	private Item nextItem;
+	private long itemCount;
+	private boolean ended;
+
+	public ContactSnapshotReader(File file) throws IOException {
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+		this.fileSize = channel.size();
+		map(0);
+
+		byte[] magic = new byte[ContactSnapshotWriter.MAGIC.length];
+		if (fileSize < magic.length + 1) {
+			throw new IOException(file + " is not a contact snapshot");
+		}
+		window.get(magic);
+		if (!Arrays.equals(magic, ContactSnapshotWriter.MAGIC)) {
+			throw new IOException(file + " is not a contact snapshot");
+		}
+		int version = window.get();
+		if (version != ContactSnapshotWriter.VERSION) {
+			throw new IOException(file + " is snapshot version " + version + ", not " + ContactSnapshotWriter.VERSION);
+		}
+	}
+
+	public boolean hasNext() {
+		if (nextItem == null && !ended) {
+			try {
+				nextItem = readItem();
+			} catch (IOException ex) {
+				throw new IllegalStateException("Could not read contact snapshot " + file, ex);
+			}
+		}
+		return nextItem != null;
+	}
+
+	public Item next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Item item = nextItem;
+		nextItem = null;
+		return item;
+	}
+
+	/********************************************************************
+	* Number of items read so far
+	*********************************************************************/
+	public long getItemCount() {
+		return itemCount;
+	}
+
+	public void close() throws IOException {
+		window = null;
+		randomAccessFile.close();
+	}
+
+	//read records up to the next item, or the end record
+	private Item readItem() throws IOException {
+		try {
+			return readRecords();
+		} catch (BufferUnderflowException ex) {
+			throw new IOException("the snapshot is truncated at offset " + (windowStart + window.position()), ex);
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			throw new IOException("an item refers to an attribute name that is not in the dictionary", ex);
+		}
+	}
+
+	private Item readRecords() throws IOException {
+		while (true) {
+			long position = windowStart + window.position();
+			if (position == fileSize) {
+				throw new IOException("the snapshot ends without an end record after " + itemCount + " items");
+			}
+
+			//records are small, so a tag and length never need more than 11 bytes
+			ensureMapped(Math.min(11, fileSize - position));
+			byte tag = window.get();
+			long length = readVarint();
+			ensureMapped(length);
+			int end = window.position() + (int) length;
+
+			switch (tag) {
+			case ContactSnapshotWriter.DICTIONARY_RECORD:
+				int code = (int) readVarint();
+				if (code >= attributeNames.length) {
+					attributeNames = Arrays.copyOf(attributeNames, Math.max(code + 1, attributeNames.length * 2));
+				}
+				attributeNames[code] = readString();
+				break;
+			case ContactSnapshotWriter.ITEM_RECORD:
+				String name = readString();
+				int attributeCount = (int) readVarint();
+				List<Attribute> attributes = new ArrayList<Attribute>(attributeCount);
+				for (int i = 0; i < attributeCount; i++) {
+					String attributeName = attributeNames[(int) readVarint()];
+					attributes.add(new Attribute(attributeName, readString()));
+				}
+				checkRecordEnd(end, tag);
+				itemCount++;
+				return new Item(name, attributes);
+			case ContactSnapshotWriter.END_RECORD:
+				long writtenCount = readVarint();
+				if (writtenCount != itemCount) {
+					throw new IOException("the snapshot says it has " + writtenCount + " items but " + itemCount + " were read");
+				}
+				ended = true;
+				return null;
+			default:
+				throw new IOException("unknown record type " + tag + " at offset " + position);
+			}
+			checkRecordEnd(end, tag);
+		}
+	}
+
+	private void checkRecordEnd(int end, byte tag) throws IOException {
+		if (window.position() != end) {
+			throw new IOException("malformed record of type " + (char) tag + " ending at offset " + (windowStart + end));
+		}
+	}
+
+	//make sure the next length bytes are inside the mapped window, moving it forward if needed
+	private void ensureMapped(long length) throws IOException {
+		if (window.remaining() >= length) {
+			return;
+		}
+		long position = windowStart + window.position();
+		if (position + length > fileSize) {
+			throw new IOException("the snapshot is truncated at offset " + position);
+		}
+		map(position);
+		if (window.remaining() < length) {
+			throw new IOException("record at offset " + position + " is larger than the read window");
+		}
+	}
+
+	private void map(long position) throws IOException {
+		windowStart = position;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, fileSize - position));
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = window.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) return value;
+		}
+		throw new IOException("malformed varint at offset " + (windowStart + window.position()));
+	}
+
+	private String readString() throws IOException {
+		int length = (int) readVarint();
+		if (length > window.remaining()) {
+			throw new IOException("string runs past its record at offset " + (windowStart + window.position()));
+		}
+		if (length > stringBuffer.length) {
+			stringBuffer = new byte[Math.max(length, stringBuffer.length * 2)];
+		}
+		window.get(stringBuffer, 0, length);
+		return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,158 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+
+/**
+ * Writes contacts to a snapshot file, a compact binary dump of the
+ * contact domain that ContactSnapshotReader reads back without touching
+ * SimpleDB. The file is a header followed by records:
+ * 		header		"SCSNAP" and a format version byte
+ * 		record		a tag byte, the payload length (varint) and the payload
+ * 		'D' payload	a new attribute name: code (varint), UTF-8 bytes
+ * 		'I' payload	an item: name, attribute count (varint), then per
+ * 					attribute its name code (varint) and value
+ * 		'E' payload	the number of items written (varint); always last
+ * Strings are a varint byte length and UTF-8 bytes. Attribute names are
+ * dictionary encoded: each is written once, in a 'D' record before the
+ * first item that uses it, and items refer to it by code.
+ *
+ * The snapshot is written to a temporary file that replaces the target
+ * only when close() completes, so a failed export never leaves a
+ * truncated snapshot behind.
+ */
+public class ContactSnapshotWriter implements Closeable {
+	static final byte[] MAGIC = "SCSNAP".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final byte DICTIONARY_RECORD = 'D';
+	static final byte ITEM_RECORD = 'I';
+	static final byte END_RECORD = 'E';
+
+	private final File file;
+	private final File tmpFile;
+	private final OutputStream out;
+	private final Map<String,Integer> attributeCodes = new HashMap<String,Integer>();
+	private long itemCount;
+	private boolean closed;
+
+	//the record being built, reused for every record
+	private byte[] payload = new byte[1024];
+	private int payloadLength;
+
+	public ContactSnapshotWriter(File file) throws IOException {
+		this.file = file;
+		this.tmpFile = new File(file.getPath() + ".tmp");
+		this.out = new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16);
+		out.write(MAGIC);
+		out.write(VERSION);
+	}
+
+	/********************************************************************
+	* Append an item
+	*********************************************************************/
+	public void write(Item item) throws IOException {
+		//dictionary entries for attribute names not seen before
+		for (Attribute attribute : item.getAttributes()) {
+			if (!attributeCodes.containsKey(attribute.getName())) {
+				int code = attributeCodes.size();
+				attributeCodes.put(attribute.getName(), code);
+				payloadLength = 0;
+				writeVarint(code);
+				writeString(attribute.getName());
+				writeRecord(DICTIONARY_RECORD);
+			}
+		}
+
+		payloadLength = 0;
+		writeString(item.getName());
+		writeVarint(item.getAttributes().size());
+		for (Attribute attribute : item.getAttributes()) {
+			writeVarint(attributeCodes.get(attribute.getName()));
+			writeString(attribute.getValue());
+		}
+		writeRecord(ITEM_RECORD);
+		itemCount++;
+	}
+
+	public long getItemCount() {
+		return itemCount;
+	}
+
+	/********************************************************************
+	* Write the end record and move the snapshot into place
+	*********************************************************************/
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		payloadLength = 0;
+		writeVarint(itemCount);
+		writeRecord(END_RECORD);
+		out.close();
+
+		if (!tmpFile.renameTo(file)) {
+			file.delete();
+			if (!tmpFile.renameTo(file)) throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/********************************************************************
+	* Close without moving the snapshot into place
+	*********************************************************************/
+	public void abort() {
+		closed = true;
+		try {
+			out.close();
+		} catch (IOException ex) {
+			//the file is discarded anyway
+		}
+		tmpFile.delete();
+	}
+
+	private void writeRecord(byte tag) throws IOException {
+		out.write(tag);
+		//the length is written straight to the stream
+		long length = payloadLength;
+		while ((length & ~0x7FL) != 0) {
+			out.write((int) ((length & 0x7F) | 0x80));
+			length >>>= 7;
+		}
+		out.write((int) length);
+		out.write(payload, 0, payloadLength);
+	}
+
+	private void writeString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(bytes.length);
+		ensureCapacity(payloadLength + bytes.length);
+		System.arraycopy(bytes, 0, payload, payloadLength, bytes.length);
+		payloadLength += bytes.length;
+	}
+
+	//unsigned LEB128: 7 bits per byte, low bits first, high bit set on all but the last byte
+	private void writeVarint(long value) {
+		ensureCapacity(payloadLength + 10);
+		while ((value & ~0x7FL) != 0) {
+			payload[payloadLength++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		payload[payloadLength++] = (byte) value;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > payload.length) {
+			payload = Arrays.copyOf(payload, Math.max(capacity, payload.length * 2));
+		}
+	}
+}
@@ -0,0 +1,75 @@
+import java.util.Collection;
+import java.util.List;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+/**
+ * Storage for contact records. Every implementation follows SimpleDB's
+ * item/attribute semantics:
+ * 		Items are named and hold multi-valued attributes
+ * 		Putting a replace=true attribute replaces every existing value of that name
+ * 		Deleting an attribute without a value removes every value of that name
+ * 		Deleting with no attributes removes the whole item
+ * 		An item with no attributes left no longer exists
+ */
+public interface ContactStore {
+	//most items SimpleDB accepts in one BatchPutAttributes call
+	int MAX_BATCH_PUT_ITEMS = 25;
+
+	/********************************************************************
+	* Make sure the contacts domain exists, creating it if necessary
+	*********************************************************************/
+	void ensureDomainExists();
+
+	/********************************************************************
+	* Get a single contact by item name, or null if it does not exist
+	*********************************************************************/
+	Item getContact(String itemName);
+
+	/********************************************************************
+	* Get a single contact as of the latest write to it (a consistent read
+	* in SimpleDB, and never from a cache), or null if it does not exist
+	*********************************************************************/
+	Item getLatestContact(String itemName);
+
+	/********************************************************************
+	* Get several contacts by item name, in the order given. Contacts that
+	* do not exist are left out.
+	*********************************************************************/
+	List<Item> getContacts(List<String> itemNames);
+
+	/********************************************************************
+	* Get one page of the contacts matching a query. Pass the previous
+	* page's next token (or null for the first page). Use ContactIterator
+	* to walk every page.
+	*********************************************************************/
+	ContactPage select(ContactQuery query, String nextToken);
+
+	/********************************************************************
+	* Create or update attributes of a contact
+	*********************************************************************/
+	void putAttributes(String itemName, Collection<ReplaceableAttribute> attributes);
+
+	/********************************************************************
+	* Create or update attributes of several contacts in one call. At most
+	* MAX_BATCH_PUT_ITEMS contacts, each named at most once
+	*********************************************************************/
+	void batchPutAttributes(List<ReplaceableItem> items);
+
+	/********************************************************************
+	* Create or update attributes of a contact only if its expectedName
+	* attribute currently has expectedValue (or, when expectedValue is
+	* null, has no value at all). Returns false, and changes nothing, if
+	* the condition does not hold
+	*********************************************************************/
+	boolean conditionalPut(String itemName, Collection<ReplaceableAttribute> attributes, String expectedName, String expectedValue);
+
+	/********************************************************************
+	* Delete attributes of a contact (or the whole contact if attributes
+	* is null or empty)
+	*********************************************************************/
+	void deleteAttributes(String itemName, Collection<Attribute> attributes);
+}
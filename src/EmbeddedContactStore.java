@@ -0,0 +1,385 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+/**
+ * In-process contact store kept in memory and persisted to a local file.
+ * Every put/delete is appended to the file as a journal record, and the
+ * journal is replayed (and compacted) when the store is opened, so the
+ * store survives restarts without any AWS access.
+ *
+ * A write is encoded in full before any of it reaches the journal, so a
+ * write that fails part way (eg. a name or value over SimpleDB's 1024
+ * byte limit, which is rejected as it is in SimpleDB) leaves nothing
+ * behind that would break the replay of later records.
+ */
+public class EmbeddedContactStore implements ContactStore {
+	private static final byte PUT_RECORD = 'P';
+	private static final byte DELETE_RECORD = 'D';
+	private static final int PAGE_SIZE = 2500;
+	private static final int MAX_STRING_BYTES = 1024;
+
+	private final File journalFile;
+	private final TreeMap<String, List<Attribute>> items = new TreeMap<String, List<Attribute>>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private DataOutputStream journal;
+
+	//the records of the write in progress (under the write lock), appended to the journal once complete
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream record = new DataOutputStream(recordBuffer);
+
+	public EmbeddedContactStore(File journalFile) {
+		this.journalFile = journalFile;
+	}
+
+	/********************************************************************
+	* Load the contacts from the journal file (if there is one) and open
+	* it for appending
+	*********************************************************************/
+	public void ensureDomainExists() {
+		lock.writeLock().lock();
+		try {
+			if (journal != null) {
+				return;
+			}
+
+			recoverCompactedJournal();
+			if (journalFile.exists()) {
+				replayJournal();
+			}
+
+			//rewrite the journal with one put per live item so it does not grow forever
+			compactJournal();
+			journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not open contact store " + journalFile, ex);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public Item getContact(String itemName) {
+		return readContact(itemName);
+	}
+
+	//every read sees the latest write
+	public Item getLatestContact(String itemName) {
+		return readContact(itemName);
+	}
+
+	private Item readContact(String itemName) {
+		lock.readLock().lock();
+		try {
+			List<Attribute> attributes = items.get(itemName);
+			return attributes == null ? null : ContactAttributes.copy(itemName, attributes);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public List<Item> getContacts(List<String> itemNames) {
+		List<Item> matchingItems = new ArrayList<Item>(itemNames.size());
+
+		lock.readLock().lock();
+		try {
+			for (String itemName : itemNames) {
+				List<Attribute> attributes = items.get(itemName);
+				if (attributes != null) matchingItems.add(ContactAttributes.copy(itemName, attributes));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return matchingItems;
+	}
+
+	/********************************************************************
+	* Items are kept in item name order, so the next token is simply the
+	* name of the last item on the previous page. A full page only gets a
+	* next token if another item matches after it
+	*********************************************************************/
+	public ContactPage select(ContactQuery query, String nextToken) {
+		List<Item> matchingItems = new ArrayList<Item>();
+
+		lock.readLock().lock();
+		try {
+			SortedMap<String, List<Attribute>> remainingItems = nextToken == null ? items : items.tailMap(nextToken + "\0");
+			for (Map.Entry<String, List<Attribute>> entry : remainingItems.entrySet()) {
+				Item item = ContactAttributes.copy(entry.getKey(), entry.getValue());
+				if (query.matches(item)) {
+					if (matchingItems.size() == PAGE_SIZE) {
+						return new ContactPage(matchingItems, matchingItems.get(PAGE_SIZE - 1).getName());
+					}
+					matchingItems.add(item);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return new ContactPage(matchingItems, null);
+	}
+
+	public void putAttributes(String itemName, Collection<ReplaceableAttribute> attributes) {
+		lock.writeLock().lock();
+		try {
+			//journal first, so memory never holds a change the file does not
+			recordBuffer.reset();
+			encodePut(itemName, attributes);
+			appendRecords();
+			applyPut(itemName, attributes);
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not write to contact store " + journalFile, ex);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean conditionalPut(String itemName, Collection<ReplaceableAttribute> attributes, String expectedName, String expectedValue) {
+		lock.writeLock().lock();
+		try {
+			//find the current value (a multi-valued attribute never matches, as in SimpleDB)
+			String currentValue = null;
+			int valueCount = 0;
+			List<Attribute> currentAttributes = items.get(itemName);
+			if (currentAttributes != null) {
+				for (Attribute attribute : currentAttributes) {
+					if (attribute.getName().equals(expectedName)) {
+						currentValue = attribute.getValue();
+						valueCount++;
+					}
+				}
+			}
+			boolean holds = expectedValue == null ? valueCount == 0 : valueCount == 1 && expectedValue.equals(currentValue);
+			if (!holds) {
+				return false;
+			}
+
+			recordBuffer.reset();
+			encodePut(itemName, attributes);
+			appendRecords();
+			applyPut(itemName, attributes);
+			return true;
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not write to contact store " + journalFile, ex);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void batchPutAttributes(List<ReplaceableItem> batch) {
+		lock.writeLock().lock();
+		try {
+			//the whole batch is journaled, with one flush, or none of it is
+			recordBuffer.reset();
+			for (ReplaceableItem item : batch) {
+				encodePut(item.getName(), item.getAttributes());
+			}
+			appendRecords();
+			for (ReplaceableItem item : batch) {
+				applyPut(item.getName(), item.getAttributes());
+			}
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not write to contact store " + journalFile, ex);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void encodePut(String itemName, Collection<ReplaceableAttribute> attributes) throws IOException {
+		record.writeByte(PUT_RECORD);
+		writeString(itemName);
+		record.writeInt(attributes.size());
+		for (ReplaceableAttribute attribute : attributes) {
+			writeString(attribute.getName());
+			writeString(attribute.getValue());
+			record.writeBoolean(Boolean.TRUE.equals(attribute.getReplace()));
+		}
+	}
+
+	private void writeString(String value) throws IOException {
+		if (value == null) {
+			throw new IllegalArgumentException("Item names, attribute names and values may not be null");
+		}
+		//each char is at most 3 bytes, so only long strings need measuring
+		if (value.length() > MAX_STRING_BYTES / 3 && value.getBytes(StandardCharsets.UTF_8).length > MAX_STRING_BYTES) {
+			throw new IllegalArgumentException("Value is longer than " + MAX_STRING_BYTES + " bytes: " + value.substring(0, 32) + "...");
+		}
+		record.writeUTF(value);
+	}
+
+	//append the encoded records to the journal, and flush them
+	private void appendRecords() throws IOException {
+		recordBuffer.writeTo(journal);
+		journal.flush();
+	}
+
+	public void deleteAttributes(String itemName, Collection<Attribute> attributes) {
+		lock.writeLock().lock();
+		try {
+			//journal the delete. a value flag distinguishes "delete this value" from "delete all values"
+			recordBuffer.reset();
+			record.writeByte(DELETE_RECORD);
+			writeString(itemName);
+			record.writeInt(attributes == null ? 0 : attributes.size());
+			if (attributes != null) {
+				for (Attribute attribute : attributes) {
+					writeString(attribute.getName());
+					record.writeBoolean(attribute.getValue() != null);
+					if (attribute.getValue() != null) writeString(attribute.getValue());
+				}
+			}
+			appendRecords();
+			applyDelete(itemName, attributes);
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not write to contact store " + journalFile, ex);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/********************************************************************
+	* Flush and close the journal
+	*********************************************************************/
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void applyPut(String itemName, Collection<ReplaceableAttribute> attributes) {
+		List<Attribute> existingAttributes = items.get(itemName);
+		if (existingAttributes == null) {
+			existingAttributes = new ArrayList<Attribute>();
+			items.put(itemName, existingAttributes);
+		}
+		ContactAttributes.applyPut(existingAttributes, attributes);
+	}
+
+	private void applyDelete(String itemName, Collection<Attribute> attributes) {
+		List<Attribute> existingAttributes = items.get(itemName);
+		if (existingAttributes == null) {
+			return;
+		}
+
+		if (attributes == null || attributes.size() == 0) {
+			items.remove(itemName);
+		} else {
+			ContactAttributes.applyDelete(existingAttributes, attributes);
+
+			//an item without attributes does not exist
+			if (existingAttributes.size() == 0) items.remove(itemName);
+		}
+	}
+
+	private void replayJournal() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+		try {
+			while (true) {
+				byte recordType;
+				try {
+					recordType = in.readByte();
+				} catch (EOFException ex) {
+					break;
+				}
+
+				String itemName = in.readUTF();
+				int attributeCount = in.readInt();
+
+				if (recordType == PUT_RECORD) {
+					List<ReplaceableAttribute> attributes = new ArrayList<ReplaceableAttribute>(attributeCount);
+					for (int i = 0; i < attributeCount; i++) {
+						attributes.add(new ReplaceableAttribute(in.readUTF(), in.readUTF(), in.readBoolean()));
+					}
+					applyPut(itemName, attributes);
+				} else if (recordType == DELETE_RECORD) {
+					List<Attribute> attributes = new ArrayList<Attribute>(attributeCount);
+					for (int i = 0; i < attributeCount; i++) {
+						String name = in.readUTF();
+						attributes.add(new Attribute(name, in.readBoolean() ? in.readUTF() : null));
+					}
+					applyDelete(itemName, attributes);
+				} else {
+					throw new IOException("Corrupt contact store " + journalFile + ": unknown record type " + recordType);
+				}
+			}
+		} catch (EOFException ex) {
+			//a record cut short by a crash mid-write. everything before it was replayed
+			System.out.println("Ignoring incomplete record at the end of " + journalFile);
+		} finally {
+			in.close();
+		}
+	}
+
+	private File compactedFile() {
+		return new File(journalFile.getPath() + ".tmp");
+	}
+
+	private void compactJournal() throws IOException {
+		File compactedFile = compactedFile();
+		FileOutputStream file = new FileOutputStream(compactedFile);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+		try {
+			for (Map.Entry<String, List<Attribute>> entry : items.entrySet()) {
+				out.writeByte(PUT_RECORD);
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().size());
+				for (Attribute attribute : entry.getValue()) {
+					out.writeUTF(attribute.getName());
+					out.writeUTF(attribute.getValue());
+					out.writeBoolean(false);
+				}
+			}
+			out.flush();
+			file.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		//swap the compacted journal in atomically, so a crash leaves either the old or the new journal
+		Files.move(compactedFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	//a compacted journal left by a crash: complete (it is synced before the move) if the journal is gone,
+	//otherwise the journal was never replaced and is still the one to use
+	private void recoverCompactedJournal() throws IOException {
+		File compactedFile = compactedFile();
+		if (!compactedFile.exists()) {
+			return;
+		}
+		if (journalFile.exists()) {
+			Files.delete(compactedFile.toPath());
+		} else {
+			Files.move(compactedFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+import java.util.Arrays;
+
+/**
+ * Inverted index for exact-match searches on a single-valued attribute
+ * such as State or Zip. Each distinct value is dictionary-encoded to a
+ * small int code through an open-addressing hash table, and each code
+ * has a primitive int posting list of contact ordinals. Per contact the
+ * index only stores its code and its position in that posting list, so
+ * adds, removes and lookups are all constant time and nothing is boxed.
+ *
+ * A contact has at most one value per index; adding a second value
+ * replaces the first.
+ *
+ * Not thread-safe; IndexedContactStore guards it with its lock.
+ */
+public class EqualityIndex {
+	private static final int NO_CODE = -1;
+	private static final int[] NO_ORDINALS = new int[0];
+
+	//dictionary: open-addressing hash table from value to code
+	private String[] slotValues = new String[64];
+	private int[] slotCodes = new int[64];
+	private int valueCount;
+
+	//posting lists by code
+	private int[][] postings = new int[16][];
+	private int[] postingSizes = new int[16];
+
+	//per-ordinal code and position in its posting list
+	private int[] codesByOrdinal = new int[0];
+	private int[] positionsByOrdinal = new int[0];
+
+	/********************************************************************
+	* Set a contact's value
+	*********************************************************************/
+	public void add(String value, int ordinal) {
+		remove(ordinal);
+
+		int code = encode(value, true);
+		ensureOrdinalCapacity(ordinal + 1);
+
+		//append to the posting list
+		int[] posting = postings[code];
+		int size = postingSizes[code];
+		if (posting == null) {
+			posting = new int[4];
+		} else if (size == posting.length) {
+			posting = Arrays.copyOf(posting, size * 2);
+		}
+		posting[size] = ordinal;
+		postings[code] = posting;
+		postingSizes[code] = size + 1;
+
+		codesByOrdinal[ordinal] = code;
+		positionsByOrdinal[ordinal] = size;
+	}
+
+	/********************************************************************
+	* Remove a contact's value (if it has one)
+	*********************************************************************/
+	public void remove(int ordinal) {
+		if (ordinal >= codesByOrdinal.length || codesByOrdinal[ordinal] == NO_CODE) {
+			return;
+		}
+
+		int code = codesByOrdinal[ordinal];
+		int position = positionsByOrdinal[ordinal];
+		int[] posting = postings[code];
+		int last = --postingSizes[code];
+
+		//move the last ordinal into the removed one's slot
+		int movedOrdinal = posting[last];
+		posting[position] = movedOrdinal;
+		positionsByOrdinal[movedOrdinal] = position;
+
+		codesByOrdinal[ordinal] = NO_CODE;
+	}
+
+	/********************************************************************
+	* Number of contacts with a value
+	*********************************************************************/
+	public int count(String value) {
+		int code = encode(value, false);
+		return code == NO_CODE ? 0 : postingSizes[code];
+	}
+
+	/********************************************************************
+	* Ordinals of the contacts with a value, skipping the first offset and
+	* returning at most limit
+	*********************************************************************/
+	public int[] slice(String value, int offset, int limit) {
+		int code = encode(value, false);
+		if (code == NO_CODE) {
+			return NO_ORDINALS;
+		}
+
+		int from = Math.min(postingSizes[code], offset);
+		int to = Math.min(postingSizes[code], from + limit);
+		return Arrays.copyOfRange(postings[code], from, to);
+	}
+
+	/********************************************************************
+	* Number of distinct values seen
+	*********************************************************************/
+	public int distinctValues() {
+		return valueCount;
+	}
+
+	//look a value's code up in the dictionary, optionally adding it
+	private int encode(String value, boolean addIfMissing) {
+		int mask = slotValues.length - 1;
+		int slot = mix(value.hashCode()) & mask;
+
+		//linear probing
+		while (slotValues[slot] != null) {
+			if (slotValues[slot].equals(value)) {
+				return slotCodes[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (!addIfMissing) {
+			return NO_CODE;
+		}
+
+		int code = valueCount++;
+		slotValues[slot] = value;
+		slotCodes[slot] = code;
+
+		if (code == postings.length) {
+			postings = Arrays.copyOf(postings, code * 2);
+			postingSizes = Arrays.copyOf(postingSizes, code * 2);
+		}
+
+		//keep the table at most half full
+		if (valueCount * 2 > slotValues.length) rehash();
+		return code;
+	}
+
+	private void rehash() {
+		String[] oldSlotValues = slotValues;
+		int[] oldSlotCodes = slotCodes;
+		slotValues = new String[oldSlotValues.length * 2];
+		slotCodes = new int[oldSlotValues.length * 2];
+
+		int mask = slotValues.length - 1;
+		for (int i = 0; i < oldSlotValues.length; i++) {
+			if (oldSlotValues[i] == null) continue;
+			int slot = mix(oldSlotValues[i].hashCode()) & mask;
+			while (slotValues[slot] != null) slot = (slot + 1) & mask;
+			slotValues[slot] = oldSlotValues[i];
+			slotCodes[slot] = oldSlotCodes[i];
+		}
+	}
+
+	//spread String.hashCode's low bits, which are weak for short numeric strings like zip codes
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private void ensureOrdinalCapacity(int capacity) {
+		if (capacity > codesByOrdinal.length) {
+			int oldLength = codesByOrdinal.length;
+			int newLength = Math.max(capacity, oldLength * 2 + 64);
+			codesByOrdinal = Arrays.copyOf(codesByOrdinal, newLength);
+			positionsByOrdinal = Arrays.copyOf(positionsByOrdinal, newLength);
+			Arrays.fill(codesByOrdinal, oldLength, newLength, NO_CODE);
+		}
+	}
+}
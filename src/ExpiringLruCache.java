@@ -0,0 +1,169 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded LRU map whose entries expire a fixed time after they are
+ * stored. Values are treated as immutable: update() replaces a value
+ * rather than changing it, so a value can be used outside the lock.
+ *
+ * Every key has a generation that each write or invalidation bumps. A
+ * read-through cache takes the key's generation before loading a value
+ * and stores it with putIfUnchanged(), which drops it if the key was
+ * written meanwhile, so a slow read can never cache a value older than a
+ * write that finished before it. Generations are kept on a fixed number
+ * of stripes rather than per key, so they take no memory per key; an
+ * unrelated write to the same stripe only means a read is not cached.
+ */
+public class ExpiringLruCache<V> {
+	private static final int GENERATION_STRIPES = 1024;
+
+	/**
+	 * Turns a cached value into its replacement, or null to evict it
+	 */
+	public interface Update<V> {
+		V apply(V value);
+	}
+
+	private final Map<String, CacheEntry<V>> entries;
+	private final long ttlNanos;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+	public ExpiringLruCache(final int maxEntries, long ttl, TimeUnit ttlUnit) {
+		this.ttlNanos = ttlUnit.toNanos(ttl);
+
+		//access-ordered map that evicts its least recently used entry once full
+		this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/********************************************************************
+	* Get a key's value, or null if it is not cached or has expired
+	*********************************************************************/
+	public V get(String key) {
+		lock.lock();
+		try {
+			CacheEntry<V> entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (System.nanoTime() - entry.storedAt < ttlNanos) {
+				return entry.value;
+			}
+			entries.remove(key);
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/********************************************************************
+	* Get a key's generation, to take before loading its value
+	*********************************************************************/
+	public long generation(String key) {
+		return generations.get(stripeOf(key));
+	}
+
+	/********************************************************************
+	* Cache a loaded value, unless the key was written or invalidated
+	* since its generation was taken. Returns whether it was cached
+	*********************************************************************/
+	public boolean putIfUnchanged(String key, V value, long generation) {
+		lock.lock();
+		try {
+			if (generations.get(stripeOf(key)) != generation) {
+				return false;
+			}
+			entries.put(key, new CacheEntry<V>(value));
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/********************************************************************
+	* Cache the value just written under a key
+	*********************************************************************/
+	public void put(String key, V value) {
+		lock.lock();
+		try {
+			generations.incrementAndGet(stripeOf(key));
+			entries.put(key, new CacheEntry<V>(value));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/********************************************************************
+	* Record a write to a key, replacing its cached value (if there is one
+	* that has not expired) with what the update makes of it. The entry
+	* keeps its original expiry
+	*********************************************************************/
+	public void update(String key, Update<V> update) {
+		lock.lock();
+		try {
+			generations.incrementAndGet(stripeOf(key));
+			CacheEntry<V> entry = entries.get(key);
+			if (entry == null) {
+				return;
+			}
+			V value = System.nanoTime() - entry.storedAt < ttlNanos ? update.apply(entry.value) : null;
+			if (value == null) {
+				entries.remove(key);
+			} else {
+				entries.put(key, new CacheEntry<V>(value, entry.storedAt));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/********************************************************************
+	* Drop a key, and stop any read in progress from caching it
+	*********************************************************************/
+	public void invalidate(String key) {
+		lock.lock();
+		try {
+			generations.incrementAndGet(stripeOf(key));
+			entries.remove(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static int stripeOf(String key) {
+		return (key.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+	}
+
+	private static class CacheEntry<V> {
+		private final V value;
+		private final long storedAt;
+
+		private CacheEntry(V value) {
+			this(value, System.nanoTime());
+		}
+
+		private CacheEntry(V value, long storedAt) {
+			this.value = value;
+			this.storedAt = storedAt;
+		}
+	}
+}
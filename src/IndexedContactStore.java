@@ -0,0 +1,529 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+/**
+ * Contact store that answers searches from local in-memory indexes and
+ * only goes to the underlying store to fetch the matching contacts:
+ * 		First/Last name "starts with" (sorted prefix index)
+ * 		Tags, including AND/OR/NOT tag expressions (compressed bitmaps)
+ * 		Birthday before/between/after (sorted epoch-day index); birthdays
+ * 			that are not a recognizable date are not indexed
+ * 		State and Zip equals (dictionary-encoded inverted indexes)
+ *
+ * Contacts are numbered with dense ordinals (reused after deletes) so
+ * the bitmap indexes stay small.
+ * The indexes are built from a full scan when the domain is opened and
+ * kept in sync with every put/delete made through this store. Writes
+ * made by other processes are picked up the next time it is opened.
+ * The scan runs without the lock: writes made through this store while
+ * it runs are noted, those contacts are read again, and only then are
+ * the new indexes swapped in.
+ */
+public class IndexedContactStore implements ContactStore {
+	//contacts fetched from the underlying store per page of indexed results
+	private static final int PAGE_SIZE = 100;
+
+	//passes re-reading the contacts written during a scan before the last pass is done under the lock
+	private static final int MAX_CATCH_UP_PASSES = 3;
+
+	//attributes the indexes need; only these are tracked per contact
+	private static final List<String> INDEXED_ATTRIBUTES = Arrays.asList(SimpleContacts.FIRST_KEY, SimpleContacts.LAST_KEY,
+			SimpleContacts.TAG_KEY, SimpleContacts.BIRTHDAY_KEY, SimpleContacts.STATE_KEY, SimpleContacts.ZIP_KEY);
+
+	private final ContactStore delegate;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	//the indexes. not final, as a rebuild swaps in new ones (see swapIn)
+	private Map<String, List<Attribute>> indexedAttributes = new HashMap<String, List<Attribute>>();
+	private PrefixIndex firstNames = new PrefixIndex();
+	private PrefixIndex lastNames = new PrefixIndex();
+	private TagIndex tags = new TagIndex();
+	private BirthdayIndex birthdays = new BirthdayIndex();
+	private EqualityIndex states = new EqualityIndex();
+	private EqualityIndex zips = new EqualityIndex();
+
+	//dense contact ordinals
+	private Map<String, Integer> ordinals = new HashMap<String, Integer>();
+	private CompressedBitmap allOrdinals = new CompressedBitmap();
+	private String[] itemNamesByOrdinal = new String[1024];
+	private int[] freeOrdinals = new int[64];
+	private int freeOrdinalCount;
+	private int nextOrdinal;
+
+	//contacts written while the indexes are being rebuilt, or null when they are not
+	private Set<String> changedDuringBuild;
+
+	public IndexedContactStore(ContactStore delegate) {
+		this.delegate = delegate;
+	}
+
+	/********************************************************************
+	* Open the underlying store and build the indexes from a full scan,
+	* while searches keep using the current indexes and writes go ahead
+	*********************************************************************/
+	public void ensureDomainExists() {
+		delegate.ensureDomainExists();
+
+		lock.writeLock().lock();
+		try {
+			changedDuringBuild = new HashSet<String>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		//only this thread uses the new indexes until they are swapped in
+		IndexedContactStore built = new IndexedContactStore(delegate);
+		built.load();
+
+		for (int pass = 1; ; pass++) {
+			List<String> changed;
+			lock.writeLock().lock();
+			try {
+				changed = new ArrayList<String>(changedDuringBuild);
+				if (changed.isEmpty() || pass > MAX_CATCH_UP_PASSES) {
+					//still busy after a few passes: read the last few contacts under the lock so it ends
+					built.reload(changed);
+					swapIn(built);
+					changedDuringBuild = null;
+					return;
+				}
+				changedDuringBuild.clear();
+			} finally {
+				lock.writeLock().unlock();
+			}
+
+			//a contact written after it is read here is noted again for the next pass
+			built.reload(changed);
+		}
+	}
+
+	//index every contact. only called on a store no other thread uses yet
+	private void load() {
+		firstNames.startBulkLoad();
+		lastNames.startBulkLoad();
+		birthdays.startBulkLoad();
+
+		Iterator<Item> allContacts = new ContactIterator(delegate, ContactQuery.all());
+		while (allContacts.hasNext()) {
+			Item item = allContacts.next();
+			List<Attribute> attributes = indexedAttributesOf(item);
+			indexedAttributes.put(item.getName(), attributes);
+			addToIndexes(item.getName(), attributes);
+		}
+
+		//sort now so lookups under the read lock never modify the indexes
+		firstNames.finishBulkLoad();
+		lastNames.finishBulkLoad();
+		birthdays.finishBulkLoad();
+	}
+
+	//read some contacts again and reindex them (or drop them, if they are gone)
+	private void reload(List<String> itemNames) {
+		if (itemNames.isEmpty()) {
+			return;
+		}
+
+		Map<String, List<Attribute>> current = new HashMap<String, List<Attribute>>();
+		for (Item item : delegate.getContacts(itemNames)) {
+			current.put(item.getName(), indexedAttributesOf(item));
+		}
+		for (String itemName : itemNames) {
+			reindex(itemName, indexedAttributes.get(itemName), current.get(itemName));
+		}
+	}
+
+	//take over another store's indexes. caller holds the write lock
+	private void swapIn(IndexedContactStore built) {
+		indexedAttributes = built.indexedAttributes;
+		firstNames = built.firstNames;
+		lastNames = built.lastNames;
+		tags = built.tags;
+		birthdays = built.birthdays;
+		states = built.states;
+		zips = built.zips;
+		ordinals = built.ordinals;
+		allOrdinals = built.allOrdinals;
+		itemNamesByOrdinal = built.itemNamesByOrdinal;
+		freeOrdinals = built.freeOrdinals;
+		freeOrdinalCount = built.freeOrdinalCount;
+		nextOrdinal = built.nextOrdinal;
+	}
+
+	private static List<Attribute> indexedAttributesOf(Item item) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		for (Attribute attribute : item.getAttributes()) {
+			if (INDEXED_ATTRIBUTES.contains(attribute.getName())) attributes.add(attribute);
+		}
+		return attributes;
+	}
+
+	public Item getContact(String itemName) {
+		return delegate.getContact(itemName);
+	}
+
+	public Item getLatestContact(String itemName) {
+		return delegate.getLatestContact(itemName);
+	}
+
+	public List<Item> getContacts(List<String> itemNames) {
+		return delegate.getContacts(itemNames);
+	}
+
+	/********************************************************************
+	* Answer indexed searches locally. The next token is the number of
+	* matches already returned.
+	*********************************************************************/
+	public ContactPage select(ContactQuery query, String nextToken) {
+		if (!isIndexed(query)) {
+			return delegate.select(query, nextToken);
+		}
+
+		int offset = offsetOf(nextToken);
+		List<String> itemNames;
+		int matchCount;
+
+		lock.readLock().lock();
+		try {
+			switch (query.getType()) {
+			case FIRST_STARTS_WITH:
+			case LAST_STARTS_WITH:
+				PrefixIndex index = query.getType() == ContactQuery.Type.FIRST_STARTS_WITH ? firstNames : lastNames;
+				String prefix = query.getValues().get(0);
+				itemNames = index.startsWith(prefix, offset, PAGE_SIZE);
+				matchCount = index.count(prefix);
+				break;
+			case BIRTHDAY_BEFORE:
+			case BIRTHDAY_BETWEEN:
+			case BIRTHDAY_AFTER:
+				int[] range = birthdayRange(query);
+				itemNames = itemNamesOf(birthdays.slice(range[0], range[1], offset, PAGE_SIZE));
+				matchCount = Math.max(0, range[1] - range[0]);
+				break;
+			case STATE_EQUALS:
+			case ZIP_EQUALS:
+				EqualityIndex equalityIndex = query.getType() == ContactQuery.Type.STATE_EQUALS ? states : zips;
+				String value = query.getValues().get(0);
+				itemNames = itemNamesOf(equalityIndex.slice(value, offset, PAGE_SIZE));
+				matchCount = equalityIndex.count(value);
+				break;
+			default:
+				CompressedBitmap matches = evaluate(query);
+				itemNames = itemNamesOf(matches.toArray(offset, PAGE_SIZE));
+				matchCount = matches.cardinality();
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		int nextOffset = offset + itemNames.size();
+		return new ContactPage(delegate.getContacts(itemNames), nextOffset < matchCount ? String.valueOf(nextOffset) : null);
+	}
+
+	/********************************************************************
+	* Type-ahead lookup: up to limit distinct first or last names starting
+	* with a prefix, straight from the index
+	*********************************************************************/
+	public List<String> completeName(String attributeName, String prefix, int limit) {
+		PrefixIndex index = SimpleContacts.LAST_KEY.equals(attributeName) ? lastNames : firstNames;
+		List<String> names = new ArrayList<String>(limit);
+
+		lock.readLock().lock();
+		try {
+			//ask for extra values since several contacts can share a name
+			int requested = limit;
+			while (true) {
+				names.clear();
+				List<String> values = index.valuesStartingWith(prefix, requested);
+				for (String value : values) {
+					if (names.size() == limit) break;
+					if (names.size() == 0 || !names.get(names.size() - 1).equals(value)) names.add(value);
+				}
+				if (names.size() == limit || values.size() < requested) break;
+				requested = requested * 4;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return names;
+	}
+
+	public void putAttributes(String itemName, Collection<ReplaceableAttribute> attributes) {
+		delegate.putAttributes(itemName, attributes);
+
+		lock.writeLock().lock();
+		try {
+			applyIndexedPut(itemName, attributes);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean conditionalPut(String itemName, Collection<ReplaceableAttribute> attributes, String expectedName, String expectedValue) {
+		if (!delegate.conditionalPut(itemName, attributes, expectedName, expectedValue)) {
+			return false;
+		}
+
+		lock.writeLock().lock();
+		try {
+			applyIndexedPut(itemName, attributes);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return true;
+	}
+
+	public void batchPutAttributes(List<ReplaceableItem> items) {
+		delegate.batchPutAttributes(items);
+
+		lock.writeLock().lock();
+		try {
+			for (ReplaceableItem item : items) {
+				applyIndexedPut(item.getName(), item.getAttributes());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	//the caller holds the write lock
+	private void applyIndexedPut(String itemName, Collection<ReplaceableAttribute> attributes) {
+		if (changedDuringBuild != null) changedDuringBuild.add(itemName);
+
+		//only the indexed attributes matter here
+		List<ReplaceableAttribute> indexedPuts = new ArrayList<ReplaceableAttribute>();
+		for (ReplaceableAttribute attribute : attributes) {
+			if (INDEXED_ATTRIBUTES.contains(attribute.getName())) indexedPuts.add(attribute);
+		}
+
+		List<Attribute> oldAttributes = indexedAttributes.get(itemName);
+		List<Attribute> newAttributes = oldAttributes == null ? new ArrayList<Attribute>() : new ArrayList<Attribute>(oldAttributes);
+		ContactAttributes.applyPut(newAttributes, indexedPuts);
+		reindex(itemName, oldAttributes, newAttributes);
+	}
+
+	public void deleteAttributes(String itemName, Collection<Attribute> attributes) {
+		delegate.deleteAttributes(itemName, attributes);
+
+		lock.writeLock().lock();
+		try {
+			if (changedDuringBuild != null) changedDuringBuild.add(itemName);
+			List<Attribute> oldAttributes = indexedAttributes.get(itemName);
+			if (oldAttributes == null) {
+				return;
+			}
+
+			//deleting with no attributes removes the whole contact
+			List<Attribute> newAttributes = null;
+			if (attributes != null && attributes.size() > 0) {
+				newAttributes = new ArrayList<Attribute>(oldAttributes);
+				ContactAttributes.applyDelete(newAttributes, attributes);
+			}
+			reindex(itemName, oldAttributes, newAttributes);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.readLock().lock();
+		try {
+			return "Contact indexes: " + indexedAttributes.size() + " contacts, " + tags.tagCount() + " tags, "
+					+ states.distinctValues() + " states, " + zips.distinctValues() + " zip codes\n" + delegate;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static boolean isIndexed(ContactQuery query) {
+		switch (query.getType()) {
+		case FIRST_STARTS_WITH:
+		case LAST_STARTS_WITH:
+		case STATE_EQUALS:
+		case ZIP_EQUALS:
+		case HAS_TAGS:
+		case TAG_EXPRESSION:
+			return true;
+		case BIRTHDAY_BEFORE:
+		case BIRTHDAY_BETWEEN:
+		case BIRTHDAY_AFTER:
+			//only dates we can parse can be looked up in the index
+			for (String date : query.getValues()) {
+				if (Birthdays.toEpochDay(date) == Birthdays.UNPARSEABLE) return false;
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	//the offset an indexed search's next token holds. tokens come from clients (eg. the HTTP API), so a bad one is rejected
+	private static int offsetOf(String nextToken) {
+		if (nextToken == null) {
+			return 0;
+		}
+		try {
+			int offset = Integer.parseInt(nextToken);
+			if (offset >= 0) {
+				return offset;
+			}
+		} catch (NumberFormatException ex) {
+			//reported below
+		}
+		throw new IllegalArgumentException("\"" + nextToken + "\" is not a valid next token");
+	}
+
+	//the [start, end) positions in the birthday index matching a range query (both bounds are exclusive dates)
+	private int[] birthdayRange(ContactQuery query) {
+		List<String> dates = query.getValues();
+		switch (query.getType()) {
+		case BIRTHDAY_BEFORE:
+			return new int[] { 0, birthdays.lowerBound(Birthdays.toEpochDay(dates.get(0))) };
+		case BIRTHDAY_BETWEEN:
+			return new int[] { birthdays.upperBound(Birthdays.toEpochDay(dates.get(0))), birthdays.lowerBound(Birthdays.toEpochDay(dates.get(1))) };
+		default:
+			return new int[] { birthdays.upperBound(Birthdays.toEpochDay(dates.get(0))), birthdays.size() };
+		}
+	}
+
+	//evaluate a bitmap-indexed query. caller holds the read lock
+	private CompressedBitmap evaluate(ContactQuery query) {
+		switch (query.getType()) {
+		case HAS_TAGS:
+			CompressedBitmap result = allOrdinals;
+			for (String tag : query.getValues()) {
+				result = result.and(tags.get(tag));
+			}
+			return result;
+		case TAG_EXPRESSION:
+			return evaluateTagExpression(query.getValues());
+		default:
+			throw new IllegalArgumentException("Not a bitmap-indexed query: " + query);
+		}
+	}
+
+	//AND together the positive terms, then AND NOT each negated term
+	private CompressedBitmap evaluateTagExpression(List<String> terms) {
+		CompressedBitmap result = null;
+		for (String term : terms) {
+			if (ContactQuery.isNegatedTerm(term)) continue;
+			CompressedBitmap termMatches = tags.any(ContactQuery.termTags(term));
+			result = result == null ? termMatches : result.and(termMatches);
+		}
+
+		//only negated terms: start from every contact
+		if (result == null) result = allOrdinals;
+
+		for (String term : terms) {
+			if (ContactQuery.isNegatedTerm(term)) result = result.andNot(tags.any(ContactQuery.termTags(term)));
+		}
+		return result;
+	}
+
+	private List<String> itemNamesOf(int[] matchingOrdinals) {
+		List<String> itemNames = new ArrayList<String>(matchingOrdinals.length);
+		for (int ordinal : matchingOrdinals) {
+			itemNames.add(itemNamesByOrdinal[ordinal]);
+		}
+		return itemNames;
+	}
+
+	//swap an item's old index entries for new ones (null when the contact was deleted). caller holds the write lock
+	private void reindex(String itemName, List<Attribute> oldAttributes, List<Attribute> newAttributes) {
+		if (oldAttributes != null) {
+			int ordinal = ordinals.get(itemName);
+			for (Attribute attribute : oldAttributes) {
+				switch (ContactCodec.slotOf(attribute.getName())) {
+				case ContactCodec.FIRST: firstNames.remove(attribute.getValue(), itemName); break;
+				case ContactCodec.LAST: lastNames.remove(attribute.getValue(), itemName); break;
+				case ContactCodec.TAG:
+					for (String tag : ContactAttributes.parseTags(attribute.getValue())) tags.remove(tag, ordinal);
+					break;
+				case ContactCodec.BIRTHDAY:
+					int epochDay = Birthdays.toEpochDay(attribute.getValue());
+					if (epochDay != Birthdays.UNPARSEABLE) birthdays.remove(epochDay, ordinal);
+					break;
+				case ContactCodec.STATE: states.remove(ordinal); break;
+				case ContactCodec.ZIP: zips.remove(ordinal); break;
+				default:
+					//not indexed
+				}
+			}
+		}
+
+		if (newAttributes == null) {
+			indexedAttributes.remove(itemName);
+			releaseOrdinal(itemName);
+			return;
+		}
+
+		indexedAttributes.put(itemName, newAttributes);
+		addToIndexes(itemName, newAttributes);
+	}
+
+	private void addToIndexes(String itemName, List<Attribute> attributes) {
+		int ordinal = assignOrdinal(itemName);
+		for (Attribute attribute : attributes) {
+			switch (ContactCodec.slotOf(attribute.getName())) {
+			case ContactCodec.FIRST: firstNames.add(attribute.getValue(), itemName); break;
+			case ContactCodec.LAST: lastNames.add(attribute.getValue(), itemName); break;
+			case ContactCodec.TAG:
+				for (String tag : ContactAttributes.parseTags(attribute.getValue())) tags.add(tag, ordinal);
+				break;
+			case ContactCodec.BIRTHDAY:
+				int epochDay = Birthdays.toEpochDay(attribute.getValue());
+				if (epochDay != Birthdays.UNPARSEABLE) birthdays.add(epochDay, ordinal);
+				break;
+			case ContactCodec.STATE: states.add(attribute.getValue(), ordinal); break;
+			case ContactCodec.ZIP: zips.add(attribute.getValue(), ordinal); break;
+			default:
+				//not indexed
+			}
+		}
+	}
+
+	//get an item's ordinal, handing out a free one if it has none yet
+	private int assignOrdinal(String itemName) {
+		Integer existingOrdinal = ordinals.get(itemName);
+		if (existingOrdinal != null) {
+			return existingOrdinal;
+		}
+
+		int ordinal = freeOrdinalCount > 0 ? freeOrdinals[--freeOrdinalCount] : nextOrdinal++;
+		if (ordinal == itemNamesByOrdinal.length) {
+			itemNamesByOrdinal = Arrays.copyOf(itemNamesByOrdinal, ordinal * 2);
+		}
+		itemNamesByOrdinal[ordinal] = itemName;
+		ordinals.put(itemName, ordinal);
+		allOrdinals.set(ordinal);
+		return ordinal;
+	}
+
+	private void releaseOrdinal(String itemName) {
+		Integer ordinal = ordinals.remove(itemName);
+		if (ordinal == null) {
+			return;
+		}
+
+		itemNamesByOrdinal[ordinal] = null;
+		allOrdinals.clear(ordinal);
+		if (freeOrdinalCount == freeOrdinals.length) {
+			freeOrdinals = Arrays.copyOf(freeOrdinals, freeOrdinalCount * 2);
+		}
+		freeOrdinals[freeOrdinalCount++] = ordinal;
+	}
+}
@@ -0,0 +1,210 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+
+/**
+ * Coalesces messages about the same key (a contact's item id) so only the
+ * newest state is worked on. The first message for a key is held for the
+ * coalescing window; every message for the key that arrives during the
+ * window, or while the key's previous message is still being worked on,
+ * either replaces the held message (if it was sent later) or is dropped.
+ * Dropped messages are handed back to be acknowledged (deleted, in
+ * batches) without being worked on.
+ *
+ * Messages without a key are dispatched straight away.
+ */
+public class MessageCoalescer {
+	/**
+	 * Gets the coalescing key of a message, or null if it should not be
+	 * coalesced.
+	 */
+	public interface KeyFunction {
+		String keyOf(Message message);
+	}
+
+	/**
+	 * Receives the coalescer's output. whenDone must be run once the
+	 * dispatched message has been worked on (successfully or not).
+	 */
+	public interface Dispatcher {
+		void dispatch(Message message, Runnable whenDone);
+		void supersede(Message message);
+	}
+
+	private static final Runnable NOTHING = new Runnable() {
+		public void run() {
+		}
+	};
+
+	private static class Slot {
+		Message newest;
+		long newestSentAt;
+		boolean inFlight;
+		boolean flushScheduled;
+	}
+
+	private final KeyFunction keyFunction;
+	private final Dispatcher dispatcher;
+	private final long windowMillis;
+	private final Map<String,Slot> slots = new HashMap<String,Slot>();
+	private final ScheduledExecutorService flusher;
+	private boolean closing;
+
+	private final AtomicLong dispatchedCount = new AtomicLong();
+	private final AtomicLong supersededCount = new AtomicLong();
+
+	public MessageCoalescer(KeyFunction keyFunction, Dispatcher dispatcher, long windowMillis) {
+		this.keyFunction = keyFunction;
+		this.dispatcher = dispatcher;
+		this.windowMillis = windowMillis;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("sqs-coalescer"));
+	}
+
+	/********************************************************************
+	* Take a newly received message
+	*********************************************************************/
+	public void offer(Message message) {
+		String key = keyFunction.keyOf(message);
+		if (key == null) {
+			dispatchedCount.incrementAndGet();
+			dispatcher.dispatch(message, NOTHING);
+			return;
+		}
+
+		Message superseded = null;
+		synchronized (this) {
+			long sentAt = sentAt(message);
+			Slot slot = slots.get(key);
+			if (slot == null) {
+				slot = new Slot();
+				slots.put(key, slot);
+			}
+
+			if (slot.newest == null) {
+				slot.newest = message;
+				slot.newestSentAt = sentAt;
+				if (!slot.inFlight) scheduleFlush(key, slot, closing ? 0 : windowMillis);
+			} else if (sentAt >= slot.newestSentAt) {
+				superseded = slot.newest;
+				slot.newest = message;
+				slot.newestSentAt = sentAt;
+			} else {
+				superseded = message;
+			}
+		}
+
+		if (superseded != null) {
+			supersededCount.incrementAndGet();
+			dispatcher.supersede(superseded);
+		}
+	}
+
+	/********************************************************************
+	* Dispatch everything that is held without waiting out the window, and
+	* from now on dispatch new keys straight away
+	*********************************************************************/
+	public synchronized void flushAll() {
+		closing = true;
+		for (Map.Entry<String,Slot> entry : slots.entrySet()) {
+			Slot slot = entry.getValue();
+			if (slot.newest != null && !slot.inFlight) scheduleFlush(entry.getKey(), slot, 0);
+		}
+	}
+
+	/********************************************************************
+	* Wait until no message is held or being worked on, up to timeout
+	*********************************************************************/
+	public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!slots.isEmpty()) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) return false;
+			wait(remaining);
+		}
+		return true;
+	}
+
+	public void shutdown() {
+		flusher.shutdownNow();
+	}
+
+	public long getDispatchedCount() {
+		return dispatchedCount.get();
+	}
+
+	public long getSupersededCount() {
+		return supersededCount.get();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return slots.size() + " keys held, " + dispatchedCount + " dispatched, " + supersededCount + " superseded";
+	}
+
+	//the caller holds the lock
+	private void scheduleFlush(final String key, Slot slot, long delayMillis) {
+		//an immediate flush may overtake one that is already scheduled; flush() ignores the late one
+		if (slot.flushScheduled && delayMillis > 0) {
+			return;
+		}
+		slot.flushScheduled = true;
+		flusher.schedule(new Runnable() {
+			public void run() {
+				flush(key);
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void flush(final String key) {
+		Message message;
+		synchronized (this) {
+			Slot slot = slots.get(key);
+			if (slot == null || slot.inFlight || slot.newest == null) {
+				return;
+			}
+			message = slot.newest;
+			slot.newest = null;
+			slot.inFlight = true;
+			slot.flushScheduled = false;
+		}
+
+		dispatchedCount.incrementAndGet();
+		dispatcher.dispatch(message, new Runnable() {
+			public void run() {
+				done(key);
+			}
+		});
+	}
+
+	private synchronized void done(String key) {
+		Slot slot = slots.get(key);
+		slot.inFlight = false;
+
+		if (slot.newest == null) {
+			slots.remove(key);
+			notifyAll();
+		} else {
+			//a newer message arrived while this key was being worked on; give it its own window
+			slot.flushScheduled = false;
+			scheduleFlush(key, slot, closing ? 0 : windowMillis);
+		}
+	}
+
+	private static long sentAt(Message message) {
+		String sentTimestamp = message.getAttributes().get(MessageSystemAttributeName.SentTimestamp.toString());
+		if (sentTimestamp != null) {
+			try {
+				return Long.parseLong(sentTimestamp);
+			} catch (NumberFormatException ex) {
+				//fall through to arrival order
+			}
+		}
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted-array index answering "starts with" lookups on one attribute.
+ * Each entry is the attribute value and the item name joined by a
+ * separator, kept in one sorted array, so every value starting with a
+ * prefix sits in one contiguous range found by two binary searches.
+ * Matching is case-sensitive, like SimpleDB's "like 'x%'".
+ *
+ * Not thread-safe; IndexedContactStore guards it with its lock.
+ */
+public class PrefixIndex {
+	//sorts before every other character, so "value" + SEPARATOR + itemName orders by value first
+	private static final char SEPARATOR = '\u0000';
+	private static final String[] NO_ENTRIES = new String[0];
+
+	private String[] entries = NO_ENTRIES;
+	private int size;
+	private boolean sorted = true;
+
+	/********************************************************************
+	* Add a value for an item
+	*********************************************************************/
+	public void add(String value, String itemName) {
+		String entry = value + SEPARATOR + itemName;
+		ensureCapacity(size + 1);
+
+		if (!sorted) {
+			//bulk load in progress, sort once at the end
+			entries[size++] = entry;
+			return;
+		}
+
+		int position = Arrays.binarySearch(entries, 0, size, entry);
+		if (position >= 0) {
+			return;
+		}
+
+		//shift the tail over and insert in order
+		position = -position - 1;
+		System.arraycopy(entries, position, entries, position + 1, size - position);
+		entries[position] = entry;
+		size++;
+	}
+
+	/********************************************************************
+	* Remove a value for an item
+	*********************************************************************/
+	public void remove(String value, String itemName) {
+		finishBulkLoad();
+
+		int position = Arrays.binarySearch(entries, 0, size, value + SEPARATOR + itemName);
+		if (position < 0) {
+			return;
+		}
+
+		System.arraycopy(entries, position + 1, entries, position, size - position - 1);
+		entries[--size] = null;
+	}
+
+	/********************************************************************
+	* Start a bulk load: adds are appended unsorted until the bulk load
+	* is finished (or the next lookup or removal) and sorted all at once
+	*********************************************************************/
+	public void startBulkLoad() {
+		sorted = false;
+	}
+
+	/********************************************************************
+	* Sort the entries added since the bulk load started
+	*********************************************************************/
+	public void finishBulkLoad() {
+		if (sorted) {
+			return;
+		}
+
+		Arrays.sort(entries, 0, size);
+
+		//drop duplicates left by the bulk load
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			if (unique == 0 || !entries[i].equals(entries[unique - 1])) entries[unique++] = entries[i];
+		}
+		Arrays.fill(entries, unique, size, null);
+		size = unique;
+		sorted = true;
+	}
+
+	/********************************************************************
+	* Count the values starting with a prefix
+	*********************************************************************/
+	public int count(String prefix) {
+		finishBulkLoad();
+		return upperBound(prefix) - lowerBound(prefix);
+	}
+
+	/********************************************************************
+	* Get the item names of up to limit values starting with a prefix,
+	* in value order, skipping the first offset matches
+	*********************************************************************/
+	public List<String> startsWith(String prefix, int offset, int limit) {
+		finishBulkLoad();
+
+		int start = lowerBound(prefix) + offset;
+		int end = Math.min(upperBound(prefix), start + limit);
+
+		List<String> itemNames = new ArrayList<String>(Math.max(0, end - start));
+		for (int i = start; i < end; i++) {
+			itemNames.add(entries[i].substring(entries[i].indexOf(SEPARATOR) + 1));
+		}
+		return itemNames;
+	}
+
+	/********************************************************************
+	* Get up to limit values starting with a prefix (for type-ahead)
+	*********************************************************************/
+	public List<String> valuesStartingWith(String prefix, int limit) {
+		finishBulkLoad();
+
+		int start = lowerBound(prefix);
+		int end = Math.min(upperBound(prefix), start + limit);
+
+		List<String> values = new ArrayList<String>(Math.max(0, end - start));
+		for (int i = start; i < end; i++) {
+			values.add(entries[i].substring(0, entries[i].indexOf(SEPARATOR)));
+		}
+		return values;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	//first entry >= prefix
+	private int lowerBound(String prefix) {
+		int position = Arrays.binarySearch(entries, 0, size, prefix);
+		return position >= 0 ? position : -position - 1;
+	}
+
+	//first entry that sorts after every string starting with prefix
+	private int upperBound(String prefix) {
+		int low = lowerBound(prefix);
+		int high = size;
+
+		//entries in [low, size) are >= prefix; find the first one that does not start with it
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (entries[middle].startsWith(prefix)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > entries.length) {
+			entries = Arrays.copyOf(entries, Math.max(capacity, entries.length * 2 + 16));
+		}
+	}
+}
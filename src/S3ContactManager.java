@@ -1,14 +1,9 @@
 
 
-import java.io.File;
-import java.io.FileWriter;
 import java.util.List;
 import java.util.Scanner;
 
-import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
@@ -27,7 +22,6 @@ public class S3ContactManager {
 	private static final String BUCKET_NAME_VALID_REG_EX = "[a-z\\d.-]";
 	private static final String PERIOD_REG_EX = "[.]";
 	private static final String DASH_STRING = "-";
-	private static final String HTML_TEMPLATE = "<!DOCTYPE html><html><table><tr><th>First Name</th><th>Last Name</th><th>Phone Number</th></tr><tr><td id=\"firstName\"></td><td id=\"lastName\"></td><td id=\"phoneNumber\"></td></tr></body></html>";
 
 	private static AmazonS3 s3client;
 	private static Scanner scn = new Scanner(System.in);
@@ -78,23 +72,10 @@ public class S3ContactManager {
 	}
 
 	/********************************************************************
-	* Get an S3 client using the user's credentials
+	* Get the shared S3 client (built once using the user's credentials)
 	*********************************************************************/
 	public static AmazonS3 getS3Client() {
-		AWSCredentials myCredentials;
-		AmazonS3 s3client = null;
-		
-		try {
-			//get credentials from environment variables
-			myCredentials = new DefaultAWSCredentialsProviderChain().getCredentials();
-			s3client = new AmazonS3Client(myCredentials); 
-		} catch (Exception ex) {
-			System.out.println("There was a problem reading your credentials.");
-			System.out.println("Please make sure you have updated your environment variables with your AWS credentials and restart.");
-			System.exit(0);
-		}
-		
-		return s3client;
+		return AwsClients.s3();
 	}
 
 	/********************************************************************
@@ -408,9 +389,6 @@ public class S3ContactManager {
 	 * Create an object in the specified bucket
 	 *******************************************************/
 	private static void createObjectInBucket(String bucketName) throws Exception {
-		//copy the document template for creating a new contact document
-		String newDocument = HTML_TEMPLATE;
-		
 		//get the contact's first name
 		System.out.println("Enter the contact's first name:");
 		String firstName = scn.nextLine();
@@ -423,28 +401,20 @@ public class S3ContactManager {
 		System.out.println("Enter the contact's phone number:");
 		String phoneNumber = scn.nextLine();
 		
-		//create the new document's text using the entered information
-		newDocument = newDocument.replace("<td id=\"firstName\">", "<td id=\"firstName\">" + firstName);
-		newDocument = newDocument.replace("<td id=\"lastName\">", "<td id=\"lastName\">" + lastName);
-		newDocument = newDocument.replace("<td id=\"phoneNumber\">", "<td id=\"phoneNumber\">" + phoneNumber);
+		//create the new document using the entered information
+		ContactPageRenderer page = ContactPageRenderer.start()
+				.column("First Name", firstName)
+				.column("Last Name", lastName)
+				.column("Phone Number", phoneNumber)
+				.render();
 		
 		//concatenate the file name
 		String fileName = firstName + lastName + phoneNumber + ".html";
 		
-		//create the new HTML file
-		File contactDocument = new File (fileName);
-		FileWriter fw;
-		fw = new FileWriter(contactDocument);
-		fw.write(newDocument);
-		fw.close();
-
 		//get the S3 client
 		s3client = getS3Client();
 		
-		//store the HTML file in S3
-		s3client.putObject(bucketName, fileName, contactDocument);
-		
-		//delete the local file after storing in S3 so it is not retained
-		contactDocument.delete();
+		//store the page in S3 straight from memory
+		ContactPageUploader.upload(s3client, bucketName, fileName, page, null);
 	}
 }
@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.model.BatchResultErrorEntry;
+import com.amazonaws.services.sns.model.PublishBatchRequest;
+import com.amazonaws.services.sns.model.PublishBatchRequestEntry;
+import com.amazonaws.services.sns.model.PublishBatchResult;
+
+/**
+ * Publishes messages to an SNS topic in the background, so the caller
+ * only waits to put a message on a bounded in-memory queue. A single
+ * sender thread takes what is queued, up to 10 messages at a time, and
+ * sends it with one PublishBatch request. Messages that fail (the whole
+ * request, or single entries that SNS reports as its own fault) are
+ * retried with jittered exponential backoff; entries SNS rejects as the
+ * sender's fault are dropped.
+ *
+ * If the queue stays full for the offer timeout the message is dropped
+ * (and counted), so a slow or unreachable SNS can never hang the caller.
+ * shutdown() stops taking messages and publishes what is queued.
+ *
+ * publishAsync() returns a future that completes once SNS has accepted
+ * the message, or fails with an IllegalArgumentException if SNS rejected
+ * it as the sender's fault (retrying would not help), or an
+ * IllegalStateException if it was dropped or ran out of attempts.
+ */
+public class SNSPublisher {
+	private static final int MAX_MESSAGES_PER_BATCH = 10;
+	private static final long BASE_BACKOFF_MILLIS = 100;
+	private static final long MAX_BACKOFF_MILLIS = 10000;
+
+	private static class Pending {
+		final String message;
+		final CompletableFuture<Void> published = new CompletableFuture<Void>();
+		final long queuedAt = System.nanoTime();
+		int attempts;
+
+		Pending(String message) {
+			this.message = message;
+		}
+	}
+
+	private final AmazonSNS snsClient;
+	private final String topicArn;
+	private final long offerTimeoutMillis;
+	private final int maxAttempts;
+	private final BlockingQueue<Pending> queue;
+	private final Random random = new Random();
+	private final Thread sender;
+	private volatile boolean accepting = true;
+
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong retriedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile long lastLagNanos;
+	private volatile long maxLagNanos;
+
+	public SNSPublisher(AmazonSNS snsClient, String topicArn, int queueCapacity, long offerTimeoutMillis, int maxAttempts) {
+		this.snsClient = snsClient;
+		this.topicArn = topicArn;
+		this.offerTimeoutMillis = offerTimeoutMillis;
+		this.maxAttempts = maxAttempts;
+		this.queue = new ArrayBlockingQueue<Pending>(queueCapacity);
+
+		this.sender = new DaemonThreadFactory("sns-publisher").newThread(new Runnable() {
+			public void run() {
+				sendLoop();
+			}
+		});
+		sender.start();
+	}
+
+	/********************************************************************
+	* Queue a message to be published. Returns false if it was dropped
+	* because the publisher is shut down or its queue stayed full
+	*********************************************************************/
+	public boolean publish(String message) {
+		return !publishAsync(message).isCompletedExceptionally();
+	}
+
+	/********************************************************************
+	* Queue a message to be published, returning a future that completes
+	* (on the sender thread) once SNS has accepted it
+	*********************************************************************/
+	public CompletableFuture<Void> publishAsync(String message) {
+		Pending pending = new Pending(message);
+		if (!accepting) {
+			droppedCount.incrementAndGet();
+			pending.published.completeExceptionally(new IllegalStateException("the notification publisher is shut down"));
+			return pending.published;
+		}
+
+		try {
+			if (queue.offer(pending, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				return pending.published;
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		droppedCount.incrementAndGet();
+		System.out.println("There was a problem queueing an update notification; " + queue.size() + " notifications are waiting to be sent");
+		pending.published.completeExceptionally(new IllegalStateException("the notification queue is full"));
+		return pending.published;
+	}
+
+	/********************************************************************
+	* Stop taking messages and publish what is queued, waiting up to timeout
+	*********************************************************************/
+	public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		accepting = false;
+		sender.join(unit.toMillis(timeout));
+		if (queue.size() > 0) {
+			System.out.println("There was a problem sending " + queue.size() + " update notifications before shutting down");
+		}
+	}
+
+	/********************************************************************
+	* Messages waiting to be published
+	*********************************************************************/
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/********************************************************************
+	* How long the oldest waiting message has been queued
+	*********************************************************************/
+	public long getOldestQueuedMillis() {
+		Pending oldest = queue.peek();
+		return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.queuedAt);
+	}
+
+	/********************************************************************
+	* Time from queueing to publishing of the last published message
+	*********************************************************************/
+	public long getLastLagMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lastLagNanos);
+	}
+
+	public long getMaxLagMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+	}
+
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	public long getRetriedCount() {
+		return retriedCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "published " + publishedCount + ", retried " + retriedCount + ", failed " + failedCount + ", dropped " + droppedCount
+				+ ", queued " + getQueueDepth() + " (oldest " + getOldestQueuedMillis() + "ms), lag " + getLastLagMillis()
+				+ "ms (max " + getMaxLagMillis() + "ms)";
+	}
+
+	//publish in batches of whatever is queued, up to 10 at a time
+	private void sendLoop() {
+		List<Pending> batch = new ArrayList<Pending>(MAX_MESSAGES_PER_BATCH);
+		while (accepting || !queue.isEmpty() || !batch.isEmpty()) {
+			if (batch.size() < MAX_MESSAGES_PER_BATCH) {
+				try {
+					if (batch.isEmpty()) {
+						Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+						if (first == null) continue;
+						batch.add(first);
+					}
+					queue.drainTo(batch, MAX_MESSAGES_PER_BATCH - batch.size());
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+
+			List<Pending> retries = sendBatch(batch);
+			batch.clear();
+			if (!retries.isEmpty()) {
+				//back off by the most retried message, then send the retries first
+				int attempts = 0;
+				for (Pending pending : retries) attempts = Math.max(attempts, pending.attempts);
+				if (!backOff(attempts)) return;
+				batch.addAll(retries);
+			}
+		}
+	}
+
+	//send one batch, returning the messages to retry
+	private List<Pending> sendBatch(List<Pending> batch) {
+		List<PublishBatchRequestEntry> entries = new ArrayList<PublishBatchRequestEntry>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			batch.get(i).attempts++;
+			entries.add(new PublishBatchRequestEntry().withId(String.valueOf(i)).withMessage(batch.get(i).message));
+		}
+
+		List<Pending> retries = new ArrayList<Pending>();
+		try {
+			PublishBatchResult result = snsClient.publishBatch(new PublishBatchRequest()
+					.withTopicArn(topicArn).withPublishBatchRequestEntries(entries));
+
+			boolean[] failed = new boolean[batch.size()];
+			for (BatchResultErrorEntry error : result.getFailed()) {
+				int index = Integer.parseInt(error.getId());
+				failed[index] = true;
+				if (Boolean.TRUE.equals(error.getSenderFault())) {
+					failedCount.incrementAndGet();
+					System.out.println("There was a problem sending an update notification: " + error.getCode() + " " + error.getMessage());
+					batch.get(index).published.completeExceptionally(
+							new IllegalArgumentException("SNS rejected the notification: " + error.getCode() + " " + error.getMessage()));
+				} else {
+					retry(batch.get(index), retries, error.getCode());
+				}
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				if (!failed[i]) published(batch.get(i));
+			}
+		} catch (Exception ex) {
+			for (Pending pending : batch) retry(pending, retries, ex.getMessage());
+		}
+		return retries;
+	}
+
+	private void retry(Pending pending, List<Pending> retries, String reason) {
+		if (pending.attempts < maxAttempts) {
+			retriedCount.incrementAndGet();
+			retries.add(pending);
+		} else {
+			failedCount.incrementAndGet();
+			System.out.println("There was a problem sending an update notification after " + pending.attempts + " attempts: " + reason);
+			pending.published.completeExceptionally(new IllegalStateException("not sent after " + pending.attempts + " attempts: " + reason));
+		}
+	}
+
+	private void published(Pending pending) {
+		long lag = System.nanoTime() - pending.queuedAt;
+		lastLagNanos = lag;
+		if (lag > maxLagNanos) maxLagNanos = lag;
+		publishedCount.incrementAndGet();
+		pending.published.complete(null);
+	}
+
+	//full jitter: a random wait up to base * 2^(attempts - 1), capped
+	private boolean backOff(int attempts) {
+		long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempts - 1, 20));
+		try {
+			Thread.sleep(1 + (long) (random.nextDouble() * ceiling));
+			return true;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,394 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+
+/**
+ * Continuously consumes a queue:
+ * 		Several receive loops long-poll for up to 10 messages at a time
+ * 		An admission controller bounds the messages held at once to what
+ * 			the workers and their queue can take; when it is full the
+ * 			receive loops stop receiving until work finishes
+ * 		Each message is handled on a bounded worker pool, and its visibility
+ * 			is extended by a lease manager for as long as it is in flight
+ * 		Optionally, messages about the same key are coalesced first so only
+ * 			the newest is handled (see MessageCoalescer)
+ * 		Messages that were handled successfully, or superseded, are deleted
+ * 			in batches of up to 10 by a single deleter thread
+ * 		A message that still fails on its last allowed receive (see
+ * 			setMaxReceives) is moved to a dead letter queue, or dropped if
+ * 			there is none, so a poison message is not redelivered forever
+ *
+ * shutdown() stops receiving, lets the workers finish what was already
+ * received and flushes the remaining deletes. Other messages that were
+ * not handled successfully are left on the queue to be redelivered.
+ */
+public class SQSConsumer {
+	/**
+	 * Handles one message. Returns true if the message should be deleted.
+	 */
+	public interface MessageHandler {
+		boolean handle(Message message);
+	}
+
+	private static final int MAX_MESSAGES_PER_RECEIVE = 10;
+	private static final int MAX_DELETES_PER_BATCH = 10;
+	private static final long DELETE_LINGER_MILLIS = 50;
+
+	private final AmazonSQS sqsClient;
+	private final String queueUrl;
+	private final MessageHandler handler;
+	private final int receiverCount;
+	private final int waitTimeSeconds;
+	private final ThreadPoolExecutor workers;
+	private final AdmissionController admission;
+	private final VisibilityLeaseManager leases;
+	private final BlockingQueue<Message> pendingDeletes = new LinkedBlockingQueue<Message>();
+	private final List<Thread> receivers = new ArrayList<Thread>();
+	private final CountDownLatch terminated = new CountDownLatch(1);
+	private MessageCoalescer coalescer;
+	private Thread deleter;
+	private volatile int maxReceives = Integer.MAX_VALUE;
+	private volatile String deadLetterQueueUrl;
+
+	private volatile boolean receiving;
+	private volatile boolean deleting;
+
+	private final AtomicLong receivedCount = new AtomicLong();
+	private final AtomicLong handledCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong deletedCount = new AtomicLong();
+	private final AtomicLong deadLetteredCount = new AtomicLong();
+
+	public SQSConsumer(AmazonSQS sqsClient, String queueUrl, MessageHandler handler,
+			int receiverCount, int workerCount, int workQueueCapacity, int waitTimeSeconds,
+			int visibilityTimeoutSeconds, int maxLeaseSeconds) {
+		this.sqsClient = sqsClient;
+		this.queueUrl = queueUrl;
+		this.handler = handler;
+		this.receiverCount = receiverCount;
+		this.waitTimeSeconds = waitTimeSeconds;
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(workQueueCapacity), new DaemonThreadFactory("sqs-worker"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		this.admission = new AdmissionController(workerCount + workQueueCapacity);
+		this.leases = new VisibilityLeaseManager(sqsClient, queueUrl, visibilityTimeoutSeconds, maxLeaseSeconds);
+	}
+
+	/********************************************************************
+	* Coalesce messages by key within a window before handling them. Must
+	* be called before start()
+	*********************************************************************/
+	public synchronized void setCoalescing(MessageCoalescer.KeyFunction keyFunction, long windowMillis) {
+		coalescer = new MessageCoalescer(keyFunction, new MessageCoalescer.Dispatcher() {
+			public void dispatch(final Message message, final Runnable whenDone) {
+				submit(new Runnable() {
+					public void run() {
+						try {
+							handle(message);
+						} finally {
+							whenDone.run();
+						}
+					}
+				});
+			}
+
+			public void supersede(Message message) {
+				leases.release(message);
+				admission.release(1);
+				pendingDeletes.add(message);
+			}
+		}, windowMillis);
+	}
+
+	/********************************************************************
+	* Give up on a message that fails on its maxReceives'th receive,
+	* moving it to deadLetterQueueUrl (or dropping it if that is null).
+	* Must be called before start()
+	*********************************************************************/
+	public synchronized void setMaxReceives(int maxReceives, String deadLetterQueueUrl) {
+		this.maxReceives = Math.max(1, maxReceives);
+		this.deadLetterQueueUrl = deadLetterQueueUrl;
+	}
+
+	/********************************************************************
+	* Start the receive loops and the deleter
+	*********************************************************************/
+	public synchronized void start() {
+		if (receiving) {
+			return;
+		}
+		receiving = true;
+		deleting = true;
+
+		deleter = new DaemonThreadFactory("sqs-deleter").newThread(new Runnable() {
+			public void run() {
+				deleteLoop();
+			}
+		});
+		deleter.start();
+
+		ThreadFactory receiverFactory = new DaemonThreadFactory("sqs-receiver");
+		for (int i = 0; i < receiverCount; i++) {
+			Thread receiver = receiverFactory.newThread(new Runnable() {
+				public void run() {
+					receiveLoop();
+				}
+			});
+			receivers.add(receiver);
+			receiver.start();
+		}
+	}
+
+	/********************************************************************
+	* Stop receiving, drain the received messages and flush their deletes.
+	* Waits at most timeout for the drain
+	*********************************************************************/
+	public synchronized void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		receiving = false;
+
+		//receivers finish their current long poll (and hand its messages to the workers)
+		for (Thread receiver : receivers) {
+			receiver.join(remainingMillis(deadline));
+		}
+		receivers.clear();
+
+		//stop holding messages back and let the coalesced ones finish
+		if (coalescer != null) {
+			coalescer.flushAll();
+			coalescer.awaitIdle(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+			coalescer.shutdown();
+		}
+
+		workers.shutdown();
+		workers.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+		leases.shutdown();
+
+		deleting = false;
+		if (deleter != null) {
+			deleter.join(remainingMillis(deadline));
+		}
+		terminated.countDown();
+	}
+
+	/********************************************************************
+	* Block until shutdown() has finished
+	*********************************************************************/
+	public void awaitTermination() throws InterruptedException {
+		terminated.await();
+	}
+
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	public long getHandledCount() {
+		return handledCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	public long getDeletedCount() {
+		return deletedCount.get();
+	}
+
+	public long getDeadLetteredCount() {
+		return deadLetteredCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "received " + receivedCount + ", handled " + handledCount + ", failed " + failedCount
+				+ ", deleted " + deletedCount + ", dead-lettered " + deadLetteredCount + ", in flight " + admission.getInFlight() + "/" + admission.getCapacity()
+				+ ", leases: " + leases + (coalescer != null ? ", coalescing: " + coalescer : "");
+	}
+
+	private void receiveLoop() {
+		ReceiveMessageRequest request = new ReceiveMessageRequest()
+				.withQueueUrl(queueUrl)
+				.withWaitTimeSeconds(waitTimeSeconds)
+				.withVisibilityTimeout(leases.getVisibilityTimeoutSeconds())
+				.withAttributeNames("All")
+				.withMessageAttributeNames("All");
+
+		while (receiving) {
+			//only receive as many messages as there is room for
+			int admitted;
+			try {
+				admitted = admission.admit(MAX_MESSAGES_PER_RECEIVE, 1, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (admitted == 0) {
+				continue;
+			}
+
+			List<Message> messages;
+			try {
+				messages = sqsClient.receiveMessage(request.withMaxNumberOfMessages(admitted)).getMessages();
+			} catch (Exception ex) {
+				admission.release(admitted);
+				System.out.println("There was a problem receiving from " + queueUrl + ": " + ex.getMessage());
+				pause(1000);
+				continue;
+			}
+
+			admission.release(admitted - messages.size());
+			receivedCount.addAndGet(messages.size());
+			for (final Message message : messages) {
+				leases.lease(message);
+				if (coalescer != null) {
+					coalescer.offer(message);
+				} else {
+					submit(new Runnable() {
+						public void run() {
+							handle(message);
+						}
+					});
+				}
+			}
+		}
+	}
+
+	private void submit(Runnable task) {
+		try {
+			workers.execute(task);
+		} catch (Exception ex) {
+			//the pool was shut down under us; handle the message here rather than drop it
+			task.run();
+		}
+	}
+
+	private void handle(Message message) {
+		boolean handled;
+		try {
+			handled = handler.handle(message);
+		} catch (Exception ex) {
+			System.out.println("There was a problem processing msg " + message.getMessageId() + ": " + ex.getMessage());
+			handled = false;
+		} finally {
+			leases.release(message);
+			admission.release(1);
+		}
+
+		if (handled) {
+			handledCount.incrementAndGet();
+			pendingDeletes.add(message);
+		} else {
+			failedCount.incrementAndGet();
+			int receives = receiveCountOf(message);
+			if (receives >= maxReceives) {
+				giveUp(message, "failed on receive " + receives + " of " + maxReceives);
+			}
+		}
+	}
+
+	//move a message to the dead letter queue (if there is one) and delete it. if the move fails it is left to be redelivered
+	private void giveUp(Message message, String reason) {
+		String deadLetterQueue = deadLetterQueueUrl;
+		if (deadLetterQueue != null) {
+			try {
+				sqsClient.sendMessage(new SendMessageRequest(deadLetterQueue, message.getBody())
+						.withMessageAttributes(message.getMessageAttributes()));
+			} catch (Exception ex) {
+				System.out.println("There was a problem moving msg " + message.getMessageId() + " to " + deadLetterQueue + ": " + ex.getMessage());
+				return;
+			}
+			System.out.println("Moved msg " + message.getMessageId() + " to " + deadLetterQueue + ": " + reason);
+		} else {
+			System.out.println("Dropping msg " + message.getMessageId() + ": " + reason);
+		}
+		deadLetteredCount.incrementAndGet();
+		pendingDeletes.add(message);
+	}
+
+	//how many times SQS has delivered a message, counting this time (1 if it did not say)
+	private static int receiveCountOf(Message message) {
+		String count = message.getAttributes().get(MessageSystemAttributeName.ApproximateReceiveCount.toString());
+		try {
+			return count == null ? 1 : Integer.parseInt(count);
+		} catch (NumberFormatException ex) {
+			return 1;
+		}
+	}
+
+	//delete in batches of up to 10, waiting briefly for a batch to fill
+	private void deleteLoop() {
+		List<Message> batch = new ArrayList<Message>(MAX_DELETES_PER_BATCH);
+		while (deleting || !pendingDeletes.isEmpty()) {
+			try {
+				Message first = pendingDeletes.poll(DELETE_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+
+				long lingerUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DELETE_LINGER_MILLIS);
+				while (batch.size() < MAX_DELETES_PER_BATCH) {
+					Message next = pendingDeletes.poll(Math.max(0, lingerUntil - System.nanoTime()), TimeUnit.NANOSECONDS);
+					if (next == null) break;
+					batch.add(next);
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				deleting = false;
+			}
+
+			if (!batch.isEmpty()) {
+				deleteBatch(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void deleteBatch(List<Message> batch) {
+		List<DeleteMessageBatchRequestEntry> entries = new ArrayList<DeleteMessageBatchRequestEntry>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), batch.get(i).getReceiptHandle()));
+		}
+
+		try {
+			DeleteMessageBatchResult result = sqsClient.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries));
+			deletedCount.addAndGet(result.getSuccessful().size());
+			for (BatchResultErrorEntry error : result.getFailed()) {
+				System.out.println("There was a problem deleting msg "
+						+ batch.get(Integer.parseInt(error.getId())).getMessageId() + ": " + error.getMessage());
+			}
+		} catch (Exception ex) {
+			//the messages become visible again and are redelivered
+			System.out.println("There was a problem deleting " + batch.size() + " messages: " + ex.getMessage());
+		}
+	}
+
+	private static long remainingMillis(long deadline) {
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
+
+	private static void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,25 +1,16 @@
-import java.io.File;
-import java.io.FileWriter;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
-import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
-import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClient;
-import com.amazonaws.services.sqs.model.DeleteMessageRequest;
 import com.amazonaws.services.sqs.model.Message;
-import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
-import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.util.json.Jackson;
 public class SQSPollingFormatter {
 	private static AmazonSQS sqsClient;
 	private static Scanner scn = new Scanner(System.in);
@@ -29,11 +20,15 @@ public class SQSPollingFormatter {
 	private static final String FIRST_KEY = "first";
 	private static final String LAST_KEY = "last";
 	private static final String URL_KEY = "url";
+	private static final String ITEM_NAME_KEY = "itemName";
+	private static final String SNS_MESSAGE_KEY = "Message";
+	private static final String FORMATTED_PAGE_PREFIX = "formatted/";
+	private static final int SHUTDOWN_DRAIN_SECONDS = 60;
 	
-	public static void main(String[] args) {
+	public static void main(String[] args) throws InterruptedException {
 		System.out.println("Welcome to the Contact Manager SQS Polling Formatter");
 		System.out.println(LINE_SEPARATOR);
-		System.out.println("Press enter to poll our queue and process any messages...");
+		System.out.println("Polling our queue and processing messages until stopped (Ctrl+C)...");
 		
 		sqsClient = getSQSClient();
 		
@@ -43,45 +38,72 @@ public class SQSPollingFormatter {
 
 
 	/********************************************************************
-	* Get an SQS client using the user's credentials
+	* Get the shared SQS client (built once using the user's credentials)
 	*********************************************************************/
 	public static AmazonSQS getSQSClient() {
-		AWSCredentials myCredentials;
-		AmazonSQS sqsClient = null;
-		
-		try {
-			//get credentials from environment variables
-			//myCredentials = new DefaultAWSCredentialsProviderChain().getCredentials();
-			myCredentials = new EnvironmentVariableCredentialsProvider().getCredentials();
-			sqsClient = new AmazonSQSClient(myCredentials); 
-		} catch (Exception ex) {
-			System.out.println("There was a problem reading your credentials.");
-			System.out.println("Please make sure you have updated your environment variables with your AWS credentials and restart.");
-			System.exit(0);
-		}
-		
-		return sqsClient;
+		return AwsClients.sqs();
 	}
 	
 	
-	private static void processMessages() {
-		ReceiveMessageResult rslts = sqsClient.receiveMessage(new ReceiveMessageRequest().withQueueUrl(QUEUE_URL));
-		if (rslts.getMessages().size() > 0) {
-			for (Message msg : rslts.getMessages()) {
-				performContactOperations(msg);
+	/********************************************************************
+	* Consume the queue until the JVM is asked to exit, then drain what
+	* was already received. Tunable with -Dsqs.receivers, -Dsqs.workers,
+	* -Dsqs.workQueueCapacity, -Dsqs.waitTimeSeconds,
+	* -Dsqs.visibilityTimeoutSeconds, -Dsqs.maxLeaseSeconds,
+	* -Dsqs.coalesceWindowMillis (0 turns coalescing off), -Dsqs.maxReceives
+	* and -Dsqs.deadLetterQueueUrl (failed messages are dropped without one)
+	*********************************************************************/
+	private static void processMessages() throws InterruptedException {
+		final SQSConsumer consumer = new SQSConsumer(sqsClient, QUEUE_URL, new SQSConsumer.MessageHandler() {
+			public boolean handle(Message msg) {
+				return performContactOperations(msg);
 			}
-		} else {
-			System.out.println("No messages to process. Try again later.");
+		}, Integer.getInteger("sqs.receivers", 4),
+				Integer.getInteger("sqs.workers", 32),
+				Integer.getInteger("sqs.workQueueCapacity", 200),
+				Integer.getInteger("sqs.waitTimeSeconds", 20),
+				Integer.getInteger("sqs.visibilityTimeoutSeconds", 30),
+				Integer.getInteger("sqs.maxLeaseSeconds", 900));
+
+		//stop retrying a message that keeps failing
+		consumer.setMaxReceives(Integer.getInteger("sqs.maxReceives", 5), System.getProperty("sqs.deadLetterQueueUrl"));
+
+		//a burst of updates to one contact is rendered once, from the newest message
+		long coalesceWindowMillis = Long.getLong("sqs.coalesceWindowMillis", 500);
+		if (coalesceWindowMillis > 0) {
+			consumer.setCoalescing(new MessageCoalescer.KeyFunction() {
+				public String keyOf(Message msg) {
+					return getContactInfoFromMessage(msg).get(ITEM_ID_KEY);
+				}
+			}, coalesceWindowMillis);
 		}
+
+		//drain before the shared clients are shut down, so the drain can still delete messages
+		AwsClients.beforeShutdown(new Runnable() {
+			public void run() {
+				try {
+					consumer.shutdown(SHUTDOWN_DRAIN_SECONDS, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				System.out.println("Stopped polling: " + consumer);
+				System.out.println(ContactPageUploader.getPageCache());
+			}
+		});
+
+		consumer.start();
+		consumer.awaitTermination();
 	}
 
 
-	private static void performContactOperations(Message msg) {
+	//returns true when the message was fully processed and can be deleted
+	private static boolean performContactOperations(Message msg) {
 		Map<String, String> contactInfo = getContactInfoFromMessage(msg);
 		if (createContactPageInS3(contactInfo) && sendNotification(contactInfo)) {
-			removeMessageFromQueue(msg);
+			return true;
 		} else {
 			System.out.println("There was a problem processing msg " + msg.getMessageId());
+			return false;
 		}
 	}
 	
@@ -100,12 +122,9 @@ public class SQSPollingFormatter {
 	}
 
 
-	private static void removeMessageFromQueue(Message msg) {
-		sqsClient.deleteMessage(new DeleteMessageRequest().withQueueUrl(QUEUE_URL).withReceiptHandle(msg.getReceiptHandle()));
-	}
-
-
 	// "itemId" : "3514", "first" : "Sam", "last" : "Henry", "url" : "https://s3.amazonaws.com/cspp51083.samuelh.simplecontacts/SamHenry3514.html"
+	// SimpleContacts publishes it as the body (with "itemName" for the id); when the queue is subscribed
+	// to the SNS topic the body is SNS's envelope and the published JSON is its "Message"
 	private static Map<String,String> getContactInfoFromMessage(Message msg) {
 		Map<String,String> contactInfo = new HashMap();
 		
@@ -115,10 +134,35 @@ public class SQSPollingFormatter {
 			} 
 		}
 		
+		Map<?,?> body = parseJsonObject(msg.getBody());
+		if (body != null && body.get(SNS_MESSAGE_KEY) instanceof String) {
+			body = parseJsonObject((String) body.get(SNS_MESSAGE_KEY));
+		}
+		if (body != null) {
+			for (String key : new String[] { ITEM_ID_KEY, FIRST_KEY, LAST_KEY, URL_KEY }) {
+				if (body.get(key) instanceof String) contactInfo.put(key, (String) body.get(key));
+			}
+			if (!contactInfo.containsKey(ITEM_ID_KEY) && body.get(ITEM_NAME_KEY) instanceof String) {
+				contactInfo.put(ITEM_ID_KEY, (String) body.get(ITEM_NAME_KEY));
+			}
+		}
+		
 		return contactInfo;
 	}
 
 
+	private static Map<?,?> parseJsonObject(String json) {
+		if (json == null) {
+			return null;
+		}
+		try {
+			return Jackson.fromJsonString(json, Map.class);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+
 	/********************************************************************
 	* Create a contact's page in S3
 	 * @throws Exception 
@@ -132,46 +176,31 @@ public class SQSPollingFormatter {
 		
 		String first = contactInfo.get(FIRST_KEY);
 		String last = contactInfo.get(LAST_KEY);
-		String htmlTemplateBeginning = "<!DOCTYPE html><html><body><table>";
-		String htmlTemplateEnding = "</body></html>";
-		String htmlHeaderRow = "<tr>";
-		String htmlDetailRow = "<tr>";
-
-		//build the document
-		//add a table cell for the first name
-		if (first != null && first.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + FIRST_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + first + "</td>";
-		} 
 		
-		//add a table cell for the last name if it was entered
-		if (last != null && last.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + LAST_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + last + "</td>";
+		//the page is named after the url's last path segment; the url comes off the queue, so refuse anything path-like
+		String pageName = url.substring(url.lastIndexOf('/') + 1);
+		if (pageName.length() == 0 || pageName.contains("..") || pageName.contains("\\")) {
+			System.out.println("Invalid input. URL " + url + " does not name a contact page");
+			return false;
 		}
 		
-		//terminate the rows
-		htmlHeaderRow = htmlHeaderRow + "</tr>";
-		htmlDetailRow = htmlDetailRow + "</tr>";
+		//that segment is the key of the full contact page SimpleContacts writes, so keep this names-only page apart from it
+		String key = FORMATTED_PAGE_PREFIX + pageName;
 		
-		String newDocument = htmlTemplateBeginning + htmlHeaderRow + htmlDetailRow + htmlTemplateEnding;
+		//build the document with a column for each name that was entered
+		ContactPageRenderer page = ContactPageRenderer.start();
+		if (first != null && first.length() > 0) page.column(FIRST_KEY, first);
+		if (last != null && last.length() > 0) page.column(LAST_KEY, last);
+		page.render();
 		
 		String s3bucketName = "cspp51083.samuelh.simplecontacts";
 		try {
-			//create the new HTML file
-			File contactDocument = new File (url);
-			FileWriter fw;
-			fw = new FileWriter(contactDocument);
-			fw.write(newDocument);
-			fw.close();
-			
-			//store HTML file with public accessibility in S3
-			getS3Client().putObject(new PutObjectRequest(s3bucketName, url, contactDocument).withCannedAcl(CannedAccessControlList.PublicRead));
-			
-			System.out.println("Succesfully added " + url + " to your S3 bucket " + s3bucketName);
-			
-			//delete the local file after storing in S3 so it is not retained
-			contactDocument.delete();
+			//store the page with public accessibility in S3 straight from memory (unless it is unchanged)
+			if (ContactPageUploader.upload(getS3Client(), s3bucketName, key, page, CannedAccessControlList.PublicRead)) {
+				System.out.println("Succesfully added " + key + " to your S3 bucket " + s3bucketName);
+			} else {
+				System.out.println(key + " is already up to date in your S3 bucket " + s3bucketName);
+			}
 
 			return true;
 
@@ -183,23 +212,10 @@ public class SQSPollingFormatter {
 
 
 	/********************************************************************
-	* Get an S3 client using the user's credentials
+	* Get the shared S3 client (built once using the user's credentials)
 	*********************************************************************/
 	private static AmazonS3 getS3Client() {
-		AWSCredentials myCredentials;
-		AmazonS3 s3client = null;
-		
-		try {
-			//get credentials from environment variables
-			myCredentials = new DefaultAWSCredentialsProviderChain().getCredentials();
-			s3client = new AmazonS3Client(myCredentials); 
-		} catch (Exception ex) {
-			System.out.println("There was a problem reading your credentials.");
-			System.out.println("Please make sure you have updated your environment variables with your AWS credentials and restart.");
-			System.exit(0);
-		}
-		
-		return s3client;
+		return AwsClients.s3();
 	}
 
 }
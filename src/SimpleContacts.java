@@ -1,73 +1,85 @@
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
-import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.CannedAccessControlList;
-import com.amazonaws.services.s3.model.DeleteObjectRequest;
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.simpledb.AmazonSimpleDB;
-import com.amazonaws.services.simpledb.AmazonSimpleDBClient;
 import com.amazonaws.services.simpledb.model.Attribute;
-import com.amazonaws.services.simpledb.model.CreateDomainRequest;
-import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
 import com.amazonaws.services.simpledb.model.Item;
-import com.amazonaws.services.simpledb.model.ListDomainsResult;
-import com.amazonaws.services.simpledb.model.PutAttributesRequest;
 import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
-import com.amazonaws.services.simpledb.model.SelectRequest;
 import com.amazonaws.services.sns.AmazonSNS;
-import com.amazonaws.services.sns.AmazonSNSClient;
-import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.util.json.Jackson;
 
 
 public class SimpleContacts {
 	private static final String LINE_SEPARATOR = "------------------";
 	
 	//SimpleDB keys
-	private static final String CONTACT_DOMAIN_TITLE = "cspp51083.samuelh.simplecontacts";
-	private static final String FIRST_KEY = "First";
-	private static final String LAST_KEY = "Last";
-	private static final String PHONE_KEY = "Phone";
-	private static final String EMAIL_KEY = "Email";
-	private static final String STREET_KEY = "Street";
-	private static final String CITY_KEY = "City";
-	private static final String STATE_KEY = "State";
-	private static final String ZIP_KEY = "Zip";
-	private static final String TAG_KEY = "Tag";
-	private static final String BIRTHDAY_KEY = "Birthday";
+	static final String CONTACT_DOMAIN_TITLE = "cspp51083.samuelh.simplecontacts";
+	static final String FIRST_KEY = "First";
+	static final String LAST_KEY = "Last";
+	static final String PHONE_KEY = "Phone";
+	static final String EMAIL_KEY = "Email";
+	static final String STREET_KEY = "Street";
+	static final String CITY_KEY = "City";
+	static final String STATE_KEY = "State";
+	static final String ZIP_KEY = "Zip";
+	static final String TAG_KEY = "Tag";
+	static final String BIRTHDAY_KEY = "Birthday";
 	private static final String UPDATE_TOPIC_ARN = "arn:aws:sns:us-east-1:875425895862:51083-updated";
 	
+	//contact store selection (-Dcontacts.store=local to run against an embedded store instead of SimpleDB)
+	private static final String STORE_PROPERTY = "contacts.store";
+	private static final String STORE_FILE_PROPERTY = "contacts.store.file";
+	private static final String LOCAL_STORE = "local";
+	private static final String DEFAULT_STORE_FILE = "simplecontacts.db";
+	private static final String CACHE_SIZE_PROPERTY = "contacts.cache.size";
+	private static final String CACHE_TTL_PROPERTY = "contacts.cache.ttlSeconds";
+	private static final String SNS_QUEUE_CAPACITY_PROPERTY = "sns.queueCapacity";
+	private static final String SNS_MAX_ATTEMPTS_PROPERTY = "sns.maxAttempts";
+	private static final int SNS_FLUSH_SECONDS = 10;
+	private static final String OUTBOX_DIR_PROPERTY = "contacts.outbox.dir";
+	private static final String OUTBOX_SEGMENT_SIZE_PROPERTY = "contacts.outbox.segmentBytes";
+	private static final String DEFAULT_OUTBOX_DIR = "simplecontacts-outbox";
+	private static final String OUTBOX_PAGE_THREADS_PROPERTY = "contacts.outbox.pageThreads";
+	private static final String OUTBOX_TIMEOUT_PROPERTY = "contacts.outbox.timeoutSeconds";
+	private static final String ID_BLOCK_SIZE_PROPERTY = "contacts.id.blockSize";
+	private static final String ID_BLOCK_AGE_PROPERTY = "contacts.id.maxBlockAgeSeconds";
+	private static final String BATCH_CONCURRENCY_PROPERTY = "contacts.batch.concurrency";
+	private static final String HTTP_PORT_PROPERTY = "contacts.http.port";
+	private static final String HTTP_BACKLOG_PROPERTY = "contacts.http.backlog";
+	private static final String HTTP_THREADS_PROPERTY = "contacts.http.threads";
+	
 	private static Scanner scn = new Scanner(System.in);
-	private static AmazonSimpleDB simpleDBClient;
-	private static AmazonSNS snsClient;
+	private static ContactStore contactStore;
+	private static SNSPublisher updatePublisher;
+	private static ContactOutbox outbox;
+	private static ContactOutboxDrainer outboxDrainer;
 	private static AmazonS3 s3client;
 	private static String selectedContactId;
-	private static Random random = new Random();
+	private static ContactIdAllocator idAllocator;
 	
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		//commands given on the command line run without the menu
+		if (args.length > 0) {
+			runCommand(args);
+			return;
+		}
+		
 		//welcome the user and give them a chance to edit environment variables before continuing
 		System.out.println("Welcome to the Simple Contact Manager");
 		System.out.println(LINE_SEPARATOR);
 		
-		//get a SimpleDBClient
-		simpleDBClient = getSimpleDBClient();
-		
-		//get a Simple Notification Service (SNS) client
-		snsClient = getSNSClient();
-		
-		//get an S3 client
-		s3client = S3ContactManager.getS3Client();
-		
-		//ensure that the MySimpleContacts domain exists for this user
-		ensureDomainExists();
+		setUp();
         
 		//formatting
 		System.out.println(LINE_SEPARATOR);
@@ -89,67 +101,192 @@ public class SimpleContacts {
 	}
 	
 	/********************************************************************
-	* Get SimpleDB client using the user's credentials
+	* Set up the contact store, id allocator, S3 client, SNS publisher and
+	* outbox shared by the menu and batch mode
 	*********************************************************************/
-	private static AmazonSimpleDB getSimpleDBClient() {
-		AWSCredentials myCredentials;
-		AmazonSimpleDB simpleDBClient = null;
-		
-		try {
-			//get credentials from default provider chain 
-			myCredentials = new DefaultAWSCredentialsProviderChain().getCredentials();
-			simpleDBClient = new AmazonSimpleDBClient(myCredentials); 
-		} catch (Exception ex) {
-			System.out.println("There was a problem reading your credentials.");
-			System.exit(0);
+	private static void setUp() {
+		//get the contact store, and an id allocator that keeps its counter out of the cache and indexes
+		ContactStore backingStore = getBackingStore();
+		contactStore = getContactStore(backingStore);
+		idAllocator = getIdAllocator(backingStore);
+		
+		if (!LOCAL_STORE.equals(System.getProperty(STORE_PROPERTY))) {
+			//get a Simple Notification Service (SNS) client
+			updatePublisher = getUpdatePublisher();
+			
+			//get an S3 client
+			s3client = S3ContactManager.getS3Client();
+			
+			//complete page updates and notifications left over from the last run, and any new ones, in the background
+			openOutbox();
+		} else {
+			System.out.println("Using the local contact store. Contact pages and notifications are disabled.");
 		}
 		
-		return simpleDBClient;
+		//ensure that the MySimpleContacts domain exists for this user
+		contactStore.ensureDomainExists();
+	}
+
+	/********************************************************************
+	* Create, edit and delete contacts in the given store, with ids from the
+	* given allocator and without pages or notifications, as with the
+	* local store
+	*********************************************************************/
+	static void useStore(ContactStore store, ContactIdAllocator allocator) {
+		contactStore = store;
+		idAllocator = allocator;
+		outbox = null;
+		outboxDrainer = null;
+	}
+
+	/********************************************************************
+	* Get the shared SimpleDB client (built once using the user's credentials)
+	*********************************************************************/
+	private static AmazonSimpleDB getSimpleDBClient() {
+		return AwsClients.simpleDB();
 	}
 	
 	/********************************************************************
-	* Get SNS client using the user's credentials
+	* Get the shared SNS client (built once using the user's credentials)
 	*********************************************************************/
 	private static AmazonSNS getSNSClient() {
-		AWSCredentials myCredentials;
-		AmazonSNS snsClient = null;
-		
-		try {
-			//get credentials from default provider chain
-			myCredentials = new DefaultAWSCredentialsProviderChain().getCredentials();
-			snsClient = new AmazonSNSClient(myCredentials);
-		} catch (Exception ex) {
-			System.out.println("There was a problem reading your credentials.");
-			System.exit(0);
-		}
-		
-		return snsClient;
+		return AwsClients.sns();
 	}
 
 	/********************************************************************
-	* Make sure the contacts domain exists for our user on SimpleDB.
-	* If not, create it.
+	* Get a publisher that sends update notifications in the background,
+	* flushing what is still queued when the program exits
 	*********************************************************************/
-	private static void ensureDomainExists() {
-		//Although createDomain() is idemponent, the documentation warns that it
-		//could take up to 10 seconds to create the domain, so we should only call createDomain() once per user
-		boolean domainExists = false;
-		ListDomainsResult domains = simpleDBClient.listDomains();
-	
-		for (String domainName : domains.getDomainNames()) {
-			if (domainName.equals(CONTACT_DOMAIN_TITLE)) {
-				domainExists = true;
-				break;
+	private static SNSPublisher getUpdatePublisher() {
+		return new SNSPublisher(getSNSClient(), UPDATE_TOPIC_ARN,
+				Integer.getInteger(SNS_QUEUE_CAPACITY_PROPERTY, 1000), 2000, Integer.getInteger(SNS_MAX_ATTEMPTS_PROPERTY, 5));
+	}
+
+	/********************************************************************
+	* Open the outbox (see ContactOutbox) and start draining it, replaying
+	* what the last run left. On exit the drainer and the publisher get to
+	* finish their work before the outbox is closed
+	*********************************************************************/
+	private static void openOutbox() {
+		outbox = new ContactOutbox(new File(System.getProperty(OUTBOX_DIR_PROPERTY, DEFAULT_OUTBOX_DIR)),
+				Integer.getInteger(OUTBOX_SEGMENT_SIZE_PROPERTY, 4 << 20));
+		List<ContactOutbox.Intent> leftOver = outbox.open();
+		outboxDrainer = new ContactOutboxDrainer(outbox, s3client, updatePublisher,
+				Integer.getInteger(OUTBOX_PAGE_THREADS_PROPERTY, 4), TimeUnit.SECONDS.toMillis(Integer.getInteger(OUTBOX_TIMEOUT_PROPERTY, 30)));
+		if (leftOver.size() > 0) {
+			System.out.println("Completing " + leftOver.size() + " contact page updates and notifications from the last run");
+		}
+		for (ContactOutbox.Intent intent : leftOver) {
+			outboxDrainer.submit(intent);
+		}
+
+		AwsClients.beforeShutdown(new Runnable() {
+			public void run() {
+				try {
+					outboxDrainer.shutdown(SNS_FLUSH_SECONDS, TimeUnit.SECONDS);
+					updatePublisher.shutdown(SNS_FLUSH_SECONDS, TimeUnit.SECONDS);
+					outbox.close();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} catch (IOException ex) {
+					System.out.println("There was a problem closing the outbox: " + ex.getMessage());
+				}
 			}
+		});
+	}
+
+	/********************************************************************
+	* Get the contact store selected by the contacts.store system property,
+	* behind a read-through cache of recently used contacts and local
+	* search indexes
+	*********************************************************************/
+	private static ContactStore getContactStore(ContactStore backingStore) {
+		return new IndexedContactStore(new CachingContactStore(backingStore, Integer.getInteger(CACHE_SIZE_PROPERTY, 1000),
+				Integer.getInteger(CACHE_TTL_PROPERTY, 300), TimeUnit.SECONDS));
+	}
+
+	/********************************************************************
+	* Get the contact store selected by the contacts.store system property
+	* on its own, for bulk commands that would gain nothing from the cache
+	* and indexes
+	*********************************************************************/
+	private static ContactStore getBackingStore() {
+		if (LOCAL_STORE.equals(System.getProperty(STORE_PROPERTY))) {
+			return new EmbeddedContactStore(new File(System.getProperty(STORE_FILE_PROPERTY, DEFAULT_STORE_FILE)));
+		} else {
+			return new SimpleDBContactStore(getSimpleDBClient(), CONTACT_DOMAIN_TITLE);
 		}
-		
-		if (!domainExists) {
-			try {
-				simpleDBClient.createDomain(new CreateDomainRequest(CONTACT_DOMAIN_TITLE));
-			} catch (Exception ex) {
-				System.out.println(ex.getMessage());
+	}
+
+	/********************************************************************
+	* Get an id allocator with the block size and age from -Dcontacts.id.blockSize
+	* and -Dcontacts.id.maxBlockAgeSeconds
+	*********************************************************************/
+	private static ContactIdAllocator getIdAllocator(ContactStore backingStore) {
+		return new ContactIdAllocator(backingStore, Integer.getInteger(ID_BLOCK_SIZE_PROPERTY, 100),
+				TimeUnit.SECONDS.toMillis(Integer.getInteger(ID_BLOCK_AGE_PROPERTY, 300)));
+	}
+
+	/********************************************************************
+	* Run a command given on the command line:
+	* 		import <file>	bulk import contacts from a .csv or .vcf file
+	* 		export <file>	write every contact to a snapshot file
+	* 		batch <file|->	run create/edit/delete/search commands from a
+	* 						file or stdin (see ContactBatchRunner)
+	* 		serve [port]	serve the contacts as a JSON API over HTTP (see
+	* 						ContactHttpServer)
+	* Imported contacts get no S3 page or notification
+	*********************************************************************/
+	private static void runCommand(String[] args) throws Exception {
+		if (args[0].equals("import") && args.length == 2) {
+			ContactStore store = getBackingStore();
+			store.ensureDomainExists();
+			ContactImporter.importInto(store, getIdAllocator(store), new File(args[1]));
+		} else if (args[0].equals("export") && args.length == 2) {
+			ContactStore store = getBackingStore();
+			store.ensureDomainExists();
+			exportContacts(store, new File(args[1]));
+		} else if (args[0].equals("batch") && args.length == 2) {
+			setUp();
+			new ContactBatchRunner(contactStore, Integer.getInteger(BATCH_CONCURRENCY_PROPERTY, 8))
+					.run(args[1].equals("-") ? System.in : new FileInputStream(args[1]), System.out);
+		} else if (args[0].equals("serve") && args.length <= 2) {
+			setUp();
+			int port = args.length == 2 ? Integer.parseInt(args[1]) : Integer.getInteger(HTTP_PORT_PROPERTY, 8080);
+			ContactHttpServer server = new ContactHttpServer(contactStore, new InetSocketAddress(port),
+					Integer.getInteger(HTTP_BACKLOG_PROPERTY, 1024), Integer.getInteger(HTTP_THREADS_PROPERTY, 200));
+			server.start();
+			System.out.println("Serving contacts on http://localhost:" + server.getPort() + "/contacts ("
+					+ (server.isUsingVirtualThreads() ? "a virtual thread per request" : "a pool of request threads") + ")");
+		} else {
+			System.out.println("Usage: SimpleContacts [import <file.csv|file.vcf> | export <file> | batch <file|-> | serve [port]]");
+		}
+	}
+
+	/********************************************************************
+	* Stream every contact, page by page, into a snapshot file (see
+	* ContactSnapshotWriter)
+	*********************************************************************/
+	private static void exportContacts(ContactStore store, File file) throws Exception {
+		long startedAt = System.nanoTime();
+		ContactSnapshotWriter writer = new ContactSnapshotWriter(file);
+		try {
+			Iterator<Item> contacts = new ContactIterator(store, ContactQuery.all());
+			while (contacts.hasNext()) {
+				writer.write(contacts.next());
+				if (writer.getItemCount() % 100000 == 0) {
+					System.out.println("Exported " + writer.getItemCount() + " contacts...");
+				}
 			}
+			writer.close();
+		} catch (Exception ex) {
+			writer.abort();
+			throw ex;
 		}
+
+		double seconds = Math.max(0.001, (System.nanoTime() - startedAt) / 1e9);
+		System.out.println("Exported " + writer.getItemCount() + " contacts to " + file + " (" + file.length() + " bytes) in "
+				+ String.format("%.1f", seconds) + "s");
 	}
 
 	/********************************************************************
@@ -171,7 +308,8 @@ public class SimpleContacts {
 		switch(choice) {
 		case 0:
 			//terminate the program
-			System.out.println("\nThank you for using Simple Contact Manager. Goodbye.");
+			System.out.println("\n" + contactStore);
+			System.out.println("Thank you for using Simple Contact Manager. Goodbye.");
 			System.exit(0);
 			break;
 		case 1:
@@ -211,12 +349,10 @@ public class SimpleContacts {
 	* List the contacts in the user's contact database
 	*********************************************************************/
 	private static void listContacts() {
-        // Select all contacts
-        String selectExpression = "select * from `" + CONTACT_DOMAIN_TITLE + "`";
+        // Select all contacts, one page at a time
+        Iterator<Item> allContacts = new ContactIterator(contactStore, ContactQuery.all());
         
-        List<Item> allContacts = simpleDBClient.select(new SelectRequest(selectExpression)).getItems();
-        
-        if (allContacts.size() > 0) {
+        if (allContacts.hasNext()) {
         	System.out.println("All contacts:\n");
         	displayContacts(allContacts);
         } else {
@@ -226,29 +362,16 @@ public class SimpleContacts {
 	
 
 	/********************************************************************
-	* Print a collection of contacts
+	* Print a collection of contacts as they are streamed from the store
 	*********************************************************************/
-	private static void displayContacts(List<Item> contacts) {
-        String first = "",
-        		last = "";
-        
-        for (Item item : contacts) {
-            System.out.println("Contact ID: " + item.getName());
-            for (Attribute attribute : item.getAttributes()) {
-            	if (attribute.getName().equals(FIRST_KEY)) {
-            		first = attribute.getValue();
-            	} else if (attribute.getName().equals(LAST_KEY)) {
-            		last = attribute.getValue();
-            	}
-            }
+	private static void displayContacts(Iterator<Item> contacts) {
+        while (contacts.hasNext()) {
+        	Contact contact = ContactCodec.decode(contacts.next());
+            System.out.println("Contact ID: " + contact.getItemId());
+            
             // print the contact's name
-        	System.out.println("Name: " + first + " " + last + "\n");
-        	
-        	// reset first and last
-        	first = "";
-        	last = "";
+        	System.out.println("Name: " + contact.getFirst() + " " + contact.getLast() + "\n");
         }
-		
 	}
 
 	/********************************************************************
@@ -269,11 +392,10 @@ public class SimpleContacts {
 			return;
 		}
 		
-		// build query
-        String selectExpression = "select * from `" + CONTACT_DOMAIN_TITLE + "` where itemName() = '" + selectedContactId + "'";
+		// get the contact
+        Item item = contactStore.getContact(selectedContactId);
         
-        // execute query
-        for (Item item : simpleDBClient.select(new SelectRequest(selectExpression)).getItems()) {
+        if (item != null) {
             System.out.println("Contact ID: " + item.getName());
             for (Attribute attribute : item.getAttributes()) {
             	System.out.println(attribute.getName() + ": " + attribute.getValue());
@@ -299,144 +421,156 @@ public class SimpleContacts {
 		List<String> unusedAttributes = new ArrayList<String>(Arrays.asList(FIRST_KEY, LAST_KEY, PHONE_KEY, 
 				EMAIL_KEY, STREET_KEY, CITY_KEY, STATE_KEY, ZIP_KEY, TAG_KEY, BIRTHDAY_KEY));
 		
-		//collections of attributes to update/delete
-		Collection<ReplaceableAttribute> updateAttributes = new ArrayList<ReplaceableAttribute>();
-		Collection<Attribute> deleteAttributes = new ArrayList<Attribute>();
+		//the contact as loaded, and the contact as edited
+		Item item = contactStore.getContact(selectedContactId);
+		List<Attribute> loadedAttributes = item != null ? item.getAttributes() : new ArrayList<Attribute>();
+		List<Attribute> editedAttributes = new ArrayList<Attribute>();
 		
-		// build query
-        String selectExpression = "select * from `" + CONTACT_DOMAIN_TITLE + "` where itemName() = '" + selectedContactId + "'";
-        
         //initialize modification option to an invalid option
         int modifyOption = -1;
         
-        //initialize the new value for an attribute and first/last names
-        String newValue = ""
-        		, first = ""
-        		, last = "";
+        //initialize the new value for an attribute
+        String newValue = "";
         
         //let user review/edit existing attributes
         System.out.println("Step 1: Review/Edit/Delete existing attributes\n");
-        for (Item item : simpleDBClient.select(new SelectRequest(selectExpression)).getItems()) {
-            for (Attribute attribute : item.getAttributes()) {
-            	//remove this attribute name from the list of unused attributes
-            	unusedAttributes.remove(attribute.getName());
+        for (Attribute attribute : loadedAttributes) {
+        	int slot = ContactCodec.slotOf(attribute.getName());
+        	
+        	//remove this attribute name from the list of unused attributes
+        	unusedAttributes.remove(attribute.getName());
+        	
+        	//prompt user for a modification option (repeat if the user enters an invalid option)
+        	while (modifyOption == -1) {
+        		//show the attribute
+            	System.out.println("\n" + attribute.getName() + ": " + attribute.getValue());
             	
-            	//prompt user for a modification option (repeat if the user enters an invalid option)
-            	while (modifyOption == -1) {
-            		//show the attribute
-	            	System.out.println("\n" + attribute.getName() + ": " + attribute.getValue());
-	            	
-	            	//prompt the user for a modification option
-	            	System.out.println("Enter 0 to skip, 1 to edit, or 2 to delete this attribute");
-	            	
-	            	try {
-	            		modifyOption = Integer.valueOf(scn.nextLine());
-	            	} catch (NumberFormatException ex) {
-	            		System.out.println("Invalid entry. Please enter 0, 1, or 2");
-	            	}
-            	}
+            	//prompt the user for a modification option
+            	System.out.println("Enter 0 to skip, 1 to edit, or 2 to delete this attribute");
             	
-            	//handle the user's choice
-        		switch(modifyOption) {
-        		case 0:
-        			//skip this attribute
-        			if (attribute.getName().equals(FIRST_KEY)) first = attribute.getValue();
-        			if (attribute.getName().equals(LAST_KEY)) last = attribute.getValue();
-        			break;
-        		case 1:
-        			//modify this attribute
-        			System.out.println("Please enter a new value for this attribute:");
-        			
-        			//provide instructions for keys requiring special formatting
-        			if (attribute.getName().equals(TAG_KEY)) { 
-        				System.out.println("List Tags surrounded by [ ], eg, [cool][smart][awesome]");
-        			} else if (attribute.getName().equals(BIRTHDAY_KEY)) {
-        				System.out.println("Birthday must be in YYYY-MM-DD format");
-        			}
-        			
-        			//get the new value
-        			newValue = scn.nextLine();
-        			
-        			if (attribute.getName().equals(FIRST_KEY)) first = newValue;
-        			if (attribute.getName().equals(LAST_KEY)) last = newValue;
-        			
-        			//add the old attribute to attributes needing deletion
-        			deleteAttributes.add(attribute);
-        			
-        			//add the new value to attributes to update
-        			updateAttributes.add(new ReplaceableAttribute(attribute.getName(), newValue, true));
+            	try {
+            		modifyOption = Integer.valueOf(scn.nextLine());
+            	} catch (NumberFormatException ex) {
+            		System.out.println("Invalid entry. Please enter 0, 1, or 2");
+            	}
+        	}
+        	
+        	//handle the user's choice
+    		switch(modifyOption) {
+    		case 0:
+    			//skip this attribute
+    			editedAttributes.add(attribute);
+    			break;
+    		case 1:
+    			//modify this attribute
+    			System.out.println("Please enter a new value for this attribute:");
+    			
+    			//provide instructions for keys requiring special formatting
+    			if (slot == ContactCodec.TAG) { 
+    				System.out.println("List Tags surrounded by [ ], eg, [cool][smart][awesome]");
+    			} else if (slot == ContactCodec.BIRTHDAY) {
+    				System.out.println("Birthday must be in YYYY-MM-DD format");
+    			}
+    			
+    			//get the new value (birthdays are stored as YYYY-MM-DD so they sort as dates)
+    			newValue = scn.nextLine();
+    			if (slot == ContactCodec.BIRTHDAY) newValue = Birthdays.normalize(newValue);
+    			
+    			//an empty value deletes the attribute
+    			if (newValue.length() > 0) {
+    				editedAttributes.add(new Attribute(attribute.getName(), newValue));
+    			} else if (!unusedAttributes.contains(attribute.getName())) {
+    				unusedAttributes.add(attribute.getName());
+    			}
 
-        			break;
-        		case 2:
-        			//delete this attribute
-        			deleteAttributes.add(attribute);
-        			
-        			//put this attribute name back in unused attributes if it's not currently there
-        			if (!unusedAttributes.contains(attribute.getName())) unusedAttributes.add(attribute.getName());
-        			
-        			break;
-        		default:
-        			System.out.println(modifyOption + " is not a valid option. Please enter one of the numbers given");
-        		}
-            	
-        		//reset modifyOption
-        		modifyOption = -1;
-            }
-            System.out.println();
+    			break;
+    		case 2:
+    			//delete this attribute: put this attribute name back in unused attributes if it's not currently there
+    			if (!unusedAttributes.contains(attribute.getName())) unusedAttributes.add(attribute.getName());
+    			
+    			break;
+    		default:
+    			System.out.println(modifyOption + " is not a valid option. Please enter one of the numbers given");
+    			editedAttributes.add(attribute);
+    		}
+        	
+    		//reset modifyOption
+    		modifyOption = -1;
         }
+        System.out.println();
         
         System.out.println("Step 2: Input values for unused attributes (or skip optional attributes)\n");
         for (String attributeName : unusedAttributes) {
+        	//an attribute deleted in step 1 may still have other values (eg. a second phone number)
+        	if (attributeName.equals(FIRST_KEY) && hasAttribute(editedAttributes, FIRST_KEY)) continue;
+        	
         	System.out.println("Press enter to skip or input a value for " + attributeName);
         	newValue = scn.nextLine();
+        	if (attributeName.equals(BIRTHDAY_KEY)) newValue = Birthdays.normalize(newValue);
         	
-        	//add the new attribute if one was entered
-        	if (newValue.length() > 0) {
-        		updateAttributes.add(new ReplaceableAttribute(attributeName, newValue, true));
-        	} else if (attributeName.equals(FIRST_KEY) && first != "") {
-        		//ensure that a first name exists
-        		while (newValue.length() == 0) {
-        			System.out.println("First name is required. Please enter a value for first name:");
-        			newValue = scn.nextLine();
-        		}
- 
-        		//add the new first name value
-        		first = newValue;
-    			updateAttributes.add(new ReplaceableAttribute(FIRST_KEY, newValue, true));
-        	} else if (attributeName.equals(LAST_KEY)) {
-        		last = " ";
-        	} else {
-        		//optional attribute, just skip it
+        	//ensure that a first name exists
+        	while (attributeName.equals(FIRST_KEY) && newValue.length() == 0) {
+    			System.out.println("First name is required. Please enter a value for first name:");
+    			newValue = scn.nextLine();
         	}
+        	
+        	//add the new attribute if one was entered, otherwise it's optional so just skip it
+        	if (newValue.length() > 0) editedAttributes.add(new Attribute(attributeName, newValue));
         }
 		
-        //perform necessary updates
-        if (deleteAttributes.size() > 0 || updateAttributes.size() > 0) {
-	        try {
-	        	System.out.println("Performing updates. Please wait...");
-	        	//delete attributes
-	            if (deleteAttributes.size() > 0) simpleDBClient.deleteAttributes(new DeleteAttributesRequest().withDomainName(CONTACT_DOMAIN_TITLE).withItemName(selectedContactId).withAttributes(deleteAttributes));
-	    		
-	    		//add attributes
-	    		if (updateAttributes.size() > 0) simpleDBClient.putAttributes(new PutAttributesRequest().withDomainName(CONTACT_DOMAIN_TITLE).withItemName(selectedContactId).withAttributes(updateAttributes));
-	    		
-	    		//succesfully applied updates
-	    		System.out.println("Successfully updated contact in SimpleDB.");
-	    		
-	    		//update the contact's s3 object
-	    		updateContactInS3();
-	    		
-	    		// publish sns notification
-	    		String message = "{  \"updateType\" : \"edit\", \"itemName\" : " + "\"" + selectedContactId + "\", \"first\" : " + "\"" + first + "\", \"last\" : \"" + last + "\", \"url\" : \"" + "https://s3.amazonaws.com/" + CONTACT_DOMAIN_TITLE + "/" + first + last + selectedContactId + ".html\" }" ;
-	    		
-	    		snsClient.publish(new PublishRequest(UPDATE_TOPIC_ARN, message));
-	    		
-	        } catch (Exception ex) {
-	        	System.out.println("There was a problem performing updates. Please review this contact's details and try again.");
-	        }    
-        } else {
+        //write only what changed: usually a single put, a delete only for attributes removed outright
+        ContactAttributes.Delta delta = ContactAttributes.diff(loadedAttributes, editedAttributes);
+        if (delta.isEmpty()) {
         	System.out.println("No changes to be made.");
+        	return;
         }
+        
+        try {
+        	System.out.println("Performing updates. Please wait...");
+        	applyEdit(selectedContactId, delta, editedAttributes);
+    		
+    		//succesfully applied updates
+    		System.out.println("Successfully updated contact in SimpleDB.");
+        } catch (Exception ex) {
+        	System.out.println("There was a problem performing updates. Please review this contact's details and try again.");
+        }    
+	}
+
+	/********************************************************************
+	* Write the changes from a contact's loaded to its edited attributes,
+	* then record its S3 page and SNS notification. Returns false if
+	* nothing changed
+	*********************************************************************/
+	static boolean applyEdit(String itemId, List<Attribute> loadedAttributes, List<Attribute> editedAttributes) {
+		//write only what changed: usually a single put, a delete only for attributes removed outright
+		ContactAttributes.Delta delta = ContactAttributes.diff(loadedAttributes, editedAttributes);
+		if (delta.isEmpty()) {
+			return false;
+		}
+		applyEdit(itemId, delta, editedAttributes);
+		return true;
+	}
+
+	/********************************************************************
+	* Write an edit's already computed changes, then record the contact's
+	* S3 page and SNS notification
+	*********************************************************************/
+	private static void applyEdit(String itemId, ContactAttributes.Delta delta, List<Attribute> editedAttributes) {
+		if (delta.getPuts().size() > 0) contactStore.putAttributes(itemId, delta.getPuts());
+		if (delta.getDeletes().size() > 0) contactStore.deleteAttributes(itemId, delta.getDeletes());
+		
+		//the contact's s3 page (from the edited contact, without reading it back) and sns notification
+		Contact contact = ContactCodec.decode(new Item(itemId, editedAttributes));
+		String message = updateMessage("edit", itemId, contact);
+		
+		recordUpdate(ContactOutbox.PUT_PAGE, contact.getPageName(), editedAttributes, message);
+	}
+
+	private static boolean hasAttribute(List<Attribute> attributes, String name) {
+		for (Attribute attribute : attributes) {
+			if (attribute.getName().equals(name)) return true;
+		}
+		return false;
 	}
 
 	/********************************************************************
@@ -455,8 +589,8 @@ public class SimpleContacts {
 				birthday = "";
 		
 		//lists of phone numbers/labels and email addresses/labels
-		List<String> phoneRecords = new ArrayList<String>(),
-			emailRecords = new ArrayList<String>();
+		List<Contact.Labeled> phones = new ArrayList<Contact.Labeled>(),
+			emails = new ArrayList<Contact.Labeled>();
 			
 		//get the contact's first name
 		do {
@@ -475,7 +609,7 @@ public class SimpleContacts {
 			
 			//prompt user to input a phone number/label
 			System.out.print("Enter");
-			if (phoneRecords.size() == 0) {
+			if (phones.size() == 0) {
 				System.out.print(" a ");
 			} else {
 				System.out.print(" another ");
@@ -487,7 +621,7 @@ public class SimpleContacts {
 			phoneNumber = scn.nextLine();
 			
 			//add this phone record to our list if one was entered
-			if (phoneNumber.length() > 0) phoneRecords.add(phoneNumber);
+			if (phoneNumber.length() > 0) phones.add(new Contact.Labeled(phoneNumber));
 			
 		} while (phoneNumber.length() > 0);
 		
@@ -498,7 +632,7 @@ public class SimpleContacts {
 			
 			//prompt the user to input an email address
 			System.out.print("Enter");
-			if (emailRecords.size() == 0) {
+			if (emails.size() == 0) {
 				System.out.print(" an ");
 			} else {
 				System.out.print(" another ");
@@ -510,7 +644,7 @@ public class SimpleContacts {
 			emailAddress = scn.nextLine();
 			
 			//add this email address to our list if one was entered
-			if (emailAddress.length() > 0) emailRecords.add(emailAddress);
+			if (emailAddress.length() > 0) emails.add(new Contact.Labeled(emailAddress));
 			
 		} while (emailAddress.length() > 0);
 		
@@ -532,252 +666,64 @@ public class SimpleContacts {
 		
 		//get contact's birthday
 		System.out.println("Enter the birthday (must be in YYYY-MM-DD format) for this contact (optional - just press enter to skip):");
-		birthday = scn.nextLine();
+		birthday = Birthdays.normalize(scn.nextLine());
 
 		System.out.println("Enter tag(s) for this user separated by [ ], eg, [cool][smart][awesome] (optional - just press enter to skip):");
 		tags = scn.nextLine();
 		
 
 		//create the contact's database record
-		int itemId = createContactRecordInSimpleDB(first, last, phoneRecords, emailRecords, streetAddress, city, state, zip, tags, birthday);
-		if (itemId > -1) {
-			//create the contact's S3 page if the record was created correctly and notify SNS subscribers
-			try {
-				createContactPageInS3(itemId, first, last, phoneRecords, emailRecords, streetAddress, city, state, zip, tags, birthday);
-				
-				//publish SNS message
-				String message = "{  \"updateType\" : \"create\", \"itemName\" : " + "\"" + itemId + "\", \"first\" : " + "\"" + first + "\", \"last\" : \"" + last + "\", \"url\" : \"" + "https://s3.amazonaws.com/" + CONTACT_DOMAIN_TITLE + "/" + first + last + itemId + ".html\"}" ;
-				
-				snsClient.publish(new PublishRequest(UPDATE_TOPIC_ARN, message));
-			} catch (Exception ex) {
-				System.out.println("There was a problem creating the webpage for this contact.");
-				System.out.println(ex.getMessage());
-			}
-		}
+		createContactRecordInSimpleDB(new Contact(null, first, last, phones, emails, streetAddress, city, state, zip, tags, birthday));
 	}
 	
 	/********************************************************************
-	* Create a contact's SimpleDB record
+	* Create a contact's SimpleDB record, returning the stored contact
+	* (null if it could not be created)
 	*********************************************************************/
-	private static int createContactRecordInSimpleDB(String first,
-			String last, List<String> phoneRecords,
-			List<String> emailRecords, String streetAddress, String city,
-			String state, String zip, String tags, String birthday) {
+	private static Contact createContactRecordInSimpleDB(Contact contact) {
 		
 		//make sure a first name was entered
-		if (first.length() == 0) {
+		if (contact.getFirst().length() == 0) {
 			System.out.println("There was a problem creating this contact. First name is required. Please try again.");
-			return -1;
-		}
-		
-		//list of attributes to create with
-		Collection<ReplaceableAttribute> attributes = new ArrayList<ReplaceableAttribute>();
-		
-		//add first name attribute
-		attributes.add(new ReplaceableAttribute(FIRST_KEY, first, true));
-		
-		//add last name attribute if one was entered
-		if (last.length() > 0)  attributes.add(new ReplaceableAttribute(LAST_KEY, last, true)) ;
-		
-		//add phone number attributes if entered
-		for (String phoneRecord : phoneRecords) {
-			attributes.add(new ReplaceableAttribute(PHONE_KEY, phoneRecord, true));
+			return null;
 		}
 		
-		//add email address attributes if entered
-		for (String emailRecord : emailRecords) {
-			attributes.add(new ReplaceableAttribute(EMAIL_KEY, emailRecord, true));
-		}
-		
-		//add street address attribute if it was entered
-		if (streetAddress.length() > 0) attributes.add(new ReplaceableAttribute(STREET_KEY, streetAddress, true));
-		
-		//add city attribute if it was entered
-		if (city.length() > 0) attributes.add(new ReplaceableAttribute(CITY_KEY, city, true));
-		
-		//add zip attribute if it was entered
-		if (zip.length() > 0) attributes.add(new ReplaceableAttribute(ZIP_KEY, zip, true));
-		
-		//add state attribute if it was entered
-		if (state.length() > 0) attributes.add(new ReplaceableAttribute(STATE_KEY, state, true));
-		
-		//add tag attributes that were entered
-		if (tags.length() > 0) attributes.add(new ReplaceableAttribute(TAG_KEY, tags, true));
-		
-		//add birthday attribute if it was entered
-		if (birthday.length() > 0) attributes.add(new ReplaceableAttribute(BIRTHDAY_KEY, birthday, true));
-		
 		try {
-			//create the contact with a random id and the input attributes
-			int itemId = random.nextInt(10000);
-			simpleDBClient.putAttributes(new PutAttributesRequest().withItemName(String.valueOf(itemId)).withAttributes(attributes).withDomainName(CONTACT_DOMAIN_TITLE));
-			System.out.println("Successfully created new contact: " + first + " " + last);
-			return itemId;
+			Contact created = storeNewContact(contact);
+			System.out.println("Successfully created new contact: " + created.getFirst() + " " + created.getLast());
+			return created;
 		} catch (Exception ex) {
 			System.out.println("There was a problem adding your contact to SimpleDB, please try again.");
 		}
 		
-		return -1;
+		return null;
 	}
 	
 	/********************************************************************
-	* Create a contact's page in S3
-	 * @throws Exception 
+	* Store a new contact under a new id, then record its S3 page and SNS
+	* notification. Returns the stored contact
 	*********************************************************************/
-	private static void createContactPageInS3(int itemId, String first, String last,
-			List<String> phoneRecords, List<String> emailRecords,
-			String streetAddress, String city, String state, String zip,
-			String tags, String birthday) throws Exception {
-		
-		String htmlTemplateBeginning = "<!DOCTYPE html><html><body><table>";
-		String htmlTemplateEnding = "</body></html>";
-		String htmlHeaderRow = "<tr>";
-		String htmlDetailRow = "<tr>";
-
-		//build the document
-		//add a table cell for the first name
-		if (first.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + FIRST_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + first + "</td>";
-		} else {
-			return;
-		}
-		
-		//add a table cell for the last name if it was entered
-		if (last.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + LAST_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + last + "</td>";
-		}
-		
-		//add a table cell for each phone number that was entered
-		for (String phoneRecord : phoneRecords) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + PHONE_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + phoneRecord + "</td>";
+	static Contact storeNewContact(Contact contact) {
+		if (contact.getFirst().length() == 0) {
+			throw new IllegalArgumentException("First name is required");
 		}
 		
-		//add a table cell for each email address that was entered
-		for (String emailRecord : emailRecords) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + EMAIL_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + emailRecord + "</td>";
-		}
-		
-		//add a table cell for the street address if it was entered
-		if (streetAddress.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + STREET_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + streetAddress + "</td>";
-		}
-		
-		//add a table cell for the city if it was entered
-		if (city.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + CITY_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + city + "</td>";
-		}
-		
-		//add a table cell for the state if it was entered
-		if (state.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + STATE_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + state + "</td>";
-		}
+		//create the contact with a new id and the entered attributes
+		Contact created = contact.withItemId(idAllocator.nextId());
+		List<ReplaceableAttribute> puts = ContactCodec.encode(created);
+		contactStore.putAttributes(created.getItemId(), puts);
 		
-		//add a table cell for the zip if it was entered
-		if (zip.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + ZIP_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + zip + "</td>";
-		}
+		//create the contact's S3 page and notify SNS subscribers
+		String message = updateMessage("create", created.getItemId(), created);
 		
-		//add a table cell for the tags that were entered
-		if (tags.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + TAG_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + tags + "</td>";
+		List<Attribute> attributes = new ArrayList<Attribute>(puts.size());
+		for (ReplaceableAttribute attribute : puts) {
+			attributes.add(new Attribute(attribute.getName(), attribute.getValue()));
 		}
-		
-		//add a table cell for the birthday if it was entered
-		if (birthday.length() > 0) {
-			htmlHeaderRow = htmlHeaderRow + "<th>" + BIRTHDAY_KEY + "</th>";
-			htmlDetailRow = htmlDetailRow + "<td>" + birthday + "</td>";
-		}
-		
-		//terminate the rows
-		htmlHeaderRow = htmlHeaderRow + "</tr>";
-		htmlDetailRow = htmlDetailRow + "</tr>";
-		
-		String newDocument = htmlTemplateBeginning + htmlHeaderRow + htmlDetailRow + htmlTemplateEnding;
-		
-		String s3bucketName = "cspp51083.samuelh.simplecontacts";
-
-		//concatenate the file name (append a random number (not same as contact id) in case 
-		//multiple contacts are created with the same first name or contact edited many times) so the S3 object won't be overwritten
-		String fileName = first + last + String.valueOf(itemId) + ".html";
-		
-		//create the new HTML file
-		File contactDocument = new File (fileName);
-		FileWriter fw;
-		fw = new FileWriter(contactDocument);
-		fw.write(newDocument);
-		fw.close();
-		
-		//store HTML file with public accessibility in S3
-		s3client.putObject(new PutObjectRequest(s3bucketName, fileName, contactDocument).withCannedAcl(CannedAccessControlList.PublicRead));
-		
-		System.out.println("Succesfully added " + fileName + " to your S3 bucket " + s3bucketName);
-		
-		//delete the local file after storing in S3 so it is not retained
-		contactDocument.delete();
+		recordUpdate(ContactOutbox.PUT_PAGE, created.getPageName(), attributes, message);
+		return created;
 	}
 	
-	/********************************************************************
-	* Update a contact's web page in S3
-	*********************************************************************/
-	private static void updateContactInS3() {
-		String first = ""; 
-		String last = "";
-		List<String> phoneRecords = new ArrayList<String>(); 
-		List<String> emailRecords = new ArrayList<String>(); 
-		String streetAddress = ""; 
-		String city = ""; 
-		String state = ""; 
-		String zip = "";
-		String tags = ""; 
-		String birthday = "";
-		
-		// check that a contact has been selected
-		if (selectedContactId == null) {
-			System.out.println("Please select a contact first using this option");
-			return;
-		}
-		
-		// build query
-        String selectExpression = "select * from `" + CONTACT_DOMAIN_TITLE + "` where itemName() = '" + selectedContactId + "'";
-        
-        // execute query
-        for (Item item : simpleDBClient.select(new SelectRequest(selectExpression)).getItems()) {
-            //get the updated attributes
-            for (Attribute attribute : item.getAttributes()) {
-            	if (attribute.getName().equals(FIRST_KEY)) first = attribute.getValue();
-            	if (attribute.getName().equals(LAST_KEY)) last = attribute.getValue();
-            	if (attribute.getName().equals(PHONE_KEY)) phoneRecords.add(attribute.getValue());
-            	if (attribute.getName().equals(EMAIL_KEY)) emailRecords.add(attribute.getValue());
-            	if (attribute.getName().equals(STREET_KEY)) streetAddress = attribute.getValue();
-            	if (attribute.getName().equals(CITY_KEY)) city = attribute.getValue();
-            	if (attribute.getName().equals(STATE_KEY)) state = attribute.getValue();
-            	if (attribute.getName().equals(ZIP_KEY)) zip = attribute.getValue();
-            	if (attribute.getName().equals(TAG_KEY)) tags = attribute.getValue();
-            	if (attribute.getName().equals(BIRTHDAY_KEY)) birthday = attribute.getValue();
-            }
-            System.out.println();
-        }
-		
-        //create the web page for this updated contact in S3
-		try {
-			int itemId = Integer.valueOf(selectedContactId);
-			createContactPageInS3(itemId, first, last, phoneRecords, emailRecords,
-					streetAddress, city, state, zip, tags, birthday);
-		} catch (Exception e) {
-			System.out.println("There was a problem updating S3");
-			System.out.println(e.getMessage());
-		}
-	}
-
 	/********************************************************************
 	* Let the user search for a contact
 	*********************************************************************/
@@ -793,6 +739,7 @@ public class SimpleContacts {
 		System.out.println("7 - Birthday before");
 		System.out.println("8 - Birthday between");
 		System.out.println("9 - Birthday after");
+		System.out.println("10 - Tag expression (e.g. friend work|school !vendor)");
 		
 		//initialize choice to an invalid option
 		int choice = -1;
@@ -806,117 +753,138 @@ public class SimpleContacts {
 		}
 		
 		// build query
-        String baseSelectExpression = "select * from `" + CONTACT_DOMAIN_TITLE + "` where ";
-        String userInputWhereClause = "";
+        ContactQuery query = null;
         String userInputParameter = "";
         
-		//handle the user's choice
-		switch(choice) {
-		case 1:
-			//search for First name starts with
-			System.out.println("Please enter the character(s) the first name should start with:");
-			userInputParameter = scn.nextLine();
-			userInputWhereClause = " First like '" + userInputParameter + "%'";
-			break;
-		case 2:
-			//search for Last name starts with
-			System.out.println("Please enter the character(s) the last name should start with:");
-			userInputParameter = scn.nextLine();
-			userInputWhereClause = " Last like '" + userInputParameter + "%'";
-			break;
-		case 3:
-			//State equals
-			System.out.println("Please enter the two character state abbreviation (e.g., MD, NY, WA, etc.):");
-			userInputParameter = scn.nextLine();
-			userInputWhereClause = " State = '" + userInputParameter + "'";
-			break;
-		case 4:
-			//Zip equals
-			System.out.println("Please enter the five digit zip code:");
-			userInputParameter = scn.nextLine();
-			userInputWhereClause = " Zip = '" + userInputParameter + "'";
-			break;
-		case 5:
-			//Has Tag
-			System.out.println("Please enter a Tag (just the value, not the brackets):");
-			userInputParameter = scn.nextLine();
-			userInputWhereClause = " Tag like '%[" + userInputParameter + "]%'";
-			break;
-		case 6:
-			//Has multiple Tags
-			String aTag = "";
-			String userInputBeginWhereClause = " Tag like '%[";
-			String userInputEndWhereClause = "]%'";
-			boolean multipleTagInputFlag = false;
+		//handle the user's choice (a search the store cannot run is refused when it is built)
+		try {
+			switch(choice) {
+			case 1:
+				//search for First name starts with
+				System.out.println("Please enter the character(s) the first name should start with:");
+				userInputParameter = scn.nextLine();
+				query = ContactQuery.firstStartsWith(userInputParameter);
+				break;
+			case 2:
+				//search for Last name starts with
+				System.out.println("Please enter the character(s) the last name should start with:");
+				userInputParameter = scn.nextLine();
+				query = ContactQuery.lastStartsWith(userInputParameter);
+				break;
+			case 3:
+				//State equals
+				System.out.println("Please enter the two character state abbreviation (e.g., MD, NY, WA, etc.):");
+				userInputParameter = scn.nextLine();
+				query = ContactQuery.stateEquals(userInputParameter);
+				break;
+			case 4:
+				//Zip equals
+				System.out.println("Please enter the five digit zip code:");
+				userInputParameter = scn.nextLine();
+				query = ContactQuery.zipEquals(userInputParameter);
+				break;
+			case 5:
+				//Has Tag
+				System.out.println("Please enter a Tag (just the value, not the brackets):");
+				userInputParameter = scn.nextLine();
+				query = ContactQuery.hasTags(Arrays.asList(userInputParameter));
+				break;
+			case 6:
+				//Has multiple Tags
+				String aTag = "";
+				List<String> tags = new ArrayList<String>();
 			
-			//let the user input an arbitrary number of tags
-			do {
-				//prompt the user for a tag
-				if (aTag.length() == 0) {
-					System.out.print("Please enter a tag (just the value, not the brackets):");
-				} else {
-					System.out.println("Please enter another tag (or just press enter to finish entering tags):");
-					multipleTagInputFlag = true;
-				}
+				//let the user input an arbitrary number of tags
+				do {
+					//prompt the user for a tag
+					if (aTag.length() == 0) {
+						System.out.print("Please enter a tag (just the value, not the brackets):");
+					} else {
+						System.out.println("Please enter another tag (or just press enter to finish entering tags):");
+					}
 				
-				//get the input
-				aTag = scn.nextLine();
+					//get the input
+					aTag = scn.nextLine();
 				
-				//if a tag was entered, update the query string
-				if (aTag.length() > 0) {
-					//include an "and" if multiple tags have been entered
-					if (multipleTagInputFlag) {
-						userInputWhereClause = userInputWhereClause + " and ";
+					//if a tag was entered, add it to the query
+					if (aTag.length() > 0) {
+						tags.add(aTag);
 					}
-					
-					//append the input tag to the query
-					userInputWhereClause = userInputWhereClause + userInputBeginWhereClause + aTag + userInputEndWhereClause;
-				}
 				
-			} while(aTag.length() > 0);
-			break;
-		case 7:
-			//Birthday before
-			System.out.println("Please enter the date (in YYYY-MM-DD format) before which to search");
-			userInputParameter = scn.nextLine();
-			userInputWhereClause = " Birthday < '" + userInputParameter + "'";
-			break;
-		case 8:
-			//Birthday between
-			System.out.println("Please enter the date (in YYYY-MM-DD format) after which to search");
-			String firstDate = scn.nextLine();
-			System.out.println("Please enter the date (in YYYY-MM-DD format) before which to search");
-			String secondDate = scn.nextLine();
-			userInputWhereClause = " Birthday > '" + firstDate + "' and Birthday < '" + secondDate + "'";
-			break;
-		case 9:
-			//Birthday after
-			System.out.println("Please enter the date (in YYYY-MM-DD format) after which to search");
-			userInputParameter = scn.nextLine();
-			userInputWhereClause = " Birthday > '" + userInputParameter + "'";
-			break;
-		default:
-			System.out.println(choice + " is not a valid option. Please enter one of the numbers given");
+				} while(aTag.length() > 0);
+				query = ContactQuery.hasTags(tags);
+				break;
+			case 7:
+				//Birthday before
+				System.out.println("Please enter the date (in YYYY-MM-DD format) before which to search");
+				userInputParameter = scn.nextLine();
+				if (!isValidDate(userInputParameter)) return;
+				query = ContactQuery.birthdayBefore(userInputParameter);
+				break;
+			case 8:
+				//Birthday between
+				System.out.println("Please enter the date (in YYYY-MM-DD format) after which to search");
+				String firstDate = scn.nextLine();
+				System.out.println("Please enter the date (in YYYY-MM-DD format) before which to search");
+				String secondDate = scn.nextLine();
+				if (!isValidDate(firstDate) || !isValidDate(secondDate)) return;
+				query = ContactQuery.birthdayBetween(firstDate, secondDate);
+				break;
+			case 9:
+				//Birthday after
+				System.out.println("Please enter the date (in YYYY-MM-DD format) after which to search");
+				userInputParameter = scn.nextLine();
+				if (!isValidDate(userInputParameter)) return;
+				query = ContactQuery.birthdayAfter(userInputParameter);
+				break;
+			case 10:
+				//Tag expression
+				System.out.println("Please enter the tags separated by spaces. All of them must match.");
+				System.out.println("Use a|b for either of two tags and !a for contacts without a tag:");
+				userInputParameter = scn.nextLine();
+				if (userInputParameter.trim().length() == 0) {
+					System.out.println("Please enter at least one tag");
+					return;
+				}
+				query = ContactQuery.tagExpression(userInputParameter);
+				break;
+			default:
+				System.out.println(choice + " is not a valid option. Please enter one of the numbers given");
+				return;
+			} 
+		} catch (IllegalArgumentException ex) {
+			System.out.println(ex.getMessage());
 			return;
-		} 
+		}
 		
 		try {
 			//execute the query
-			List<Item> matchingContacts = simpleDBClient.select(new SelectRequest(baseSelectExpression + userInputWhereClause)).getItems();
+			Iterator<Item> matchingContacts = new ContactIterator(contactStore, query);
 			//display any matching contacts
-			if (matchingContacts.size() > 0) {
+			if (matchingContacts.hasNext()) {
 				System.out.println("\nResults:\n");
 				displayContacts(matchingContacts);
 			} else {
 				System.out.println("No contacts matched your search.");
 			}
 		} catch (Exception ex) {
-			System.out.println(baseSelectExpression);
+			System.out.println(query);
 			System.out.println(ex.getMessage());
 		}
 
 	}
 	
+	/********************************************************************
+	* Check that a search date can be parsed, telling the user if not
+	*********************************************************************/
+	private static boolean isValidDate(String date) {
+		if (Birthdays.toEpochDay(date) == Birthdays.UNPARSEABLE) {
+			System.out.println(date + " is not a valid date. Please use YYYY-MM-DD format");
+			return false;
+		}
+		return true;
+	}
+	
 	private static void deleteContact() {
 		// check that a contact has been selected
 		if (selectedContactId == null) {
@@ -924,29 +892,60 @@ public class SimpleContacts {
 			return;
 		}
 		
-		// delete from simpledb
-		simpleDBClient.deleteAttributes(new DeleteAttributesRequest().withDomainName(CONTACT_DOMAIN_TITLE).withItemName(selectedContactId));
+		removeContact(selectedContactId);
+	}
+	
+	/********************************************************************
+	* Delete a contact, then record the deletion of its S3 page and its SNS
+	* notification. Returns false if there was no such contact
+	*********************************************************************/
+	static boolean removeContact(String itemId) {
+		// get the contact's S3 page name before it is deleted
+        Item item = contactStore.getContact(itemId);
+        String pageName = item != null ? ContactCodec.decode(item).getPageName() : itemId + ".html";
 		
-		// delete from s3
-        String selectExpression = "select * from `" + CONTACT_DOMAIN_TITLE + "` where itemName() = '" + selectedContactId + "'";
-        String first = "", 
-        		last = "";
-        
-        for (Item item : simpleDBClient.select(new SelectRequest(selectExpression)).getItems()) {
-            for (Attribute attribute : item.getAttributes()) {
-            	if (attribute.getName().equals(FIRST_KEY)) {
-            		first = attribute.getValue();
-            	} else if (attribute.getName().equals(LAST_KEY)) {
-            		last = attribute.getValue();
-            	}
-            }
-        }
-		s3client.deleteObject(new DeleteObjectRequest(CONTACT_DOMAIN_TITLE, first + last + selectedContactId + ".html"));
+		// delete from the contact store
+		contactStore.deleteAttributes(itemId, null);
 		
-		// publish sns notification
-		String message = "{ \"updateType\" : \"delete\", \"itemName\" : " + "\"" + selectedContactId + "\" }";
+		// delete from s3 and publish sns notification
+		String message = updateMessage("delete", itemId, null);
 		
-		snsClient.publish(new PublishRequest(UPDATE_TOPIC_ARN, message));
+		recordUpdate(ContactOutbox.DELETE_PAGE, pageName, new ArrayList<Attribute>(), message);
+		return item != null;
+	}
+	
+	/********************************************************************
+	* Record the S3 page and SNS notification that follow a contact write
+	* (when running against AWS). They are completed in the background once
+	* the record is on disk in the outbox, so they survive failures and
+	* restarts
+	*********************************************************************/
+	private static void recordUpdate(byte pageAction, String pageName, List<Attribute> attributes, String message) {
+		if (outbox == null) {
+			return;
+		}
+		try {
+			outboxDrainer.submit(outbox.append(pageAction, CONTACT_DOMAIN_TITLE, pageName, attributes, message));
+		} catch (Exception ex) {
+			System.out.println("There was a problem recording the page update and notification for this contact: " + ex.getMessage());
+		}
+	}
+	
+	/********************************************************************
+	* Build an update notification: the update type and item name, plus the
+	* contact's names and page url for creates and edits. Serialized with
+	* Jackson so any name is escaped properly
+	*********************************************************************/
+	private static String updateMessage(String updateType, String itemId, Contact contact) {
+		Map<String, String> message = new LinkedHashMap<String, String>();
+		message.put("updateType", updateType);
+		message.put("itemName", itemId);
+		if (contact != null) {
+			message.put("first", contact.getFirst());
+			message.put("last", contact.getLast());
+			message.put("url", "https://s3.amazonaws.com/" + CONTACT_DOMAIN_TITLE + "/" + contact.getPageName());
+		}
+		return Jackson.toJsonString(message);
 	}
 	
 	private static void sendSNSUpdate(String actionType, String first, String last, String url) {
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.CreateDomainRequest;
+import com.amazonaws.services.simpledb.model.DeleteAttributesRequest;
+import com.amazonaws.services.simpledb.model.GetAttributesRequest;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ListDomainsResult;
+import com.amazonaws.services.simpledb.model.PutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+import com.amazonaws.services.simpledb.model.UpdateCondition;
+
+/**
+ * Contact store backed by a SimpleDB domain
+ */
+public class SimpleDBContactStore implements ContactStore {
+	//largest page SimpleDB will return for a select
+	private static final int PAGE_SIZE = 2500;
+	
+	//most comparisons SimpleDB allows in one "in (...)" predicate
+	private static final int MAX_IN_VALUES = 20;
+
+	private final AmazonSimpleDB simpleDBClient;
+	private final String domainName;
+
+	public SimpleDBContactStore(AmazonSimpleDB simpleDBClient, String domainName) {
+		this.simpleDBClient = simpleDBClient;
+		this.domainName = domainName;
+	}
+
+	/********************************************************************
+	* Make sure the contacts domain exists for our user on SimpleDB.
+	* If not, create it.
+	*********************************************************************/
+	public void ensureDomainExists() {
+		//Although createDomain() is idemponent, the documentation warns that it
+		//could take up to 10 seconds to create the domain, so we should only call createDomain() once per user
+		boolean domainExists = false;
+		ListDomainsResult domains = simpleDBClient.listDomains();
+
+		for (String existingDomainName : domains.getDomainNames()) {
+			if (existingDomainName.equals(domainName)) {
+				domainExists = true;
+				break;
+			}
+		}
+
+		if (!domainExists) {
+			try {
+				simpleDBClient.createDomain(new CreateDomainRequest(domainName));
+			} catch (Exception ex) {
+				System.out.println(ex.getMessage());
+			}
+		}
+	}
+
+	public Item getContact(String itemName) {
+		return getContact(new GetAttributesRequest(domainName, itemName));
+	}
+
+	public Item getLatestContact(String itemName) {
+		return getContact(new GetAttributesRequest(domainName, itemName).withConsistentRead(true));
+	}
+
+	private Item getContact(GetAttributesRequest request) {
+		List<Attribute> attributes = simpleDBClient.getAttributes(request).getAttributes();
+
+		//SimpleDB returns no attributes for an item that does not exist
+		if (attributes.size() == 0) {
+			return null;
+		}
+
+		return new Item(request.getItemName(), attributes);
+	}
+
+	public List<Item> getContacts(List<String> itemNames) {
+		Map<String, Item> itemsByName = new HashMap<String, Item>();
+
+		//look the items up 20 at a time with "itemName() in (...)"
+		for (int start = 0; start < itemNames.size(); start += MAX_IN_VALUES) {
+			StringBuilder selectExpression = new StringBuilder("select * from `").append(domainName).append("` where itemName() in (");
+			for (int i = start; i < Math.min(itemNames.size(), start + MAX_IN_VALUES); i++) {
+				if (i > start) selectExpression.append(", ");
+				selectExpression.append('\'').append(itemNames.get(i).replace("'", "''")).append('\'');
+			}
+			selectExpression.append(')');
+
+			for (Item item : simpleDBClient.select(new SelectRequest(selectExpression.toString())).getItems()) {
+				itemsByName.put(item.getName(), item);
+			}
+		}
+
+		//put them back in the requested order
+		List<Item> items = new ArrayList<Item>(itemsByName.size());
+		for (String itemName : itemNames) {
+			Item item = itemsByName.get(itemName);
+			if (item != null) items.add(item);
+		}
+		return items;
+	}
+
+	public ContactPage select(ContactQuery query, String nextToken) {
+		SelectResult result = simpleDBClient.select(new SelectRequest(query.toSelectExpression(domainName) + " limit " + PAGE_SIZE)
+				.withNextToken(nextToken));
+		return new ContactPage(result.getItems(), result.getNextToken());
+	}
+
+	public void putAttributes(String itemName, Collection<ReplaceableAttribute> attributes) {
+		simpleDBClient.putAttributes(new PutAttributesRequest().withDomainName(domainName).withItemName(itemName).withAttributes(attributes));
+	}
+
+	public void batchPutAttributes(List<ReplaceableItem> items) {
+		simpleDBClient.batchPutAttributes(new BatchPutAttributesRequest(domainName, items));
+	}
+
+	public boolean conditionalPut(String itemName, Collection<ReplaceableAttribute> attributes, String expectedName, String expectedValue) {
+		UpdateCondition expected = expectedValue == null
+				? new UpdateCondition().withName(expectedName).withExists(false)
+				: new UpdateCondition(expectedName, expectedValue, true);
+
+		try {
+			simpleDBClient.putAttributes(new PutAttributesRequest(domainName, itemName, new ArrayList<ReplaceableAttribute>(attributes), expected));
+			return true;
+		} catch (AmazonServiceException ex) {
+			//SimpleDB reports a value that differs, or a value that was expected but is missing
+			if ("ConditionalCheckFailed".equals(ex.getErrorCode()) || "AttributeDoesNotExist".equals(ex.getErrorCode())) {
+				return false;
+			}
+			throw ex;
+		}
+	}
+
+	public void deleteAttributes(String itemName, Collection<Attribute> attributes) {
+		DeleteAttributesRequest request = new DeleteAttributesRequest().withDomainName(domainName).withItemName(itemName);
+		if (attributes != null && attributes.size() > 0) request.setAttributes(attributes);
+		simpleDBClient.deleteAttributes(request);
+	}
+}
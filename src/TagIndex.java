@@ -0,0 +1,57 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps each tag to a compressed bitmap of the ordinals of the contacts
+ * carrying it, so tag searches combine bitmaps instead of scanning the
+ * domain.
+ *
+ * Not thread-safe; IndexedContactStore guards it with its lock.
+ */
+public class TagIndex {
+	private static final CompressedBitmap NO_CONTACTS = new CompressedBitmap();
+
+	private final Map<String, CompressedBitmap> bitmaps = new HashMap<String, CompressedBitmap>();
+
+	public void add(String tag, int ordinal) {
+		CompressedBitmap bitmap = bitmaps.get(tag);
+		if (bitmap == null) {
+			bitmap = new CompressedBitmap();
+			bitmaps.put(tag, bitmap);
+		}
+		bitmap.set(ordinal);
+	}
+
+	public void remove(String tag, int ordinal) {
+		CompressedBitmap bitmap = bitmaps.get(tag);
+		if (bitmap == null) {
+			return;
+		}
+
+		bitmap.clear(ordinal);
+		if (bitmap.isEmpty()) bitmaps.remove(tag);
+	}
+
+	/********************************************************************
+	* Contacts carrying a tag. The bitmap must not be modified
+	*********************************************************************/
+	public CompressedBitmap get(String tag) {
+		CompressedBitmap bitmap = bitmaps.get(tag);
+		return bitmap == null ? NO_CONTACTS : bitmap;
+	}
+
+	/********************************************************************
+	* Contacts carrying any of the given tags
+	*********************************************************************/
+	public CompressedBitmap any(String[] tags) {
+		CompressedBitmap result = NO_CONTACTS;
+		for (String tag : tags) {
+			result = result.or(get(tag));
+		}
+		return result;
+	}
+
+	public int tagCount() {
+		return bitmaps.size();
+	}
+}
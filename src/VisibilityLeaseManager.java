@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+
+/**
+ * Keeps in-flight messages invisible on their queue while they are being
+ * worked on. A message is leased when it is received and released when
+ * its work is done. A heartbeat runs several times per visibility
+ * timeout and, for every lease that is past half of its current
+ * visibility, extends the visibility by another timeout. The extensions
+ * are sent with ChangeMessageVisibilityBatch, 10 leases per request.
+ *
+ * A lease is no longer extended once it reaches the maximum lease time,
+ * so a stuck handler cannot hold a message forever.
+ */
+public class VisibilityLeaseManager {
+	private static final int MAX_CHANGES_PER_BATCH = 10;
+
+	private final AmazonSQS sqsClient;
+	private final String queueUrl;
+	private final int visibilityTimeoutSeconds;
+	private final long maxLeaseNanos;
+	private final Map<String,Lease> leases = new ConcurrentHashMap<String,Lease>();
+	private final ScheduledExecutorService heartbeat;
+
+	private final AtomicLong extendedCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+
+	private static class Lease {
+		final Message message;
+		final long leasedAt;
+		volatile long visibleAt;
+
+		Lease(Message message, long leasedAt, long visibleAt) {
+			this.message = message;
+			this.leasedAt = leasedAt;
+			this.visibleAt = visibleAt;
+		}
+	}
+
+	public VisibilityLeaseManager(AmazonSQS sqsClient, String queueUrl, int visibilityTimeoutSeconds, int maxLeaseSeconds) {
+		this.sqsClient = sqsClient;
+		this.queueUrl = queueUrl;
+		this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+		this.maxLeaseNanos = TimeUnit.SECONDS.toNanos(maxLeaseSeconds);
+		this.heartbeat = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("sqs-visibility-heartbeat"));
+
+		long periodMillis = Math.max(250, TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 4);
+		heartbeat.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				extendDueLeases();
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public int getVisibilityTimeoutSeconds() {
+		return visibilityTimeoutSeconds;
+	}
+
+	/********************************************************************
+	* Start leasing a message that was just received with this manager's
+	* visibility timeout
+	*********************************************************************/
+	public void lease(Message message) {
+		long now = System.nanoTime();
+		leases.put(message.getReceiptHandle(), new Lease(message, now, now + TimeUnit.SECONDS.toNanos(visibilityTimeoutSeconds)));
+	}
+
+	/********************************************************************
+	* Stop leasing a message whose work is done
+	*********************************************************************/
+	public void release(Message message) {
+		leases.remove(message.getReceiptHandle());
+	}
+
+	/********************************************************************
+	* Stop the heartbeat. Leases that are still held simply run out
+	*********************************************************************/
+	public void shutdown() {
+		heartbeat.shutdownNow();
+	}
+
+	public int getLeaseCount() {
+		return leases.size();
+	}
+
+	public long getExtendedCount() {
+		return extendedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return leases.size() + " leased, " + extendedCount + " extended, " + expiredCount + " reached the maximum lease";
+	}
+
+	private void extendDueLeases() {
+		long now = System.nanoTime();
+		long halfTimeout = TimeUnit.SECONDS.toNanos(visibilityTimeoutSeconds) / 2;
+		List<Lease> due = new ArrayList<Lease>();
+
+		for (Lease lease : leases.values()) {
+			if (lease.visibleAt - now > halfTimeout) {
+				continue;
+			}
+			if (now - lease.leasedAt >= maxLeaseNanos) {
+				//give up on it; the message becomes visible and is redelivered
+				leases.remove(lease.message.getReceiptHandle());
+				expiredCount.incrementAndGet();
+				continue;
+			}
+			due.add(lease);
+		}
+
+		for (int from = 0; from < due.size(); from += MAX_CHANGES_PER_BATCH) {
+			extend(due.subList(from, Math.min(due.size(), from + MAX_CHANGES_PER_BATCH)), now);
+		}
+	}
+
+	private void extend(List<Lease> batch, long now) {
+		List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			entries.add(new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(i), batch.get(i).message.getReceiptHandle())
+					.withVisibilityTimeout(visibilityTimeoutSeconds));
+		}
+
+		try {
+			ChangeMessageVisibilityBatchResult result = sqsClient.changeMessageVisibilityBatch(
+					new ChangeMessageVisibilityBatchRequest(queueUrl, entries));
+
+			long visibleAt = now + TimeUnit.SECONDS.toNanos(visibilityTimeoutSeconds);
+			for (int i = 0; i < batch.size(); i++) {
+				batch.get(i).visibleAt = visibleAt;
+			}
+			extendedCount.addAndGet(result.getSuccessful().size());
+
+			//a failed entry's receipt handle is no longer valid, so stop extending it
+			for (BatchResultErrorEntry error : result.getFailed()) {
+				Lease lease = batch.get(Integer.parseInt(error.getId()));
+				leases.remove(lease.message.getReceiptHandle());
+				System.out.println("Could not extend visibility of msg " + lease.message.getMessageId() + ": " + error.getMessage());
+			}
+		} catch (Exception ex) {
+			//retried on the next heartbeat
+			System.out.println("There was a problem extending visibility of " + batch.size() + " messages: " + ex.getMessage());
+		}
+	}
+}
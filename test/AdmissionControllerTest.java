@@ -0,0 +1,28 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+	@Test
+	public void admitsUpToTheRoomLeft() throws InterruptedException {
+		AdmissionController admission = new AdmissionController(15);
+
+		assertEquals(10, admission.admit(10, 0, TimeUnit.MILLISECONDS));
+		assertEquals(5, admission.admit(10, 0, TimeUnit.MILLISECONDS));
+		assertEquals(15, admission.getInFlight());
+	}
+
+	@Test
+	public void admitsNothingOnceFullUntilRoomIsGivenBack() throws InterruptedException {
+		AdmissionController admission = new AdmissionController(10);
+		admission.admit(10, 0, TimeUnit.MILLISECONDS);
+
+		assertEquals(0, admission.admit(10, 50, TimeUnit.MILLISECONDS));
+
+		admission.release(3);
+		assertEquals(3, admission.admit(10, 0, TimeUnit.MILLISECONDS));
+		assertEquals(10, admission.getInFlight());
+	}
+}
@@ -0,0 +1,46 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BirthdayIndexTest {
+	@Test
+	public void boundsAndSlicesARange() {
+		BirthdayIndex birthdays = new BirthdayIndex();
+		birthdays.add(day("1990-01-01"), 4);
+		birthdays.add(day("1980-06-15"), 2);
+		birthdays.add(day("1985-03-01"), 3);
+		birthdays.add(day("1985-03-01"), 1);
+		birthdays.add(day("2000-12-31"), 5);
+
+		//strictly between 1980-06-15 and 1990-01-01
+		int start = birthdays.upperBound(day("1980-06-15"));
+		int end = birthdays.lowerBound(day("1990-01-01"));
+		assertEquals(2, end - start);
+		assertArrayEquals(new int[] { 1, 3 }, birthdays.slice(start, end, 0, 10));
+		assertArrayEquals(new int[] { 3 }, birthdays.slice(start, end, 1, 10));
+		assertArrayEquals(new int[0], birthdays.slice(start, end, 2, 10));
+
+		//everyone, a page at a time
+		assertArrayEquals(new int[] { 2, 1 }, birthdays.slice(0, birthdays.size(), 0, 2));
+		assertArrayEquals(new int[] { 3, 4 }, birthdays.slice(0, birthdays.size(), 2, 2));
+		assertArrayEquals(new int[] { 5 }, birthdays.slice(0, birthdays.size(), 4, 2));
+	}
+
+	@Test
+	public void bulkLoadSortsByBirthday() {
+		BirthdayIndex birthdays = new BirthdayIndex();
+		birthdays.startBulkLoad();
+		birthdays.add(day("2000-01-01"), 1);
+		birthdays.add(day("1970-01-01"), 2);
+		birthdays.add(day("1985-01-01"), 3);
+		birthdays.finishBulkLoad();
+		birthdays.remove(day("1985-01-01"), 3);
+
+		assertArrayEquals(new int[] { 2, 1 }, birthdays.slice(0, birthdays.size(), 0, 10));
+	}
+
+	private static int day(String date) {
+		return Birthdays.toEpochDay(date);
+	}
+}
@@ -0,0 +1,125 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+public class CachingContactStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CountingStore backingStore;
+	private CachingContactStore store;
+
+	@Before
+	public void openStore() {
+		backingStore = new CountingStore(new File(folder.getRoot(), "contacts.db"));
+		backingStore.ensureDomainExists();
+		backingStore.putAttributes("1", Arrays.asList(first("Ann"), phone("555-0001")));
+		store = new CachingContactStore(backingStore, 100, 1, TimeUnit.HOURS);
+	}
+
+	@After
+	public void closeStore() throws IOException {
+		backingStore.close();
+	}
+
+	@Test
+	public void readsAContactThroughOnce() {
+		assertEquals("Ann", firstOf(store.getContact("1")));
+		assertEquals("Ann", firstOf(store.getContact("1")));
+		assertEquals(1, store.getContacts(Arrays.asList("1")).size());
+		assertEquals(1, backingStore.reads.get());
+		assertEquals(2, store.getHitCount());
+
+		//only the contacts that are not cached are read, in one call
+		assertEquals(1, store.getContacts(Arrays.asList("1", "2")).size());
+		assertEquals(2, backingStore.reads.get());
+	}
+
+	@Test
+	public void appliesWritesToTheCachedCopy() {
+		store.getContact("1");
+		store.putAttributes("1", Arrays.asList(first("Anne")));
+		store.deleteAttributes("1", Arrays.asList(new Attribute(SimpleContacts.PHONE_KEY, null)));
+
+		Item item = store.getContact("1");
+		assertEquals("Anne", firstOf(item));
+		assertEquals(1, item.getAttributes().size());
+		assertEquals(1, backingStore.reads.get());
+
+		store.deleteAttributes("1", null);
+		assertNull(store.getContact("1"));
+		assertEquals(2, backingStore.reads.get());
+	}
+
+	@Test
+	public void aReadRacingAWriteDoesNotCacheTheOldContact() {
+		//the backing store returns the contact as it was, while a write goes through the cache
+		backingStore.duringNextRead = new Runnable() {
+			public void run() {
+				store.putAttributes("1", Arrays.asList(first("Anne")));
+			}
+		};
+		assertEquals("Ann", firstOf(store.getContact("1")));
+
+		assertEquals("Anne", firstOf(store.getContact("1")));
+	}
+
+	private static ReplaceableAttribute first(String first) {
+		return new ReplaceableAttribute(SimpleContacts.FIRST_KEY, first, true);
+	}
+
+	private static ReplaceableAttribute phone(String phone) {
+		return new ReplaceableAttribute(SimpleContacts.PHONE_KEY, phone, true);
+	}
+
+	private static String firstOf(Item item) {
+		for (Attribute attribute : item.getAttributes()) {
+			if (attribute.getName().equals(SimpleContacts.FIRST_KEY)) return attribute.getValue();
+		}
+		return null;
+	}
+
+	//counts reads of single contacts and contact lists, and can run a write in the middle of one
+	private static class CountingStore extends EmbeddedContactStore {
+		private final AtomicInteger reads = new AtomicInteger();
+		private Runnable duringNextRead;
+
+		private CountingStore(File journalFile) {
+			super(journalFile);
+		}
+
+		@Override
+		public Item getContact(String itemName) {
+			reads.incrementAndGet();
+			Item item = super.getContact(itemName);
+			if (duringNextRead != null) {
+				Runnable write = duringNextRead;
+				duringNextRead = null;
+				write.run();
+			}
+			return item;
+		}
+
+		@Override
+		public List<Item> getContacts(List<String> itemNames) {
+			reads.incrementAndGet();
+			return super.getContacts(itemNames);
+		}
+	}
+}
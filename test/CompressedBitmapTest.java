@@ -0,0 +1,45 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CompressedBitmapTest {
+	@Test
+	public void slicesSetOrdinalsAcrossWords() {
+		CompressedBitmap bitmap = bitmapOf(1, 63, 64, 200, 5000);
+
+		assertEquals(5, bitmap.cardinality());
+		assertArrayEquals(new int[] { 1, 63, 64, 200, 5000 }, bitmap.toArray(0, 10));
+		assertArrayEquals(new int[] { 64, 200 }, bitmap.toArray(2, 2));
+		assertArrayEquals(new int[] { 5000 }, bitmap.toArray(4, 2));
+		assertArrayEquals(new int[0], bitmap.toArray(5, 2));
+		assertArrayEquals(new int[0], bitmap.toArray(50, 2));
+	}
+
+	@Test
+	public void combinesBitmaps() {
+		CompressedBitmap friends = bitmapOf(1, 2, 64, 300);
+		CompressedBitmap work = bitmapOf(2, 3, 300, 4000);
+
+		assertArrayEquals(new int[] { 2, 300 }, friends.and(work).toArray(0, 10));
+		assertArrayEquals(new int[] { 1, 2, 3, 64, 300, 4000 }, friends.or(work).toArray(0, 10));
+		assertArrayEquals(new int[] { 1, 64 }, friends.andNot(work).toArray(0, 10));
+	}
+
+	@Test
+	public void clearedOrdinalsAreNotSliced() {
+		CompressedBitmap bitmap = bitmapOf(5, 70, 130);
+		bitmap.clear(70);
+
+		assertArrayEquals(new int[] { 5, 130 }, bitmap.toArray(0, 10));
+		assertArrayEquals(new int[] { 130 }, bitmap.toArray(1, 10));
+	}
+
+	private static CompressedBitmap bitmapOf(int... ordinals) {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		for (int ordinal : ordinals) {
+			bitmap.set(ordinal);
+		}
+		return bitmap;
+	}
+}
@@ -0,0 +1,97 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+public class ContactAttributesTest {
+	@Test
+	public void unchangedAttributesNeedNoWrites() {
+		List<Attribute> attributes = Arrays.asList(new Attribute("First", "Ann"), new Attribute("Phone", "555-1234"));
+
+		assertTrue(ContactAttributes.diff(attributes, new ArrayList<Attribute>(attributes)).isEmpty());
+	}
+
+	@Test
+	public void changedValueIsReplaced() {
+		ContactAttributes.Delta delta = ContactAttributes.diff(
+				Arrays.asList(new Attribute("First", "Ann"), new Attribute("Zip", "60637")),
+				Arrays.asList(new Attribute("First", "Ann"), new Attribute("Zip", "60615")));
+
+		assertEquals(Arrays.asList(new ReplaceableAttribute("Zip", "60615", true)), delta.getPuts());
+		assertEquals(Collections.<Attribute>emptyList(), delta.getDeletes());
+	}
+
+	@Test
+	public void addedValueIsPutWithoutReplacing() {
+		ContactAttributes.Delta delta = ContactAttributes.diff(
+				Arrays.asList(new Attribute("Phone", "555-1234")),
+				Arrays.asList(new Attribute("Phone", "555-1234"), new Attribute("Phone", "555-9876")));
+
+		assertEquals(Arrays.asList(new ReplaceableAttribute("Phone", "555-9876", false)), delta.getPuts());
+		assertEquals(Collections.<Attribute>emptyList(), delta.getDeletes());
+	}
+
+	@Test
+	public void removedAttributeIsDeletedByName() {
+		ContactAttributes.Delta delta = ContactAttributes.diff(
+				Arrays.asList(new Attribute("First", "Ann"), new Attribute("City", "Chicago")),
+				Arrays.asList(new Attribute("First", "Ann")));
+
+		assertEquals(Collections.<ReplaceableAttribute>emptyList(), delta.getPuts());
+		assertEquals(Arrays.asList(new Attribute().withName("City")), delta.getDeletes());
+	}
+
+	@Test
+	public void removedValueAloneIsDeleted() {
+		ContactAttributes.Delta delta = ContactAttributes.diff(
+				Arrays.asList(new Attribute("Phone", "555-1234"), new Attribute("Phone", "555-9876")),
+				Arrays.asList(new Attribute("Phone", "555-1234")));
+
+		assertEquals(Collections.<ReplaceableAttribute>emptyList(), delta.getPuts());
+		assertEquals(Arrays.asList(new Attribute("Phone", "555-9876")), delta.getDeletes());
+	}
+
+	@Test
+	public void removedValueRidesAlongWithAPut() {
+		//there is a put anyway, so replacing the remaining phone saves a delete request
+		ContactAttributes.Delta delta = ContactAttributes.diff(
+				Arrays.asList(new Attribute("Zip", "60637"), new Attribute("Phone", "555-1234"), new Attribute("Phone", "555-9876")),
+				Arrays.asList(new Attribute("Zip", "60615"), new Attribute("Phone", "555-1234")));
+
+		assertEquals(Arrays.asList(new ReplaceableAttribute("Zip", "60615", true), new ReplaceableAttribute("Phone", "555-1234", true)),
+				delta.getPuts());
+		assertEquals(Collections.<Attribute>emptyList(), delta.getDeletes());
+	}
+
+	@Test
+	public void appliedDeltaGivesTheNewAttributes() {
+		List<Attribute> oldAttributes = Arrays.asList(new Attribute("First", "Ann"), new Attribute("City", "Chicago"),
+				new Attribute("Phone", "555-1234"), new Attribute("Phone", "555-9876"));
+		List<Attribute> newAttributes = Arrays.asList(new Attribute("First", "Anne"), new Attribute("Phone", "555-1234"),
+				new Attribute("Email", "anne@example.com"));
+
+		ContactAttributes.Delta delta = ContactAttributes.diff(oldAttributes, newAttributes);
+		List<Attribute> applied = new ArrayList<Attribute>(oldAttributes);
+		ContactAttributes.applyPut(applied, delta.getPuts());
+		ContactAttributes.applyDelete(applied, delta.getDeletes());
+
+		assertEquals(sorted(newAttributes), sorted(applied));
+	}
+
+	private static List<String> sorted(List<Attribute> attributes) {
+		List<String> values = new ArrayList<String>();
+		for (Attribute attribute : attributes) {
+			values.add(attribute.getName() + "=" + attribute.getValue());
+		}
+		Collections.sort(values);
+		return values;
+	}
+}
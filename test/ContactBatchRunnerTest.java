@@ -0,0 +1,128 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.util.json.Jackson;
+
+public class ContactBatchRunnerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EmbeddedContactStore store;
+
+	@Before
+	public void openStore() {
+		store = new EmbeddedContactStore(new File(folder.getRoot(), "contacts.db"));
+		store.ensureDomainExists();
+		SimpleContacts.useStore(store, new ContactIdAllocator(store, 10, TimeUnit.MINUTES.toMillis(5)));
+	}
+
+	@After
+	public void closeStore() throws IOException {
+		store.close();
+	}
+
+	@Test
+	public void runsJsonCommandsAndWritesOneResultPerCommandInInputOrder() throws Exception {
+		List<Map<String, Object>> created = run(8,
+				"{\"op\":\"create\",\"First\":\"Ann\",\"Last\":\"Lee\",\"Phone\":[\"555-1234,home\"]}",
+				"",
+				"{\"op\":\"create\",\"First\":\"Bob\",\"Last\":\"Ray\"}");
+		assertEquals(3, created.size());
+		assertEquals(Arrays.asList(1, 2), Arrays.asList(created.get(0).get("n"), created.get(1).get("n")));
+		assertSummary(created.get(2), 2, 0);
+		String annId = (String) created.get(0).get("id");
+
+		List<Map<String, Object>> results = run(1,
+				"{\"op\":\"edit\",\"id\":\"" + annId + "\",\"Zip\":\"60637\",\"Phone\":[]}",
+				"{\"op\":\"search\",\"by\":\"zip\",\"value\":\"60637\"}",
+				"{\"op\":\"delete\",\"id\":\"" + created.get(1).get("id") + "\"}");
+		assertEquals(true, results.get(0).get("changed"));
+		assertEquals(Arrays.asList(annId), results.get(1).get("ids"));
+		assertEquals(true, results.get(2).get("found"));
+		assertSummary(results.get(3), 3, 0);
+
+		Item ann = store.getContact(annId);
+		assertEquals("60637", ContactCodec.decode(ann).getZip());
+		assertTrue(ContactCodec.decode(ann).getPhones().isEmpty());
+		assertNull(store.getContact((String) created.get(1).get("id")));
+	}
+
+	@Test
+	public void reportsCommandsThatFailAndRunsTheRest() throws Exception {
+		List<Map<String, Object>> results = run(2,
+				"{not json",
+				"{\"op\":\"rename\"}",
+				"{\"op\":\"edit\",\"id\":\"000000000000999\",\"Zip\":\"60637\"}",
+				"{\"op\":\"create\",\"Nickname\":\"Al\"}",
+				"{\"op\":\"create\",\"First\":\"Cat\"}");
+
+		for (int i = 0; i < 4; i++) {
+			assertEquals(false, results.get(i).get("ok"));
+		}
+		assertTrue(((String) results.get(0).get("error")).startsWith("Could not read the command"));
+		assertTrue(((String) results.get(1).get("error")).startsWith("Unknown op \"rename\""));
+		assertEquals("There is no contact 000000000000999", results.get(2).get("error"));
+		assertEquals("Could not read the command: Unknown field \"Nickname\"", results.get(3).get("error"));
+		assertEquals(true, results.get(4).get("ok"));
+		assertSummary(results.get(5), 5, 4);
+	}
+
+	@Test
+	public void readsCsvCommandsUnderAHeader() throws Exception {
+		List<Map<String, Object>> results = run(1,
+				"op,First,Last,Email",
+				"create,Dan,Eve,dan@example.com;eve@example.com",
+				"search,,,",
+				"create,Eve,,");
+		assertEquals(true, results.get(0).get("ok"));
+		assertEquals(false, results.get(1).get("ok"));
+		assertEquals(true, results.get(2).get("ok"));
+
+		Item dan = store.getContact((String) results.get(0).get("id"));
+		assertEquals(2, ContactCodec.decode(dan).getEmails().size());
+	}
+
+	//run the lines as a batch, returning the parsed result lines and the summary last
+	@SuppressWarnings("unchecked")
+	private List<Map<String, Object>> run(int concurrency, String... lines) throws Exception {
+		StringBuilder input = new StringBuilder();
+		for (String line : lines) {
+			input.append(line).append('\n');
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new ContactBatchRunner(store, concurrency).run(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)),
+				new PrintStream(output, true, "UTF-8"));
+
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+		for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+			results.add(Jackson.fromJsonString(line, Map.class));
+		}
+		return results;
+	}
+
+	private static void assertSummary(Map<String, Object> summary, int commands, int failed) {
+		assertEquals(true, summary.get("summary"));
+		assertEquals(commands, summary.get("commands"));
+		assertEquals(failed, summary.get("failed"));
+	}
+}
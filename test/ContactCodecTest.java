@@ -0,0 +1,65 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+public class ContactCodecTest {
+	@Test
+	public void decodesWhatItEncodes() {
+		Contact contact = new Contact("000000000000042", "Ann", "Lee",
+				Arrays.asList(new Contact.Labeled("773-202-5862", "Work"), new Contact.Labeled("555-1234", "")),
+				Arrays.asList(new Contact.Labeled("ann@example.com", "Home")),
+				"5801 S Ellis Ave", "Chicago", "IL", "60637", "[friend][work]", "1980-04-01");
+
+		assertSameContact(contact, roundTrip(contact));
+	}
+
+	@Test
+	public void decodesAMinimalContact() {
+		Contact contact = new Contact("000000000000001", "Ann", "", Collections.<Contact.Labeled>emptyList(),
+				Collections.<Contact.Labeled>emptyList(), "", "", "", "", "", "");
+
+		assertEquals(1, ContactCodec.encode(contact).size());
+		assertSameContact(contact, roundTrip(contact));
+	}
+
+	@Test
+	public void ignoresAttributesThatAreNotContactAttributes() {
+		Contact contact = ContactCodec.decode(new Item("000000000000007",
+				Arrays.asList(new Attribute("First", "Ann"), new Attribute("NextBlock", "000000000000003"))));
+
+		assertEquals("Ann", contact.getFirst());
+		assertEquals(ContactCodec.UNKNOWN, ContactCodec.slotOf("NextBlock"));
+	}
+
+	private static Contact roundTrip(Contact contact) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		for (ReplaceableAttribute attribute : ContactCodec.encode(contact)) {
+			assertEquals(Boolean.TRUE, attribute.getReplace());
+			attributes.add(new Attribute(attribute.getName(), attribute.getValue()));
+		}
+		return ContactCodec.decode(new Item(contact.getItemId(), attributes));
+	}
+
+	private static void assertSameContact(Contact expected, Contact actual) {
+		assertEquals(expected.getItemId(), actual.getItemId());
+		assertEquals(expected.getFirst(), actual.getFirst());
+		assertEquals(expected.getLast(), actual.getLast());
+		assertEquals(expected.getPhones(), actual.getPhones());
+		assertEquals(expected.getEmails(), actual.getEmails());
+		assertEquals(expected.getStreet(), actual.getStreet());
+		assertEquals(expected.getCity(), actual.getCity());
+		assertEquals(expected.getState(), actual.getState());
+		assertEquals(expected.getZip(), actual.getZip());
+		assertEquals(expected.getTagValue(), actual.getTagValue());
+		assertEquals(expected.getBirthday(), actual.getBirthday());
+	}
+}
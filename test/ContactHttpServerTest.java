@@ -0,0 +1,160 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.util.json.Jackson;
+
+public class ContactHttpServerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EmbeddedContactStore backingStore;
+	private ContactHttpServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		backingStore = new EmbeddedContactStore(new File(folder.getRoot(), "contacts.db"));
+		backingStore.ensureDomainExists();
+		IndexedContactStore store = new IndexedContactStore(backingStore);
+		store.ensureDomainExists();
+		SimpleContacts.useStore(store, new ContactIdAllocator(backingStore, 10, TimeUnit.MINUTES.toMillis(5)));
+
+		server = new ContactHttpServer(store, new InetSocketAddress("localhost", 0), 16, 4);
+		server.start();
+	}
+
+	@After
+	public void stopServer() throws InterruptedException, IOException {
+		server.stop(0);
+		backingStore.close();
+	}
+
+	@Test
+	public void createsReadsEditsAndDeletesAContact() throws IOException {
+		Response created = request("POST", "/contacts", "{\"First\":\"Ann\",\"Last\":\"Lee\",\"Phone\":[\"555-1234,home\"]}");
+		assertEquals(201, created.status);
+		String id = (String) created.body.get("id");
+		assertEquals("/contacts/" + id, created.location);
+
+		Response read = request("GET", "/contacts/" + id, null);
+		assertEquals(200, read.status);
+		assertEquals("Ann", read.body.get("First"));
+		assertEquals(Arrays.asList("555-1234,home"), read.body.get("Phone"));
+
+		Response edited = request("PUT", "/contacts/" + id, "{\"State\":\"IL\"}");
+		assertEquals(200, edited.status);
+		assertEquals(true, edited.body.get("changed"));
+		assertEquals("IL", request("GET", "/contacts/" + id, null).body.get("State"));
+
+		assertEquals(200, request("DELETE", "/contacts/" + id, null).status);
+		assertEquals(404, request("GET", "/contacts/" + id, null).status);
+		assertEquals(404, request("DELETE", "/contacts/" + id, null).status);
+	}
+
+	@Test
+	public void listsAndSearchesContacts() throws IOException {
+		request("POST", "/contacts", "{\"First\":\"Ann\",\"State\":\"IL\"}");
+		request("POST", "/contacts", "{\"First\":\"Bob\",\"State\":\"NY\"}");
+
+		Response all = request("GET", "/contacts", null);
+		assertEquals(200, all.status);
+		assertEquals(2, ((List<?>) all.body.get("contacts")).size());
+		assertNull(all.body.get("next"));
+
+		Response illinois = request("GET", "/contacts?by=state&value=IL", null);
+		List<?> contacts = (List<?>) illinois.body.get("contacts");
+		assertEquals(1, contacts.size());
+		assertEquals("Ann", ((Map<?, ?>) contacts.get(0)).get("First"));
+	}
+
+	@Test
+	public void completesNamesFromTheIndex() throws IOException {
+		request("POST", "/contacts", "{\"First\":\"Ann\",\"Last\":\"Lee\"}");
+		request("POST", "/contacts", "{\"First\":\"Ann\",\"Last\":\"Ray\"}");
+		request("POST", "/contacts", "{\"First\":\"Anna\",\"Last\":\"Lee\"}");
+		request("POST", "/contacts", "{\"First\":\"Bob\",\"Last\":\"Lee\"}");
+
+		Response names = request("GET", "/names?by=first&prefix=An", null);
+		assertEquals(200, names.status);
+		assertEquals(Arrays.asList("Ann", "Anna"), names.body.get("names"));
+		assertEquals(Arrays.asList("Lee"), request("GET", "/names?by=last&prefix=L&limit=1", null).body.get("names"));
+
+		assertEquals(400, request("GET", "/names?by=middle&prefix=A", null).status);
+		assertEquals(400, request("GET", "/names?by=first&prefix=A&limit=0", null).status);
+		assertEquals(405, request("POST", "/names", "{}").status);
+	}
+
+	@Test
+	public void answersBadRequestsWithAnError() throws IOException {
+		assertEquals(400, request("POST", "/contacts", "not json").status);
+		assertEquals(400, request("POST", "/contacts", "{\"Last\":\"Lee\"}").status);
+		Response unknownField = request("POST", "/contacts", "{\"First\":\"Ann\",\"Nickname\":\"An\"}");
+		assertEquals(400, unknownField.status);
+		assertEquals("Unknown field \"Nickname\"", unknownField.body.get("error"));
+		assertEquals(400, request("GET", "/contacts?by=shoe&value=9", null).status);
+
+		assertEquals(404, request("PUT", "/contacts/000000000000999", "{\"State\":\"IL\"}").status);
+		assertEquals(404, request("GET", "/contacts/a/b", null).status);
+		assertEquals(405, request("DELETE", "/contacts", null).status);
+	}
+
+	private Response request(String method, String path, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+		connection.setRequestMethod(method);
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			} finally {
+				out.close();
+			}
+		}
+
+		Response response = new Response();
+		response.status = connection.getResponseCode();
+		response.location = connection.getHeaderField("Location");
+		InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		try {
+			response.body = Jackson.fromJsonString(read(in), Map.class);
+		} finally {
+			in.close();
+		}
+		return response;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = in.read(buffer)) > 0;) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static class Response {
+		int status;
+		String location;
+		Map<?, ?> body;
+	}
+}
@@ -0,0 +1,100 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.simpledb.model.Item;
+
+public class ContactIdAllocatorTest {
+	private static final int BLOCK_SIZE = 10;
+	private static final long MAX_BLOCK_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EmbeddedContactStore store;
+
+	@Before
+	public void openStore() {
+		store = new EmbeddedContactStore(new File(folder.getRoot(), "contacts.db"));
+		store.ensureDomainExists();
+	}
+
+	@After
+	public void closeStore() throws IOException {
+		store.close();
+	}
+
+	@Test
+	public void nodesSharingAStoreNeverHandOutTheSameId() {
+		ContactIdAllocator first = new ContactIdAllocator(store, BLOCK_SIZE, MAX_BLOCK_AGE_MILLIS);
+		ContactIdAllocator second = new ContactIdAllocator(store, BLOCK_SIZE, MAX_BLOCK_AGE_MILLIS);
+
+		Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < 5 * BLOCK_SIZE; i++) {
+			assertTrue(ids.add(first.nextId()));
+			assertTrue(ids.add(second.nextId()));
+		}
+	}
+
+	@Test
+	public void idsSortInTheOrderTheyWereHandedOut() {
+		ContactIdAllocator allocator = new ContactIdAllocator(store, BLOCK_SIZE, MAX_BLOCK_AGE_MILLIS);
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 3 * BLOCK_SIZE; i++) {
+			ids.add(allocator.nextId());
+		}
+
+		List<String> sorted = new ArrayList<String>(ids);
+		Collections.sort(sorted);
+		assertEquals(ids, sorted);
+		assertEquals("000000000000000", ids.get(0));
+	}
+
+	@Test
+	public void aLeasedRangeIsNotHandedOutAgain() {
+		ContactIdAllocator allocator = new ContactIdAllocator(store, BLOCK_SIZE, MAX_BLOCK_AGE_MILLIS);
+		long start = allocator.leaseIds(25);
+
+		for (int i = 0; i < 3 * BLOCK_SIZE; i++) {
+			long id = Long.parseLong(allocator.nextId());
+			assertTrue(id + " is in the leased range", id < start || id >= start + 25);
+		}
+	}
+
+	@Test
+	public void readsTheCounterConsistently() {
+		//a store whose ordinary reads never see the counter, like a lagging SimpleDB replica
+		EmbeddedContactStore stale = new EmbeddedContactStore(new File(folder.getRoot(), "stale.db")) {
+			@Override
+			public Item getContact(String itemName) {
+				return null;
+			}
+		};
+		stale.ensureDomainExists();
+		try {
+			ContactIdAllocator allocator = new ContactIdAllocator(stale, BLOCK_SIZE, MAX_BLOCK_AGE_MILLIS);
+			allocator.leaseIds(BLOCK_SIZE);
+			assertEquals(ContactIdAllocator.format(BLOCK_SIZE), allocator.nextId());
+		} finally {
+			try {
+				stale.close();
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+}
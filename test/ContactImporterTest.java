@@ -0,0 +1,148 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+public class ContactImporterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private RecordingStore store;
+	private ContactIdAllocator idAllocator;
+
+	@Before
+	public void openStore() {
+		store = new RecordingStore(new File(folder.getRoot(), "contacts.db"));
+		store.ensureDomainExists();
+		idAllocator = new ContactIdAllocator(store, 10, TimeUnit.MINUTES.toMillis(5));
+	}
+
+	@After
+	public void closeStore() throws IOException {
+		store.close();
+	}
+
+	@Test
+	public void importsEveryRecordAndListsTheRejectedOnes() throws IOException, InterruptedException {
+		List<String> rows = new ArrayList<String>();
+		for (int i = 1; i <= 60; i++) {
+			rows.add("Person" + i + ",Doe,1980-01-01");
+		}
+		rows.set(9, ",NoFirst,1980-01-01");
+		rows.set(19, "Person20,Doe,not a date");
+		File file = csv("contacts.csv", rows);
+
+		new ContactImporter(store, idAllocator, 2, 0).importFile(file);
+
+		assertEquals(58, store.stored.size());
+		assertFalse(new File(file.getPath() + ".checkpoint").exists());
+		String rejected = new String(Files.readAllBytes(new File(file.getPath() + ".rejected").toPath()), StandardCharsets.UTF_8);
+		assertEquals("record 10: no first name\nrecord 20: birthday not a date is not a date\n", rejected);
+	}
+
+	@Test
+	public void aResumedImportOverwritesTheContactsItMayHaveStoredBefore() throws IOException, InterruptedException {
+		List<String> rows = new ArrayList<String>();
+		for (int i = 1; i <= 100; i++) {
+			rows.add("Person" + i + ",Doe,");
+		}
+		File file = csv("contacts.csv", rows);
+		File checkpointFile = new File(file.getPath() + ".checkpoint");
+
+		//the third batch (records 51 to 75) is rejected, so the first run stops being sure after record 50
+		store.failingFirst = "Person60";
+		new ContactImporter(store, idAllocator, 1, 0).importFile(file);
+		assertTrue(checkpointFile.exists());
+		Map<String, String> namesOfFirstRun = new HashMap<String, String>(store.attempted);
+		store.stored.clear();
+		store.attempted.clear();
+
+		store.failingFirst = null;
+		new ContactImporter(store, idAllocator, 1, 0).importFile(file);
+		assertFalse(checkpointFile.exists());
+
+		//only the records after the checkpoint are written again, under the names they were given the first time
+		assertEquals(50, store.stored.size());
+		for (Map.Entry<String, String> contact : store.attempted.entrySet()) {
+			int record = Integer.parseInt(contact.getValue().substring("Person".length()));
+			assertTrue(record > 50);
+			assertEquals(namesOfFirstRun.get(contact.getKey()), contact.getValue());
+		}
+	}
+
+	private File csv(String name, List<String> rows) throws IOException {
+		File file = folder.newFile(name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			out.write("First,Last,Birthday\n");
+			for (String row : rows) {
+				out.write(row + "\n");
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	//records the item names (and first names) of batch puts, and rejects batches holding one first name
+	private static class RecordingStore extends EmbeddedContactStore {
+		private final Map<String, String> attempted = Collections.synchronizedMap(new HashMap<String, String>());
+		private final List<String> stored = Collections.synchronizedList(new ArrayList<String>());
+		private volatile String failingFirst;
+
+		private RecordingStore(File journalFile) {
+			super(journalFile);
+		}
+
+		@Override
+		public void batchPutAttributes(List<ReplaceableItem> batch) {
+			boolean fail = false;
+			for (ReplaceableItem item : batch) {
+				String first = firstOf(item);
+				attempted.put(item.getName(), first);
+				if (first.equals(failingFirst)) fail = true;
+			}
+			if (fail) {
+				AmazonServiceException rejected = new AmazonServiceException("rejected");
+				rejected.setErrorType(AmazonServiceException.ErrorType.Client);
+				rejected.setStatusCode(400);
+				throw rejected;
+			}
+
+			super.batchPutAttributes(batch);
+			for (ReplaceableItem item : batch) {
+				stored.add(item.getName());
+			}
+		}
+
+		private static String firstOf(ReplaceableItem item) {
+			for (ReplaceableAttribute attribute : item.getAttributes()) {
+				if (attribute.getName().equals(SimpleContacts.FIRST_KEY)) return attribute.getValue();
+			}
+			return "";
+		}
+	}
+}
@@ -0,0 +1,88 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+
+public class ContactIteratorTest {
+	@Test
+	public void walksEveryPageInOrderSkippingEmptyOnes() {
+		PagedStore store = new PagedStore(Arrays.asList("a", "b"), Collections.<String>emptyList(), Arrays.asList("c"));
+		ContactIterator contacts = new ContactIterator(store, ContactQuery.all());
+
+		List<String> names = new ArrayList<String>();
+		while (contacts.hasNext()) {
+			names.add(contacts.next().getName());
+		}
+		assertEquals(Arrays.asList("a", "b", "c"), names);
+		assertFalse(contacts.hasNext());
+		try {
+			contacts.next();
+			fail("next() past the last contact");
+		} catch (NoSuchElementException expected) {
+		}
+	}
+
+	@Test
+	public void fetchesTheNextPageWhileTheCurrentOneIsRead() throws InterruptedException {
+		PagedStore store = new PagedStore(Arrays.asList("a", "b"), Arrays.asList("c"));
+		ContactIterator contacts = new ContactIterator(store, ContactQuery.all());
+
+		assertEquals("a", contacts.next().getName());
+		assertTrue(store.secondPageRequested.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void rethrowsTheStoresException() {
+		PagedStore store = new PagedStore(Arrays.asList("a")) {
+			@Override
+			public ContactPage select(ContactQuery query, String nextToken) {
+				throw new IllegalArgumentException("bad query");
+			}
+		};
+
+		try {
+			new ContactIterator(store, ContactQuery.all()).hasNext();
+			fail("the store's exception was swallowed");
+		} catch (IllegalArgumentException expected) {
+			assertEquals("bad query", expected.getMessage());
+		}
+	}
+
+	//serves fixed pages of item names, with the page number as the next token
+	private static class PagedStore extends EmbeddedContactStore {
+		private final List<List<String>> pages;
+		private final CountDownLatch secondPageRequested = new CountDownLatch(1);
+
+		@SafeVarargs
+		private PagedStore(List<String>... pages) {
+			super(new File("unused.db"));
+			this.pages = Arrays.asList(pages);
+		}
+
+		@Override
+		public ContactPage select(ContactQuery query, String nextToken) {
+			int page = nextToken == null ? 0 : Integer.parseInt(nextToken);
+			if (page == 1) secondPageRequested.countDown();
+
+			List<Item> items = new ArrayList<Item>();
+			for (String name : pages.get(page)) {
+				items.add(new Item(name, Arrays.asList(new Attribute(SimpleContacts.FIRST_KEY, name))));
+			}
+			return new ContactPage(items, page + 1 < pages.size() ? String.valueOf(page + 1) : null);
+		}
+	}
+}
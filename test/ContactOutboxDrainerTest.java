@@ -0,0 +1,146 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.simpledb.model.Attribute;
+
+public class ContactOutboxDrainerTest {
+	private static final String BUCKET = "drainer-test";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ContactOutbox outbox;
+	private FailingS3 s3;
+	private ContactOutboxDrainer drainer;
+
+	@Before
+	public void setUp() throws IOException {
+		outbox = new ContactOutbox(folder.newFolder("outbox"), 64 * 1024);
+		outbox.open();
+		//every put of a page for "Old" fails, so those intents are only done once they skip their page
+		s3 = new FailingS3("Old");
+		drainer = new ContactOutboxDrainer(outbox, s3, null, 2, 5000);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException, IOException {
+		drainer.shutdown(0, TimeUnit.SECONDS);
+		outbox.close();
+	}
+
+	@Test
+	public void aRetriedPutDoesNotOverwriteANewerPut() throws InterruptedException {
+		String key = "AnnLee1.html";
+		drainer.submit(put(key, "Old"));
+		assertTrue(s3.putFailed.await(5, TimeUnit.SECONDS));
+
+		//the newer page is written while the older one waits to retry
+		drainer.submit(put(key, "Ann"));
+		assertTrue(drainer.shutdown(10, TimeUnit.SECONDS));
+
+		assertEquals(Arrays.asList("put " + key + " Ann"), s3.operations);
+	}
+
+	@Test
+	public void aRetriedPutDoesNotBringBackADeletedPage() throws InterruptedException {
+		String key = "BobRay2.html";
+		drainer.submit(put(key, "Old"));
+		assertTrue(s3.putFailed.await(5, TimeUnit.SECONDS));
+
+		drainer.submit(outbox.append(ContactOutbox.DELETE_PAGE, BUCKET, key, Collections.<Attribute>emptyList(), ""));
+		assertTrue(drainer.shutdown(10, TimeUnit.SECONDS));
+
+		assertEquals(Arrays.asList("delete " + key), s3.operations);
+	}
+
+	@Test
+	public void writesEveryPageOnce() throws InterruptedException {
+		drainer.submit(put("CatDoe3.html", "Cat"));
+		drainer.submit(put("DanEve4.html", "Dan"));
+		assertTrue(drainer.shutdown(10, TimeUnit.SECONDS));
+
+		List<String> operations = new ArrayList<String>(s3.operations);
+		Collections.sort(operations);
+		assertEquals(Arrays.asList("put CatDoe3.html Cat", "put DanEve4.html Dan"), operations);
+		assertEquals(2, drainer.getCompletedCount());
+	}
+
+	private ContactOutbox.Intent put(String key, String first) {
+		return outbox.append(ContactOutbox.PUT_PAGE, BUCKET, key,
+				Arrays.asList(new Attribute("First", first)), "");
+	}
+
+	//fails the puts of pages for one first name, and records the puts and deletes that succeed
+	private static class FailingS3 extends AbstractAmazonS3 {
+		private final String failingFirst;
+		private final CountDownLatch putFailed = new CountDownLatch(1);
+		private final List<String> operations = Collections.synchronizedList(new ArrayList<String>());
+
+		private FailingS3(String failingFirst) {
+			this.failingFirst = failingFirst;
+		}
+
+		@Override
+		public PutObjectResult putObject(PutObjectRequest request) {
+			//the first name is the page's first column
+			String page = read(request.getInputStream());
+			int start = page.indexOf("<td>") + "<td>".length();
+			String first = page.substring(start, page.indexOf('<', start));
+			if (first.equals(failingFirst)) {
+				putFailed.countDown();
+				throw new AmazonServiceException("S3 is unavailable");
+			}
+			operations.add("put " + request.getKey() + " " + first);
+			return new PutObjectResult();
+		}
+
+		//no page is stored, so every page is uploaded
+		@Override
+		public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+			AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+			notFound.setStatusCode(404);
+			throw notFound;
+		}
+
+		@Override
+		public void deleteObject(String bucketName, String key) {
+			operations.add("delete " + key);
+		}
+
+		private static String read(InputStream in) {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				for (int n; (n = in.read(buffer)) > 0;) {
+					out.write(buffer, 0, n);
+				}
+				return new String(out.toByteArray(), StandardCharsets.UTF_8);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+
+public class ContactOutboxTest {
+	private static final int SEGMENT_SIZE = 64 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysIntentsThatAreNotDone() throws IOException {
+		File directory = folder.newFolder("outbox");
+		ContactOutbox outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		outbox.open();
+		ContactOutbox.Intent done = append(outbox, "Ann");
+		ContactOutbox.Intent pending = append(outbox, "Bob");
+		outbox.markDone(done);
+		outbox.close();
+
+		outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		List<ContactOutbox.Intent> replayed = outbox.open();
+		outbox.close();
+
+		assertEquals(Arrays.asList(pending.getId()), idsOf(replayed));
+		ContactOutbox.Intent intent = replayed.get(0);
+		assertEquals(ContactOutbox.PUT_PAGE, intent.getPageAction());
+		assertEquals("bucket", intent.getBucketName());
+		assertEquals("Bob.html", intent.getPageKey());
+		assertEquals(Arrays.asList(new Attribute("First", "Bob"), new Attribute("Phone", "555-1234, Home")), intent.getAttributes());
+		assertEquals("{\"first\":\"Bob\"}", intent.getMessage());
+	}
+
+	@Test
+	public void stopsReplayingAtARecordThatFailsItsChecksum() throws IOException {
+		File directory = folder.newFolder("outbox");
+		ContactOutbox outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		outbox.open();
+		ContactOutbox.Intent first = append(outbox, "Ann");
+		ContactOutbox.Intent second = append(outbox, "Bob");
+		ContactOutbox.Intent corrupted = append(outbox, "Cat");
+		outbox.close();
+
+		//flip a byte of the last record's payload, past its length and checksum
+		corrupt(directory, corrupted, 8 + 1);
+
+		outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		assertEquals(Arrays.asList(first.getId(), second.getId()), idsOf(outbox.open()));
+
+		//the damaged segment is kept, and the log goes on in a new one
+		ContactOutbox.Intent later = append(outbox, "Dan");
+		outbox.close();
+
+		outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		assertEquals(Arrays.asList(first.getId(), second.getId(), later.getId()), idsOf(outbox.open()));
+		outbox.close();
+	}
+
+	@Test
+	public void stopsReplayingAtATornRecord() throws IOException {
+		File directory = folder.newFolder("outbox");
+		ContactOutbox outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		outbox.open();
+		ContactOutbox.Intent first = append(outbox, "Ann");
+		ContactOutbox.Intent torn = append(outbox, "Bob");
+		outbox.close();
+
+		//a record's length is written last, so a crash part way through leaves it zero
+		RandomAccessFile file = new RandomAccessFile(segmentOf(directory, torn), "rw");
+		try {
+			file.seek(torn.getId() & 0xffffffffL);
+			file.writeInt(0);
+		} finally {
+			file.close();
+		}
+
+		outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		assertEquals(Arrays.asList(first.getId()), idsOf(outbox.open()));
+		outbox.close();
+	}
+
+	@Test
+	public void deletesSegmentsOnceTheirIntentsAreDone() throws IOException {
+		File directory = folder.newFolder("outbox");
+		ContactOutbox outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		outbox.open();
+		ContactOutbox.Intent intent = append(outbox, "Ann");
+		outbox.close();
+
+		outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		List<ContactOutbox.Intent> replayed = outbox.open();
+		assertEquals(2, outbox.getSegmentCount());
+		assertEquals(Arrays.asList(intent.getId()), idsOf(replayed));
+
+		outbox.markDone(replayed.get(0));
+		assertEquals(1, outbox.getSegmentCount());
+		outbox.close();
+
+		outbox = new ContactOutbox(directory, SEGMENT_SIZE);
+		assertEquals(0, outbox.open().size());
+		outbox.close();
+	}
+
+	private static ContactOutbox.Intent append(ContactOutbox outbox, String first) {
+		return outbox.append(ContactOutbox.PUT_PAGE, "bucket", first + ".html",
+				Arrays.asList(new Attribute("First", first), new Attribute("Phone", "555-1234, Home")),
+				"{\"first\":\"" + first + "\"}");
+	}
+
+	private static List<Long> idsOf(List<ContactOutbox.Intent> intents) {
+		List<Long> ids = new ArrayList<Long>();
+		for (ContactOutbox.Intent intent : intents) {
+			ids.add(intent.getId());
+		}
+		return ids;
+	}
+
+	//an intent's id is its segment number and its offset in the segment
+	private static File segmentOf(File directory, ContactOutbox.Intent intent) {
+		return new File(directory, String.format("outbox-%016x.seg", intent.getId() >>> 32));
+	}
+
+	private static void corrupt(File directory, ContactOutbox.Intent intent, int offset) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(segmentOf(directory, intent), "rw");
+		try {
+			long position = (intent.getId() & 0xffffffffL) + offset;
+			file.seek(position);
+			int value = file.read();
+			file.seek(position);
+			file.write(value ^ 0xff);
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+public class ContactPageCacheTest {
+	private static final String BUCKET = "pages";
+
+	@Test
+	public void readsAStoredDigestOnceAndSkipsTheUnchangedPage() {
+		StoredPagesS3 s3 = new StoredPagesS3();
+		s3.store("Ann1.html", "aaaa", null);
+		ContactPageCache cache = new ContactPageCache(100, 1, TimeUnit.HOURS);
+
+		assertTrue(cache.isUnchanged(s3, BUCKET, "Ann1.html", "aaaa"));
+		assertTrue(cache.isUnchanged(s3, BUCKET, "Ann1.html", "aaaa"));
+		assertFalse(cache.isUnchanged(s3, BUCKET, "Ann1.html", "bbbb"));
+
+		assertEquals(1, s3.heads);
+		assertEquals(3, cache.getCheckCount());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getLookupCount());
+		assertEquals(2, cache.getSkipCount());
+	}
+
+	@Test
+	public void fallsBackToTheETag() {
+		StoredPagesS3 s3 = new StoredPagesS3();
+		s3.store("Bob2.html", null, "cccc");
+		ContactPageCache cache = new ContactPageCache(100, 1, TimeUnit.HOURS);
+
+		assertTrue(cache.isUnchanged(s3, BUCKET, "Bob2.html", "cccc"));
+	}
+
+	@Test
+	public void aMissingPageIsChangedUntilItIsUploaded() {
+		StoredPagesS3 s3 = new StoredPagesS3();
+		ContactPageCache cache = new ContactPageCache(100, 1, TimeUnit.HOURS);
+
+		assertFalse(cache.isUnchanged(s3, BUCKET, "Cat3.html", "dddd"));
+		cache.remember(BUCKET, "Cat3.html", "dddd");
+		assertTrue(cache.isUnchanged(s3, BUCKET, "Cat3.html", "dddd"));
+		assertEquals(1, s3.heads);
+
+		//a forgotten page is read from S3 again
+		cache.forget(BUCKET, "Cat3.html");
+		assertFalse(cache.isUnchanged(s3, BUCKET, "Cat3.html", "dddd"));
+		assertEquals(2, s3.heads);
+	}
+
+	//answers HEAD requests from a map of stored pages, counting them
+	private static class StoredPagesS3 extends AbstractAmazonS3 {
+		private final Map<String, ObjectMetadata> pages = new HashMap<String, ObjectMetadata>();
+		private int heads;
+
+		private void store(String key, String pageDigest, String eTag) {
+			ObjectMetadata metadata = new ObjectMetadata();
+			if (pageDigest != null) metadata.addUserMetadata(ContactPageCache.DIGEST_METADATA_KEY, pageDigest);
+			if (eTag != null) metadata.setHeader("ETag", eTag);
+			pages.put(key, metadata);
+		}
+
+		@Override
+		public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+			heads++;
+			ObjectMetadata metadata = pages.get(key);
+			if (metadata == null) {
+				AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+				notFound.setStatusCode(404);
+				throw notFound;
+			}
+			return metadata;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+
+public class ContactQueryTest {
+	@Test
+	public void refusesLikeWildcards() {
+		for (String prefix : Arrays.asList("Sa%", "S_m")) {
+			try {
+				ContactQuery.firstStartsWith(prefix);
+				fail(prefix + " was accepted as a first name prefix");
+			} catch (IllegalArgumentException expected) {
+			}
+			try {
+				ContactQuery.lastStartsWith(prefix);
+				fail(prefix + " was accepted as a last name prefix");
+			} catch (IllegalArgumentException expected) {
+			}
+			try {
+				ContactQuery.hasTags(Arrays.asList("work", prefix));
+				fail(prefix + " was accepted as a tag");
+			} catch (IllegalArgumentException expected) {
+			}
+			try {
+				ContactQuery.tagExpression("work !" + prefix);
+				fail(prefix + " was accepted in a tag expression");
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void escapesQuotesInLiterals() {
+		assertEquals("select * from `contacts` where First like 'O''Neil%' and itemName() != '"
+				+ ContactIdAllocator.COUNTER_ITEM_NAME + "'",
+				ContactQuery.firstStartsWith("O'Neil").toSelectExpression("contacts"));
+	}
+
+	@Test
+	public void matchesPrefixesAndTagsLocally() {
+		Item item = new Item("1", Arrays.asList(new Attribute(SimpleContacts.FIRST_KEY, "O'Neil"),
+				new Attribute(SimpleContacts.TAG_KEY, "[friend][work]")));
+
+		assertTrue(ContactQuery.firstStartsWith("O'N").matches(item));
+		assertFalse(ContactQuery.firstStartsWith("N").matches(item));
+		assertTrue(ContactQuery.tagExpression("friend !vendor").matches(item));
+		assertFalse(ContactQuery.tagExpression("friend vendor|school").matches(item));
+	}
+}
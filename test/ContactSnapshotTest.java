@@ -0,0 +1,91 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.simpledb.model.Attribute;
+import com.amazonaws.services.simpledb.model.Item;
+
+public class ContactSnapshotTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsBackWhatWasWritten() throws IOException {
+		List<Item> items = new ArrayList<Item>();
+		items.add(new Item("000000000000001", Arrays.asList(new Attribute("First", "Ann"), new Attribute("Last", "Lee"),
+				new Attribute("Phone", "773-202-5862, Work"), new Attribute("Phone", "555-1234"))));
+		items.add(new Item("000000000000002", Arrays.asList(new Attribute("First", "Zoë"), new Attribute("Tag", "[friend]"),
+				new Attribute("Street", longValue()))));
+		items.add(new Item("000000000000003", new ArrayList<Attribute>()));
+
+		File file = new File(folder.getRoot(), "contacts.snap");
+		ContactSnapshotWriter writer = new ContactSnapshotWriter(file);
+		for (Item item : items) {
+			writer.write(item);
+		}
+		writer.close();
+		assertEquals(3, writer.getItemCount());
+
+		List<Item> read = new ArrayList<Item>();
+		ContactSnapshotReader reader = new ContactSnapshotReader(file);
+		try {
+			while (reader.hasNext()) {
+				read.add(reader.next());
+			}
+			assertEquals(3, reader.getItemCount());
+		} finally {
+			reader.close();
+		}
+		assertEquals(items, read);
+	}
+
+	@Test
+	public void abortLeavesNoSnapshot() throws IOException {
+		File file = new File(folder.getRoot(), "contacts.snap");
+		ContactSnapshotWriter writer = new ContactSnapshotWriter(file);
+		writer.write(new Item("000000000000001", Arrays.asList(new Attribute("First", "Ann"))));
+		writer.abort();
+
+		assertFalse(file.exists());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void rejectsAFileThatIsNotASnapshot() throws IOException {
+		File file = folder.newFile("contacts.csv");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("First,Last\nAnn,Lee\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		try {
+			new ContactSnapshotReader(file).close();
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage().contains("is not a contact snapshot"));
+			return;
+		}
+		throw new AssertionError("read a CSV file as a snapshot");
+	}
+
+	//longer than a one byte varint length
+	private static String longValue() {
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			value.append((char) ('a' + i % 26));
+		}
+		return value.toString();
+	}
+}
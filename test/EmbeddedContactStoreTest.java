@@ -0,0 +1,126 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+public class EmbeddedContactStoreTest {
+	private static final int PAGE_SIZE = 2500;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File journalFile;
+	private EmbeddedContactStore store;
+
+	@Before
+	public void openStore() {
+		journalFile = new File(folder.getRoot(), "contacts.db");
+		store = new EmbeddedContactStore(journalFile);
+		store.ensureDomainExists();
+	}
+
+	@After
+	public void closeStore() throws IOException {
+		store.close();
+	}
+
+	@Test
+	public void aRejectedWriteLeavesNothingInTheJournal() throws IOException {
+		put("1", "Ann");
+		try {
+			put("2", repeat('x', 70000));
+			fail("a value over 1024 bytes was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			store.putAttributes("3", Arrays.asList(new ReplaceableAttribute(SimpleContacts.FIRST_KEY, null, true)));
+			fail("a null value was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+		put("4", "Bob");
+
+		reopen();
+		assertNotNull(store.getContact("1"));
+		assertNull(store.getContact("2"));
+		assertNull(store.getContact("3"));
+		assertNotNull(store.getContact("4"));
+	}
+
+	@Test
+	public void aBatchIsJournaledWholeOrNotAtAll() throws IOException {
+		try {
+			store.batchPutAttributes(Arrays.asList(
+					item("1", "Ann"),
+					item("2", repeat('é', 600))));
+			fail("a value over 1024 bytes was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+		assertNull(store.getContact("1"));
+
+		store.batchPutAttributes(Arrays.asList(item("3", "Cat"), item("4", "Dan")));
+		reopen();
+		assertNull(store.getContact("1"));
+		assertNotNull(store.getContact("3"));
+		assertNotNull(store.getContact("4"));
+	}
+
+	@Test
+	public void anExactlyFullPageHasNoNextToken() {
+		putContacts(0, PAGE_SIZE);
+		ContactPage page = store.select(ContactQuery.all(), null);
+		assertEquals(PAGE_SIZE, page.getItems().size());
+		assertNull(page.getNextToken());
+
+		//one more match gets a second page, holding just that match
+		putContacts(PAGE_SIZE, PAGE_SIZE + 1);
+		page = store.select(ContactQuery.all(), null);
+		assertEquals(PAGE_SIZE, page.getItems().size());
+		assertNotNull(page.getNextToken());
+		page = store.select(ContactQuery.all(), page.getNextToken());
+		assertEquals(1, page.getItems().size());
+		assertNull(page.getNextToken());
+	}
+
+	private void putContacts(int from, int to) {
+		List<ReplaceableItem> batch = new ArrayList<ReplaceableItem>();
+		for (int i = from; i < to; i++) {
+			batch.add(item(String.format("%05d", i), "Ann" + i));
+		}
+		store.batchPutAttributes(batch);
+	}
+
+	private void put(String itemName, String first) {
+		store.putAttributes(itemName, Arrays.asList(new ReplaceableAttribute(SimpleContacts.FIRST_KEY, first, true)));
+	}
+
+	private static ReplaceableItem item(String itemName, String first) {
+		return new ReplaceableItem(itemName, Arrays.asList(new ReplaceableAttribute(SimpleContacts.FIRST_KEY, first, true)));
+	}
+
+	private void reopen() throws IOException {
+		store.close();
+		store = new EmbeddedContactStore(journalFile);
+		store.ensureDomainExists();
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,54 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class EqualityIndexTest {
+	@Test
+	public void slicesTheContactsWithAValue() {
+		EqualityIndex states = new EqualityIndex();
+		for (int ordinal = 0; ordinal < 10; ordinal++) {
+			states.add(ordinal % 2 == 0 ? "IL" : "NY", ordinal);
+		}
+
+		assertEquals(5, states.count("IL"));
+		assertArrayEquals(new int[] { 0, 2, 4, 6, 8 }, states.slice("IL", 0, 10));
+		assertArrayEquals(new int[] { 4, 6 }, states.slice("IL", 2, 2));
+		assertArrayEquals(new int[0], states.slice("IL", 5, 2));
+		assertArrayEquals(new int[0], states.slice("CA", 0, 10));
+	}
+
+	@Test
+	public void changingAValueMovesTheContact() {
+		EqualityIndex states = new EqualityIndex();
+		states.add("IL", 1);
+		states.add("IL", 2);
+		states.add("IL", 3);
+		states.add("NY", 2);
+		states.remove(1);
+
+		assertEquals(1, states.count("IL"));
+		assertArrayEquals(new int[] { 3 }, states.slice("IL", 0, 10));
+		assertArrayEquals(new int[] { 2 }, states.slice("NY", 0, 10));
+	}
+
+	@Test
+	public void slicesCoverEveryContactOnce() {
+		EqualityIndex zips = new EqualityIndex();
+		for (int ordinal = 0; ordinal < 250; ordinal++) {
+			zips.add("60637", ordinal);
+		}
+
+		int[] seen = new int[250];
+		for (int offset = 0; offset < 250; offset += 100) {
+			for (int ordinal : zips.slice("60637", offset, 100)) {
+				seen[ordinal]++;
+			}
+		}
+		int[] once = new int[250];
+		Arrays.fill(once, 1);
+		assertArrayEquals(once, seen);
+	}
+}
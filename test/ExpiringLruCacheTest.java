@@ -0,0 +1,83 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ExpiringLruCacheTest {
+	@Test
+	public void evictsTheLeastRecentlyUsedEntryOnceFull() {
+		ExpiringLruCache<String> cache = new ExpiringLruCache<String>(2, 1, TimeUnit.HOURS);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.get("a");
+		cache.put("c", "3");
+
+		assertEquals("1", cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("3", cache.get("c"));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void entriesExpireAfterTheirTtl() throws InterruptedException {
+		ExpiringLruCache<String> cache = new ExpiringLruCache<String>(10, 50, TimeUnit.MILLISECONDS);
+		cache.put("a", "1");
+		assertEquals("1", cache.get("a"));
+
+		Thread.sleep(100);
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void aLoadIsNotCachedIfTheKeyWasWrittenMeanwhile() {
+		ExpiringLruCache<String> cache = new ExpiringLruCache<String>(10, 1, TimeUnit.HOURS);
+
+		long generation = cache.generation("a");
+		cache.put("a", "new");
+		assertFalse(cache.putIfUnchanged("a", "old", generation));
+		assertEquals("new", cache.get("a"));
+
+		generation = cache.generation("a");
+		cache.invalidate("a");
+		assertFalse(cache.putIfUnchanged("a", "old", generation));
+		assertNull(cache.get("a"));
+
+		generation = cache.generation("a");
+		assertTrue(cache.putIfUnchanged("a", "loaded", generation));
+		assertEquals("loaded", cache.get("a"));
+	}
+
+	@Test
+	public void updateReplacesOrEvictsTheCachedValue() {
+		ExpiringLruCache<String> cache = new ExpiringLruCache<String>(10, 1, TimeUnit.HOURS);
+		cache.put("a", "1");
+
+		cache.update("a", new ExpiringLruCache.Update<String>() {
+			public String apply(String value) {
+				return value + "2";
+			}
+		});
+		assertEquals("12", cache.get("a"));
+
+		cache.update("a", new ExpiringLruCache.Update<String>() {
+			public String apply(String value) {
+				return null;
+			}
+		});
+		assertNull(cache.get("a"));
+
+		//an update to an uncached key still stops a load in progress from caching it
+		long generation = cache.generation("b");
+		cache.update("b", new ExpiringLruCache.Update<String>() {
+			public String apply(String value) {
+				return value;
+			}
+		});
+		assertFalse(cache.putIfUnchanged("b", "old", generation));
+	}
+}
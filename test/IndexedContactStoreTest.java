@@ -0,0 +1,131 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+
+public class IndexedContactStoreTest {
+	private static final int CONTACTS = 250;
+	private static final int PAGE_SIZE = 100;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EmbeddedContactStore backingStore;
+	private IndexedContactStore store;
+
+	@Before
+	public void openStore() throws IOException {
+		backingStore = new EmbeddedContactStore(new File(folder.getRoot(), "contacts.db"));
+		backingStore.ensureDomainExists();
+		for (int i = 0; i < CONTACTS; i++) {
+			backingStore.putAttributes(itemName(i), Arrays.asList(
+					new ReplaceableAttribute(SimpleContacts.FIRST_KEY, (i % 2 == 0 ? "Sam" : "Pat") + i, true),
+					new ReplaceableAttribute(SimpleContacts.LAST_KEY, "Lee", true),
+					new ReplaceableAttribute(SimpleContacts.STATE_KEY, i % 5 == 0 ? "IL" : "NY", true),
+					new ReplaceableAttribute(SimpleContacts.ZIP_KEY, "60637", true),
+					new ReplaceableAttribute(SimpleContacts.TAG_KEY, i % 3 == 0 ? "[friend][work]" : "[work]", true),
+					new ReplaceableAttribute(SimpleContacts.BIRTHDAY_KEY, String.format("19%02d-01-01", 50 + i % 50), true)));
+		}
+
+		store = new IndexedContactStore(backingStore);
+		store.ensureDomainExists();
+	}
+
+	@After
+	public void closeStore() throws IOException {
+		backingStore.close();
+	}
+
+	@Test
+	public void pagesThroughEveryMatchOnce() {
+		List<ContactQuery> queries = Arrays.asList(
+				ContactQuery.firstStartsWith("Sam"),
+				ContactQuery.firstStartsWith("Sam1"),
+				ContactQuery.lastStartsWith("Le"),
+				ContactQuery.stateEquals("IL"),
+				ContactQuery.zipEquals("60637"),
+				ContactQuery.hasTags(Arrays.asList("friend", "work")),
+				ContactQuery.tagExpression("work !friend"),
+				ContactQuery.birthdayBefore("1960-01-01"),
+				ContactQuery.birthdayBetween("1960-01-01", "1980-01-01"),
+				ContactQuery.birthdayAfter("1975-06-01"));
+
+		for (ContactQuery query : queries) {
+			assertEquals(query.toString(), matchingNames(query), pagedNames(query));
+		}
+	}
+
+	@Test
+	public void followsWritesMadeThroughIt() {
+		store.putAttributes(itemName(1), Arrays.asList(new ReplaceableAttribute(SimpleContacts.STATE_KEY, "IL", true)));
+		store.deleteAttributes(itemName(0), null);
+
+		Set<String> illinois = pagedNames(ContactQuery.stateEquals("IL"));
+		assertTrue(illinois.contains(itemName(1)));
+		assertTrue(!illinois.contains(itemName(0)));
+		assertEquals(matchingNames(ContactQuery.stateEquals("IL")), illinois);
+	}
+
+	@Test
+	public void completesNames() {
+		assertEquals(Arrays.asList("Sam10", "Sam100", "Sam102"), store.completeName(SimpleContacts.FIRST_KEY, "Sam10", 3));
+		assertEquals(Arrays.asList("Lee"), store.completeName(SimpleContacts.LAST_KEY, "L", 10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsANegativeNextToken() {
+		store.select(ContactQuery.stateEquals("IL"), "-100");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsANextTokenThatIsNotAnOffset() {
+		store.select(ContactQuery.stateEquals("IL"), "abc");
+	}
+
+	//every page of a search through the indexes, checking no contact comes up twice
+	private Set<String> pagedNames(ContactQuery query) {
+		Set<String> names = new HashSet<String>();
+		String nextToken = null;
+		do {
+			ContactPage page = store.select(query, nextToken);
+			assertTrue(page.getItems().size() <= PAGE_SIZE);
+			for (Item item : page.getItems()) {
+				assertTrue(query + " returned " + item.getName() + " twice", names.add(item.getName()));
+			}
+			nextToken = page.getNextToken();
+		} while (nextToken != null);
+		return names;
+	}
+
+	//the contacts the query matches, by checking every one of them
+	private Set<String> matchingNames(ContactQuery query) {
+		List<String> itemNames = new ArrayList<String>();
+		for (int i = 0; i < CONTACTS; i++) {
+			itemNames.add(itemName(i));
+		}
+		Set<String> names = new HashSet<String>();
+		for (Item item : backingStore.getContacts(itemNames)) {
+			if (query.matches(item)) names.add(item.getName());
+		}
+		return names;
+	}
+
+	private static String itemName(int i) {
+		return String.format("%015d", i);
+	}
+}
@@ -0,0 +1,147 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+
+public class MessageCoalescerTest {
+	private static final long WINDOW_MILLIS = 200;
+
+	private RecordingDispatcher dispatcher;
+	private MessageCoalescer coalescer;
+
+	@Before
+	public void setUp() {
+		dispatcher = new RecordingDispatcher();
+		coalescer = new MessageCoalescer(new MessageCoalescer.KeyFunction() {
+			public String keyOf(Message message) {
+				return message.getBody().length() > 0 ? message.getBody() : null;
+			}
+		}, dispatcher, WINDOW_MILLIS);
+	}
+
+	@After
+	public void tearDown() {
+		coalescer.shutdown();
+	}
+
+	@Test
+	public void keepsOnlyTheNewestMessageSentDuringTheWindow() throws InterruptedException {
+		coalescer.offer(message("middle", "contact-1", 2000));
+		coalescer.offer(message("newest", "contact-1", 3000));
+		coalescer.offer(message("oldest", "contact-1", 1000));
+		coalescer.offer(message("other", "contact-2", 1500));
+		assertTrue(coalescer.awaitIdle(5, TimeUnit.SECONDS));
+
+		List<String> dispatched = new ArrayList<String>(dispatcher.dispatched);
+		Collections.sort(dispatched);
+		assertEquals(Arrays.asList("newest", "other"), dispatched);
+		List<String> superseded = new ArrayList<String>(dispatcher.superseded);
+		Collections.sort(superseded);
+		assertEquals(Arrays.asList("middle", "oldest"), superseded);
+		assertEquals(2, coalescer.getDispatchedCount());
+		assertEquals(2, coalescer.getSupersededCount());
+	}
+
+	@Test
+	public void dispatchesAMessageWithoutAKeyStraightAway() {
+		coalescer.offer(message("unkeyed", "", 1000));
+
+		assertEquals(Arrays.asList("unkeyed"), dispatcher.dispatched);
+	}
+
+	@Test
+	public void holdsAMessageThatArrivesWhileItsKeyIsInFlightUntilTheKeyIsDone() throws InterruptedException {
+		dispatcher.holdDone = true;
+		coalescer.offer(message("first", "contact-1", 1000));
+		waitForDispatches(1);
+
+		//the key is being worked on, so the next message waits even after its window
+		coalescer.offer(message("second", "contact-1", 2000));
+		Thread.sleep(WINDOW_MILLIS * 2);
+		assertEquals(Arrays.asList("first"), dispatcher.dispatched);
+
+		dispatcher.holdDone = false;
+		dispatcher.finishHeld();
+		waitForDispatches(2);
+		assertEquals(Arrays.asList("first", "second"), dispatcher.dispatched);
+		assertTrue(coalescer.awaitIdle(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void flushAllDispatchesWithoutWaitingOutTheWindow() throws InterruptedException {
+		MessageCoalescer slow = new MessageCoalescer(new MessageCoalescer.KeyFunction() {
+			public String keyOf(Message message) {
+				return message.getBody();
+			}
+		}, dispatcher, 60000);
+		try {
+			slow.offer(message("held", "contact-1", 1000));
+			slow.flushAll();
+			assertTrue(slow.awaitIdle(5, TimeUnit.SECONDS));
+
+			//and once flushed, new keys are not held either
+			slow.offer(message("late", "contact-2", 2000));
+			assertTrue(slow.awaitIdle(5, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("held", "late"), dispatcher.dispatched);
+		} finally {
+			slow.shutdown();
+		}
+	}
+
+	private void waitForDispatches(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (dispatcher.dispatched.size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, dispatcher.dispatched.size());
+	}
+
+	private static Message message(String id, String key, long sentTimestamp) {
+		Message message = new Message().withMessageId(id).withBody(key);
+		message.addAttributesEntry(MessageSystemAttributeName.SentTimestamp.toString(), String.valueOf(sentTimestamp));
+		return message;
+	}
+
+	//records what is dispatched and superseded; finishes each dispatch at once unless told to hold it
+	private static class RecordingDispatcher implements MessageCoalescer.Dispatcher {
+		private final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+		private final List<String> superseded = Collections.synchronizedList(new ArrayList<String>());
+		private final List<Runnable> held = new ArrayList<Runnable>();
+		private volatile boolean holdDone;
+
+		public void dispatch(Message message, Runnable whenDone) {
+			dispatched.add(message.getMessageId());
+			if (holdDone) {
+				synchronized (held) {
+					held.add(whenDone);
+				}
+			} else {
+				whenDone.run();
+			}
+		}
+
+		public void supersede(Message message) {
+			superseded.add(message.getMessageId());
+		}
+
+		private void finishHeld() {
+			synchronized (held) {
+				for (Runnable whenDone : held) {
+					whenDone.run();
+				}
+				held.clear();
+			}
+		}
+	}
+}
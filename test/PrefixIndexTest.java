@@ -0,0 +1,59 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PrefixIndexTest {
+	@Test
+	public void slicesTheMatchesInValueOrder() {
+		PrefixIndex index = new PrefixIndex();
+		index.add("Sam", "3");
+		index.add("Sally", "2");
+		index.add("Bob", "4");
+		index.add("Samuel", "1");
+		index.add("Sa", "5");
+
+		assertEquals(4, index.count("Sa"));
+		assertEquals(Arrays.asList("5", "2", "3", "1"), index.startsWith("Sa", 0, 10));
+		assertEquals(Arrays.asList("2", "3"), index.startsWith("Sa", 1, 2));
+		assertEquals(Arrays.asList("1"), index.startsWith("Sa", 3, 2));
+		assertEquals(Collections.<String>emptyList(), index.startsWith("Sa", 4, 2));
+		assertEquals(Collections.<String>emptyList(), index.startsWith("Sa", 9, 2));
+	}
+
+	@Test
+	public void matchingIsCaseSensitive() {
+		PrefixIndex index = new PrefixIndex();
+		index.add("sam", "1");
+		index.add("Sam", "2");
+
+		assertEquals(Arrays.asList("2"), index.startsWith("S", 0, 10));
+	}
+
+	@Test
+	public void bulkLoadSortsAndDropsDuplicates() {
+		PrefixIndex index = new PrefixIndex();
+		index.startBulkLoad();
+		index.add("Zed", "1");
+		index.add("Ann", "2");
+		index.add("Ann", "2");
+		index.add("Amy", "3");
+		index.finishBulkLoad();
+
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList("3", "2"), index.startsWith("A", 0, 10));
+	}
+
+	@Test
+	public void removedValuesNoLongerMatch() {
+		PrefixIndex index = new PrefixIndex();
+		index.add("Ann", "1");
+		index.add("Ann", "2");
+		index.remove("Ann", "1");
+
+		assertEquals(Arrays.asList("2"), index.startsWith("Ann", 0, 10));
+		assertEquals(Arrays.asList("Ann"), index.valuesStartingWith("A", 10));
+	}
+}
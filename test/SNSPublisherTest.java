@@ -0,0 +1,156 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.AbstractAmazonSNS;
+import com.amazonaws.services.sns.model.BatchResultErrorEntry;
+import com.amazonaws.services.sns.model.PublishBatchRequest;
+import com.amazonaws.services.sns.model.PublishBatchRequestEntry;
+import com.amazonaws.services.sns.model.PublishBatchResult;
+import com.amazonaws.services.sns.model.PublishBatchResultEntry;
+
+public class SNSPublisherTest {
+	private static final String TOPIC_ARN = "arn:aws:sns:us-east-1:123456789012:contacts";
+
+	@Test
+	public void publishesWhatIsQueuedInBatchesOfUpToTen() throws Exception {
+		StubTopic topic = new StubTopic();
+		topic.blockFirstBatch();
+		SNSPublisher publisher = new SNSPublisher(topic, TOPIC_ARN, 100, 1000, 3);
+
+		List<CompletableFuture<Void>> published = new ArrayList<CompletableFuture<Void>>();
+		published.add(publisher.publishAsync("m0"));
+		assertTrue(topic.firstBatchStarted.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < 25; i++) {
+			published.add(publisher.publishAsync("m" + i));
+		}
+		topic.firstBatchMayFinish.countDown();
+		publisher.shutdown(5, TimeUnit.SECONDS);
+
+		for (CompletableFuture<Void> future : published) {
+			future.get(1, TimeUnit.SECONDS);
+		}
+		//the first batch held one message; the 24 queued behind it go in as few batches as possible
+		assertEquals(Arrays.asList(1, 10, 10, 4), topic.batchSizes);
+		assertEquals(25, publisher.getPublishedCount());
+	}
+
+	@Test
+	public void retriesWhatSNSFailedAndGivesUpOnWhatItRejected() throws Exception {
+		StubTopic topic = new StubTopic();
+		topic.failRequests = 1;
+		SNSPublisher publisher = new SNSPublisher(topic, TOPIC_ARN, 100, 1000, 5);
+
+		CompletableFuture<Void> flaky = publisher.publishAsync("flaky");
+		CompletableFuture<Void> rejected = publisher.publishAsync("rejected");
+		CompletableFuture<Void> ok = publisher.publishAsync("ok");
+		publisher.shutdown(10, TimeUnit.SECONDS);
+
+		flaky.get(1, TimeUnit.SECONDS);
+		ok.get(1, TimeUnit.SECONDS);
+		assertFailsWith(IllegalArgumentException.class, rejected);
+		assertTrue(topic.published.contains("flaky") && topic.published.contains("ok"));
+		assertFalse(topic.published.contains("rejected"));
+		assertTrue(publisher.getRetriedCount() >= 2);
+		assertEquals(1, publisher.getFailedCount());
+	}
+
+	@Test
+	public void givesUpAfterTheLastAttempt() throws Exception {
+		StubTopic topic = new StubTopic();
+		topic.failRequests = Integer.MAX_VALUE;
+		SNSPublisher publisher = new SNSPublisher(topic, TOPIC_ARN, 100, 1000, 2);
+
+		CompletableFuture<Void> message = publisher.publishAsync("never");
+		publisher.shutdown(10, TimeUnit.SECONDS);
+
+		assertFailsWith(IllegalStateException.class, message);
+		assertEquals(2, topic.requests);
+		assertEquals(1, publisher.getFailedCount());
+	}
+
+	@Test
+	public void dropsAMessageWhenTheQueueStaysFull() throws Exception {
+		StubTopic topic = new StubTopic();
+		topic.blockFirstBatch();
+		SNSPublisher publisher = new SNSPublisher(topic, TOPIC_ARN, 1, 50, 3);
+
+		assertTrue(publisher.publish("sending"));
+		assertTrue(topic.firstBatchStarted.await(5, TimeUnit.SECONDS));
+		assertTrue(publisher.publish("queued"));
+		assertFalse(publisher.publish("dropped"));
+		topic.firstBatchMayFinish.countDown();
+		publisher.shutdown(5, TimeUnit.SECONDS);
+
+		assertEquals(Arrays.asList("sending", "queued"), topic.published);
+		assertEquals(1, publisher.getDroppedCount());
+		assertFalse(publisher.publish("after shutdown"));
+	}
+
+	private static void assertFailsWith(Class<? extends Exception> expected, CompletableFuture<Void> future) throws Exception {
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("expected " + expected.getSimpleName());
+		} catch (ExecutionException ex) {
+			assertEquals(expected, ex.getCause().getClass());
+		}
+	}
+
+	//fails the first failRequests requests, rejects the message "rejected" as the sender's fault,
+	//and fails the message "flaky" once as its own fault
+	private static class StubTopic extends AbstractAmazonSNS {
+		private final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+		private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		private final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+		private CountDownLatch firstBatchMayFinish = new CountDownLatch(0);
+		private volatile int failRequests;
+		private volatile int requests;
+		private boolean flakyFailed;
+
+		private void blockFirstBatch() {
+			firstBatchMayFinish = new CountDownLatch(1);
+		}
+
+		@Override
+		public PublishBatchResult publishBatch(PublishBatchRequest request) {
+			requests++;
+			firstBatchStarted.countDown();
+			try {
+				firstBatchMayFinish.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			if (requests <= failRequests) {
+				throw new AmazonServiceException("SNS is unavailable");
+			}
+
+			batchSizes.add(request.getPublishBatchRequestEntries().size());
+			PublishBatchResult result = new PublishBatchResult();
+			for (PublishBatchRequestEntry entry : request.getPublishBatchRequestEntries()) {
+				if (entry.getMessage().equals("rejected")) {
+					result.withFailed(new BatchResultErrorEntry().withId(entry.getId()).withCode("InvalidParameter").withSenderFault(true));
+				} else if (entry.getMessage().equals("flaky") && !flakyFailed) {
+					flakyFailed = true;
+					result.withFailed(new BatchResultErrorEntry().withId(entry.getId()).withCode("InternalError").withSenderFault(false));
+				} else {
+					published.add(entry.getMessage());
+					result.withSuccessful(new PublishBatchResultEntry().withId(entry.getId()));
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+public class SQSConsumerTest {
+	private static final String QUEUE_URL = "https://sqs.test/queue";
+	private static final String DEAD_LETTER_QUEUE_URL = "https://sqs.test/dead-letters";
+
+	@Test
+	public void handlesAndDeletesEveryMessage() throws InterruptedException {
+		StubQueue queue = new StubQueue();
+		for (int i = 0; i < 25; i++) {
+			queue.add(message("m" + i, "body" + i, 1));
+		}
+		final Set<String> handled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		SQSConsumer consumer = consumer(queue, new SQSConsumer.MessageHandler() {
+			public boolean handle(Message message) {
+				handled.add(message.getBody());
+				return true;
+			}
+		});
+
+		consumer.start();
+		assertTrue(waitFor(queue, 25));
+		consumer.shutdown(5, TimeUnit.SECONDS);
+
+		assertEquals(25, handled.size());
+		assertEquals(25, consumer.getHandledCount());
+		assertEquals(25, consumer.getDeletedCount());
+	}
+
+	@Test
+	public void leavesAFailedMessageToBeRedeliveredUntilItsLastReceive() throws InterruptedException {
+		StubQueue queue = new StubQueue();
+		queue.add(message("retry", "fails on receive 1", 1));
+		queue.add(message("poison", "fails on receive 5", 5));
+		queue.add(message("ok", "works", 1));
+		SQSConsumer consumer = consumer(queue, new SQSConsumer.MessageHandler() {
+			public boolean handle(Message message) {
+				return message.getBody().equals("works");
+			}
+		});
+		consumer.setMaxReceives(5, DEAD_LETTER_QUEUE_URL);
+
+		consumer.start();
+		assertTrue(waitFor(queue, 2));
+		consumer.shutdown(5, TimeUnit.SECONDS);
+
+		//the poison message is moved and deleted; the one with receives left is not deleted
+		assertEquals(Collections.singletonList(DEAD_LETTER_QUEUE_URL + " fails on receive 5"), queue.deadLettered);
+		assertTrue(queue.deleted.contains("poison") && queue.deleted.contains("ok"));
+		assertTrue(!queue.deleted.contains("retry"));
+		assertEquals(2, consumer.getFailedCount());
+		assertEquals(1, consumer.getDeadLetteredCount());
+	}
+
+	@Test
+	public void coalescesMessagesAboutTheSameKey() throws InterruptedException {
+		StubQueue queue = new StubQueue();
+		queue.add(sentAt(message("old", "contact-1", 1), 1000));
+		queue.add(sentAt(message("new", "contact-1", 1), 2000));
+		queue.add(sentAt(message("other", "contact-2", 1), 1500));
+		final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+		SQSConsumer consumer = consumer(queue, new SQSConsumer.MessageHandler() {
+			public boolean handle(Message message) {
+				handled.add(message.getMessageId());
+				return true;
+			}
+		});
+		consumer.setCoalescing(new MessageCoalescer.KeyFunction() {
+			public String keyOf(Message message) {
+				return message.getBody();
+			}
+		}, 200);
+
+		consumer.start();
+		assertTrue(waitFor(queue, 3));
+		consumer.shutdown(5, TimeUnit.SECONDS);
+
+		//the superseded message is deleted without being handled
+		Collections.sort(handled);
+		assertEquals(Arrays.asList("new", "other"), handled);
+	}
+
+	private static SQSConsumer consumer(StubQueue queue, SQSConsumer.MessageHandler handler) {
+		return new SQSConsumer(queue, QUEUE_URL, handler, 2, 4, 10, 0, 30, 60);
+	}
+
+	private static boolean waitFor(StubQueue queue, int deletes) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (queue.deleted.size() < deletes) {
+			if (System.nanoTime() > deadline) return false;
+			Thread.sleep(20);
+		}
+		return true;
+	}
+
+	private static Message message(String id, String body, int receiveCount) {
+		Message message = new Message().withMessageId(id).withReceiptHandle(id).withBody(body);
+		message.addAttributesEntry(MessageSystemAttributeName.ApproximateReceiveCount.toString(), String.valueOf(receiveCount));
+		return message;
+	}
+
+	private static Message sentAt(Message message, long sentTimestamp) {
+		message.addAttributesEntry(MessageSystemAttributeName.SentTimestamp.toString(), String.valueOf(sentTimestamp));
+		return message;
+	}
+
+	//hands each message out once, and records deletes (by receipt handle) and sent messages
+	private static class StubQueue extends AbstractAmazonSQS {
+		private final LinkedList<Message> available = new LinkedList<Message>();
+		private final Set<String> deleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final List<String> deadLettered = Collections.synchronizedList(new ArrayList<String>());
+
+		private synchronized void add(Message message) {
+			available.add(message);
+		}
+
+		@Override
+		public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+			List<Message> messages = new ArrayList<Message>();
+			synchronized (this) {
+				while (!available.isEmpty() && messages.size() < request.getMaxNumberOfMessages()) {
+					messages.add(available.removeFirst());
+				}
+			}
+			if (messages.isEmpty()) {
+				//a short long poll
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return new ReceiveMessageResult().withMessages(messages);
+		}
+
+		@Override
+		public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+			DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+			for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+				deleted.add(entry.getReceiptHandle());
+				result.withSuccessful(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+			}
+			return result;
+		}
+
+		@Override
+		public SendMessageResult sendMessage(SendMessageRequest request) {
+			deadLettered.add(request.getQueueUrl() + " " + request.getMessageBody());
+			return new SendMessageResult();
+		}
+
+		@Override
+		public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+			return new ChangeMessageVisibilityBatchResult();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.Message;
+
+public class VisibilityLeaseManagerTest {
+	private static final String QUEUE_URL = "https://sqs.test/queue";
+
+	@Test
+	public void extendsALeaseUntilItIsReleased() throws InterruptedException {
+		RecordingQueue queue = new RecordingQueue();
+		VisibilityLeaseManager leases = new VisibilityLeaseManager(queue, QUEUE_URL, 1, 60);
+		try {
+			leases.lease(message("held"));
+			leases.lease(message("done"));
+			leases.release(message("done"));
+
+			//the heartbeat runs every 250ms and extends leases past half of their 1s visibility
+			Thread.sleep(1200);
+			assertTrue(queue.extended.contains("held"));
+			assertTrue(!queue.extended.contains("done"));
+			assertTrue(leases.getExtendedCount() >= 1);
+
+			//let a heartbeat that was already running finish
+			leases.release(message("held"));
+			Thread.sleep(300);
+			int extensions = queue.extended.size();
+			Thread.sleep(600);
+			assertEquals(extensions, queue.extended.size());
+			assertEquals(0, leases.getLeaseCount());
+		} finally {
+			leases.shutdown();
+		}
+	}
+
+	@Test
+	public void stopsExtendingALeaseAtTheMaximumLeaseTime() throws InterruptedException {
+		RecordingQueue queue = new RecordingQueue();
+		VisibilityLeaseManager leases = new VisibilityLeaseManager(queue, QUEUE_URL, 1, 1);
+		try {
+			leases.lease(message("stuck"));
+			Thread.sleep(1600);
+			assertEquals(0, leases.getLeaseCount());
+		} finally {
+			leases.shutdown();
+		}
+	}
+
+	private static Message message(String receiptHandle) {
+		return new Message().withMessageId(receiptHandle).withReceiptHandle(receiptHandle);
+	}
+
+	//records the receipt handles whose visibility was extended
+	private static class RecordingQueue extends AbstractAmazonSQS {
+		private final List<String> extended = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+			ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult();
+			for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+				extended.add(entry.getReceiptHandle());
+				result.withSuccessful(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+			}
+			return result;
+		}
+	}
+}